@@ -1,19 +1,42 @@
 package werewolf;
 
-import java.io.FileWriter;
-import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.Vector;
+import java.util.List;
 
 import org.jibble.pircbot.Colors;
 
 import werewolf.define.Command;
+import werewolf.define.GamePhase;
+import werewolf.define.Interactable;
 import werewolf.define.Messages;
 import werewolf.define.Roleset;
+import werewolf.define.Tiebreaker;
+import werewolf.define.Transport;
+import werewolf.phase.Day;
+import werewolf.phase.Morning;
+import werewolf.phase.Night;
+import werewolf.phase.PhaseTimer;
+import werewolf.tiebreaker.FirstToLead;
+import werewolf.util.AliasTrie;
+import werewolf.util.EffectWheel;
+import werewolf.util.EventRecorder;
+import werewolf.util.GameJournal;
+import werewolf.util.GameRandom;
+import werewolf.util.LogAppender;
+import werewolf.util.MessageTemplate;
+import werewolf.util.NightResolver;
+import werewolf.util.OutboundQueue;
 import werewolf.util.PeekMod;
-
-public class Game implements Runnable, Messages
+import werewolf.util.RateLimiter;
+import werewolf.util.SerialExecutor;
+import werewolf.util.TeamGroups;
+import werewolf.util.UserRegistry;
+import werewolf.util.VoteTally;
+import werewolf.util.WinCounters;
+
+public class Game implements Messages
 {
 	/**
 	 * Kill/Protect from night lynch.
@@ -58,29 +81,6 @@ public class Game implements Runnable, Messages
 		return Colors.BOLD + input + Colors.BOLD;
 	}
 
-	public static String chooseMessage(String[] choices)
-	{
-		return choices[(int) (Math.random() * choices.length)];
-	}
-
-	public static String chooseMessage(String[] choices, String replace1)
-	{
-		String choice = choices[(int) (Math.random() * choices.length)];
-		return choice.replaceAll("\\[1\\]", replace1);
-	}
-
-	public static String chooseMessage(String[] choices, String replace1, String replace2)
-	{
-		String choice = choices[(int) (Math.random() * choices.length)];
-		return choice.replaceAll("\\[1\\]", replace1).replaceAll("\\[2\\]", replace2);
-	}
-
-	public static String chooseMessage(String[] choices, String replace1, String replace2, String replace3)
-	{
-		String choice = choices[(int) (Math.random() * choices.length)];
-		return choice.replaceAll("\\[1\\]", replace1).replaceAll("\\[2\\]", replace2).replaceAll("\\[3\\]", replace3);
-	}
-
 	/**
 	 * Concatinates two arrays of type T and returns a single array of the same
 	 * type.
@@ -132,18 +132,14 @@ public class Game implements Runnable, Messages
 		return Colors.UNDERLINE + input + Colors.UNDERLINE;
 	}
 
-	private Vector<IrcUser>	m_players		= new Vector<IrcUser>();	// Array
-																		// of
-																		// all
+	private UserRegistry	m_players		= new UserRegistry();		// All
 																		// players.
-	private Vector<IrcUser>	m_users			= new Vector<IrcUser>();	// Array
-																		// of
-																		// all
+	private UserRegistry	m_users			= new UserRegistry();		// All
 																		// users
 																		// in
 																		// the
 																		// channel.
-	private Vector<String>	m_events		= new Vector<String>();	// Double
+	private List<String>	m_events		= new ArrayList<String>();	// Double
 																		// array
 																		// of
 																		// event
@@ -156,6 +152,10 @@ public class Game implements Runnable, Messages
 																		// user
 																		// commands.
 
+	private AliasTrie<Command>	m_commandTable;						// Compiled
+																		// command
+																		// aliases.
+
 	protected int			m_phase			= 0;						// Current
 																		// phase.
 																		// 0=Setup,
@@ -180,7 +180,7 @@ public class Game implements Runnable, Messages
 																		// start
 																		// at.
 
-	private WerewolfHost	m_bot;										// Reference
+	private Transport		m_bot;										// Reference
 																		// to
 																		// IRC
 																		// bot.
@@ -189,63 +189,324 @@ public class Game implements Runnable, Messages
 																		// for
 																		// bot.
 
+	private String			m_channel;									// Channel
+																		// the
+																		// game
+																		// is
+																		// hosted
+																		// in.
+
+	private SerialExecutor	m_lane;										// Runs
+																		// all
+																		// work
+																		// for
+																		// this
+																		// game
+																		// in
+																		// order.
+
+	private RateLimiter<Object>	m_limits	= new RateLimiter<Object>();	// Command
+																		// rate
+																		// limits,
+																		// by
+																		// user
+																		// and
+																		// kind
+																		// of
+																		// command.
+
+	private long			m_lastOpCheck	= 0;						// Time
+																		// that
+																		// the
+																		// bot
+																		// last
+																		// checked
+																		// it's
+																		// OP
+																		// status
+																		// in
+																		// the
+																		// channel.
+
+	private GamePhase		m_current		= null;					// Current
+																		// phase
+																		// object.
+
+	private PhaseTimer		m_timer			= new PhaseTimer(this);	// Timers
+																		// for
+																		// the
+																		// current
+																		// phase.
+
+	private NightResolver	m_night			= new NightResolver();	// Actions
+																		// submitted
+																		// so
+																		// far
+																		// tonight.
+
+	private GameJournal		m_journal		= new GameJournal();	// Records
+																		// state
+																		// changes
+																		// so
+																		// the
+																		// game
+																		// survives
+																		// a
+																		// restart.
+
+	private GameRandom		m_random;									// Chooses
+																		// this
+																		// game's
+																		// messages
+																		// and
+																		// tiebreaks.
+
+	private GameRandom		m_nightRandom;								// Rolls
+																		// for
+																		// protections,
+																		// infections
+																		// and
+																		// peeks.
+
+	private GameRandom		m_timerRandom;								// Picks
+																		// how
+																		// long
+																		// phases
+																		// overrun.
+
+	private EffectWheel		m_effects		= new EffectWheel();	// Protections
+																		// and
+																		// infections,
+																		// filed
+																		// by
+																		// the
+																		// round
+																		// they
+																		// start
+																		// or
+																		// finish
+																		// in.
+
+	private EventRecorder	m_recorder		= new EventRecorder();	// Records
+																		// inbound
+																		// events
+																		// for
+																		// replaying.
+
+	private TeamGroups		m_teams			= new TeamGroups();	// Players
+																		// who
+																		// know
+																		// their
+																		// team,
+																		// grouped
+																		// by
+																		// team.
+
+	private VoteTally		m_votes			= new VoteTally();	// Today's
+																		// votes,
+																		// tallied
+																		// as
+																		// they
+																		// are
+																		// cast.
+
+	private Tiebreaker		m_tiebreaker	= new FirstToLead();	// Picks
+																		// the
+																		// lynch
+																		// when
+																		// the
+																		// vote
+																		// is
+																		// tied.
+
+	private WinCounters		m_counters		= new WinCounters();	// Team
+																		// and
+																		// parity
+																		// totals
+																		// for
+																		// the
+																		// living
+																		// players.
+
 	private Roleset[]		m_rolesets;
 
 	private String			m_roleset;
 
-	public Game(WerewolfHost bot, Settings config, Command[] commands, Roleset[] rolesets)
+	public Game(Transport bot, Settings config, Command[] commands, Roleset[] rolesets)
 	{
 		this.m_commands = commands;
 		this.m_rolesets = rolesets;
 		this.m_bot = bot;
 		this.m_config = config;
+		this.m_channel = config.getSnapshot().channel;
+		this.m_lane = new SerialExecutor(bot.getWorkers());
 
 		this.m_roleset = config.getPreference("roleset", "Default");
+		int seed = config.getSnapshot().seed;
+		this.setSeed(seed != 0 ? seed : System.nanoTime() ^ System.currentTimeMillis() << 20);
 	}
 
 	public void action(String message)
 	{
-		this.action(this.m_config.getSetting("channel", Settings.channel), message);
+		this.action(this.m_channel, message);
 	}
 
 	public void action(String target, String message)
 	{
-		this.m_bot.sendAction(target, message);
+		this.m_bot.queueAction(target, message, this.priority(target));
 	}
 
 	public void addPlayer(IrcUser newPlayer)
 	{
-		if (!this.isPlayer(newPlayer))
-			this.m_players.add(newPlayer);
+		if (!this.m_players.add(newPlayer))
+			return;
+		this.m_teams.update(newPlayer);
+		this.m_counters.add(newPlayer);
+		this.m_journal.player(newPlayer.getNick(), true);
 	}
 
-	private void calcDay()
+	/**
+	 * Checks a line against the command rate limits before it is given to
+	 * {@link #onMessage}. Each user has a bucket for each kind of command they
+	 * use, holding up to cmdBurst commands and earning one back every cmdDelay
+	 * milliseconds. Lines that are not commands always pass.
+	 *
+	 * @param user
+	 *            The user who sent the line.
+	 * @param message
+	 *            The line, without its command character.
+	 * @return True if the line may be handled, false if it should be dropped.
+	 */
+	public boolean allowCommand(IrcUser user, String message)
 	{
-		if (this.m_config.getSetting("dualPhase", Settings.dualPhase))
+		SettingsSnapshot config = this.m_config.getSnapshot();
+		if (config.cmdBurst <= 0)
+			return true;
+		Object owner = null;
+		AliasTrie.Binding<Interactable> own = user.getAliasTable().match(message);
+		if (own != null)
+			owner = own.getOwner();
+		else
+		{
+			AliasTrie.Binding<Command> binding = this.getCommandTable().match(message);
+			if (binding != null)
+				owner = binding.getOwner();
+		}
+		if (owner == null)
+			return true;
+		return this.m_limits.allow(user, owner.getClass(), config.cmdBurst, config.cmdDelay, System.currentTimeMillis());
+	}
+
+	/**
+	 * Resolves the day. The player with the most votes is lynched, with the
+	 * game's tiebreaker choosing between tied leaders.
+	 */
+	public void calcDay()
+	{
+		IrcUser lynched = this.m_tiebreaker.breakFinalTie(this);
+		if (lynched == null)
+			this.say(this.chooseMessage(Messages.msg_lynchNone));
+		else if (!this.getRoleset().showRoles())
+		{
+			this.say(this.chooseMessage(Messages.msg_lynchHidden, lynched.getNick()));
+			lynched.makeUser();
+		} else
+		{
+			this.say(this.chooseMessage(Messages.msg_lynchHidden, lynched.getNick()) + " They were the " + Game.bold(lynched.getRole().name()));
+			lynched.makeUser();
+		}
+		if (this.m_config.getSnapshot().dualPhase)
 			this.calcNight();
 	}
 
-	private void calcNight()
+	/**
+	 * Resolves the night. Each player's triggers get one last chance to submit
+	 * actions to {@link #getNight()}, and then every submitted action is
+	 * resolved in a single pass. The next night starts with an empty resolver.
+	 */
+	public void calcNight()
 	{
 		IrcUser[] players = this.getPlayers();
 		for (int i = 0; i < players.length; ++i)
+		{
 			players[i].blockTrigger();
-		for (int i = 0; i < players.length; ++i)
 			players[i].protectTrigger();
-		for (int i = 0; i < players.length; ++i)
 			players[i].killTrigger();
-		for (int i = 0; i < players.length; ++i)
 			players[i].peekTrigger(new PeekMod());
-		if (this.calcWin())
+			players[i].infectTrigger();
+		}
+		NightResolver night = this.m_night;
+		this.m_night = new NightResolver();
+		night.resolve(this);
+		this.m_effects.endRound();
+	}
+
+	/**
+	 * Checks whether the game has been won. Only reads the totals kept by
+	 * {@link #getCounters()}, so it is cheap enough to call after every kill.
+	 *
+	 * @return True if a team has won or no team is left alive.
+	 */
+	public boolean calcWin()
+	{
+		return this.m_phase != 0 && this.m_counters.getWinner() != WinCounters.NONE;
+	}
+
+	/**
+	 * Ends the current phase early if every player who can hold it open has
+	 * chosen their targets. Does nothing outside of night or if the actionType
+	 * setting only allows timed nights. Called after every command handled
+	 * by {@link #onMessage}, since that is where night actions are chosen.
+	 */
+	public void checkEarlyEnd()
+	{
+		if (this.m_phase != 1)
 			return;
+		int type = this.m_config.getSnapshot().actionType;
+		if (type == 0)
+			return;
+		IrcUser[] players = this.getPlayers();
 		for (int i = 0; i < players.length; ++i)
-			players[i].infectTrigger();
-		this.calcWin();
+			if (type == 1 ? players[i].nightlyHold() : players[i].killHold())
+				return;
+		this.m_timer.endEarly();
 	}
 
-	private boolean calcWin()
+	/**
+	 * Records an OP check for this game's channel.
+	 *
+	 * @param interval
+	 *            The minimum number of milliseconds between checks.
+	 * @return True if enough time has passed since the last check that the
+	 *         bot should check again now.
+	 */
+	public boolean checkOpDue(long interval)
 	{
-		return false;
+		long time = new Date().getTime();
+		if (this.m_lastOpCheck > time - interval)
+			return false;
+		this.m_lastOpCheck = time;
+		return true;
+	}
+
+	/**
+	 * Picks one of a set of messages with this game's random source and fills
+	 * in its placeholders.
+	 *
+	 * @param choices
+	 *            The messages to choose from, usually one of the
+	 *            {@link Messages} arrays.
+	 * @param replacements
+	 *            The text for [1], [2] and so on.
+	 * @return The chosen message, or the empty string if there are no
+	 *         choices.
+	 */
+	public String chooseMessage(String[] choices, String... replacements)
+	{
+		MessageTemplate[] templates = MessageTemplate.compile(choices);
+		if (templates.length == 0)
+			return "";
+		return templates[this.m_random.nextInt(templates.length)].render(replacements);
 	}
 
 	public void dispatch(String str)
@@ -271,17 +532,17 @@ public class Game implements Runnable, Messages
 		else if (command.contentEquals("kick"))
 		{
 			if (arg.contains(" "))
-				this.m_bot.kick(this.m_config.getSetting("channel", Settings.channel), arg.substring(0, arg.indexOf(" ")), arg.substring(arg.indexOf(" ") + 1, arg.length()));
+				this.m_bot.kick(this.m_channel, arg.substring(0, arg.indexOf(" ")), arg.substring(arg.indexOf(" ") + 1, arg.length()));
 			else
-				this.m_bot.kick(this.m_config.getSetting("channel", Settings.channel), arg);
+				this.m_bot.kick(this.m_channel, arg);
 		} else if (command.contentEquals("op"))
-			this.m_bot.op(this.m_config.getSetting("channel", Settings.channel), arg);
+			this.m_bot.op(this.m_channel, arg);
 		else if (command.contentEquals("voice"))
-			this.m_bot.voice(this.m_config.getSetting("channel", Settings.channel), arg);
+			this.m_bot.voice(this.m_channel, arg);
 		else if (command.contentEquals("deop"))
-			this.m_bot.deOp(this.m_config.getSetting("channel", Settings.channel), arg);
+			this.m_bot.deOp(this.m_channel, arg);
 		else if (command.contentEquals("devoice"))
-			this.m_bot.deVoice(this.m_config.getSetting("channel", Settings.channel), arg);
+			this.m_bot.deVoice(this.m_channel, arg);
 		else if (command.contentEquals("quit"))
 		{
 			if (arg.length() == 0)
@@ -289,64 +550,143 @@ public class Game implements Runnable, Messages
 			else
 				this.m_bot.quitServer(arg);
 		} else if (command.contentEquals("cop"))
-			this.toChanserv("OP " + this.m_config.getSetting("channel", Settings.channel) + " " + arg);
+			this.toChanserv("OP " + this.m_channel + " " + arg);
 		else if (command.contentEquals("cvoice"))
-			this.toChanserv("VOICE " + this.m_config.getSetting("channel", Settings.channel) + " " + arg);
+			this.toChanserv("VOICE " + this.m_channel + " " + arg);
 		else if (command.contentEquals("cdeop"))
-			this.toChanserv("DEOP " + this.m_config.getSetting("channel", Settings.channel) + " " + arg);
+			this.toChanserv("DEOP " + this.m_channel + " " + arg);
 		else if (command.contentEquals("cdevoice"))
-			this.toChanserv("DEVOICE " + this.m_config.getSetting("channel", Settings.channel) + " " + arg);
+			this.toChanserv("DEVOICE " + this.m_channel + " " + arg);
 		else
 			System.err.println("Unknown command: " + command);
 	}
 
-	private void displayResults()
+	public void displayResults()
 	{
 
 	}
 
+	/**
+	 * Resolves the current phase and moves on to the next one. Called by the
+	 * {@link PhaseTimer} when a phase runs out or is ended early.
+	 */
+	public void endPhase()
+	{
+		if (this.m_current == null)
+			return;
+		this.m_recorder.end();
+		GamePhase next = this.m_current.end(this);
+		if (this.calcWin())
+		{
+			int winner = this.m_counters.getWinner();
+			if (winner == WinCounters.DRAW)
+				this.say(this.chooseMessage(Messages.msg_draw));
+			else
+				this.say(this.chooseMessage(Messages.msg_win, Game.getClass(winner, false)));
+			next = null;
+		}
+		this.setPhase(next);
+	}
+
 	public void errorLog(String text)
 	{
 		this.logFile(text, "Error.log");
 	}
 
+	/**
+	 * Queues work on this game's lane. Tasks for the same game run one at a
+	 * time in the order they were queued, without holding up other games.
+	 * IRC events, console input and phase timers all come through here, so
+	 * the game's state is only ever touched by one thread at a time and needs
+	 * no locking of its own.
+	 *
+	 * @param task
+	 *            The work to run.
+	 */
+	public void execute(Runnable task)
+	{
+		this.m_lane.execute(task);
+	}
+
 	public void gameLog(String text)
 	{
 		this.logFile(text, "Game.log");
 	}
 
-	public WerewolfHost getBot()
+	public Transport getBot()
 	{
 		return this.m_bot;
 	}
 
-	private int getObjectIndex(String nick, boolean partial, Vector<IrcUser> object)
+	/**
+	 * @return The channel this game is hosted in.
+	 */
+	public String getChannel()
 	{
-		nick = nick.toLowerCase();
-		int found = -1;
-		for (int i = 0; i < object.size(); ++i)
-			if (object.elementAt(i).equals(nick))
-				return i;
-		if (partial)
-		{
-			for (int i = 0; i < object.size(); ++i)
-				if (object.elementAt(i).getNick().toLowerCase().startsWith(nick))
-				{
-					if (found >= 0)
-						return -2;
-					found = i;
-				}
-			if (found >= 0)
-				return found;
-			for (int i = 0; i < object.size(); ++i)
-				if (object.elementAt(i).getNick().toLowerCase().contains(nick))
-				{
-					if (found >= 0)
-						return -2;
-					found = i;
-				}
-		}
-		return found;
+		return this.m_channel;
+	}
+
+	/**
+	 * Compiles the game's commands into a dispatch table on first use. The
+	 * command array is filled in after the game is constructed, so this cannot
+	 * happen any earlier.
+	 *
+	 * @return The table mapping every command alias to its command.
+	 */
+	private AliasTrie<Command> getCommandTable()
+	{
+		AliasTrie<Command> table = this.m_commandTable;
+		if (table != null)
+			return table;
+		table = new AliasTrie<Command>();
+		for (int i = 0; i < this.m_commands.length; ++i)
+			if (this.m_commands[i] != null)
+				table.bind(this.m_commands[i].getAliases(), this.m_commands[i], i);
+		this.m_commandTable = table;
+		return table;
+	}
+
+	/**
+	 * @return The team and parity totals for the living players.
+	 */
+	public WinCounters getCounters()
+	{
+		return this.m_counters;
+	}
+
+	/**
+	 * @return The rounds protections and infections start and finish in.
+	 */
+	public EffectWheel getEffects()
+	{
+		return this.m_effects;
+	}
+
+	/**
+	 * @return The journal this game's state changes are recorded in.
+	 */
+	public GameJournal getJournal()
+	{
+		return this.m_journal;
+	}
+
+	/**
+	 * @return The players with the most votes today. Votes are weighted by
+	 *         vote power unless the voteType setting counts physical votes.
+	 */
+	public IrcUser[] getLeaders()
+	{
+		return this.m_votes.getLeaders(this.m_config.getSnapshot().voteType != 1);
+	}
+
+	/**
+	 * @return The token buckets commands are limited by. Keyed by whatever
+	 *         the limit is per and then by kind of use: {@link #allowCommand}
+	 *         uses each user and the class of each command.
+	 */
+	public RateLimiter<Object> getLimits()
+	{
+		return this.m_limits;
 	}
 
 	public int getPhase()
@@ -354,6 +694,31 @@ public class Game implements Runnable, Messages
 		return this.m_phase;
 	}
 
+	/**
+	 * @return The resolver collecting tonight's actions. Roles, items and
+	 *         statuses submit their night actions here.
+	 */
+	public NightResolver getNight()
+	{
+		return this.m_night;
+	}
+
+	/**
+	 * @return The random source for protections, infections and peeks.
+	 */
+	public GameRandom getNightRandom()
+	{
+		return this.m_nightRandom;
+	}
+
+	/**
+	 * @return The timer driving the current phase.
+	 */
+	public PhaseTimer getPhaseTimer()
+	{
+		return this.m_timer;
+	}
+
 	/**
 	 * Takes a nick argument and returns a player with the exact same nick.
 	 *
@@ -369,10 +734,7 @@ public class Game implements Runnable, Messages
 
 	public IrcUser getPlayer(String nick, boolean partial)
 	{
-		int index = this.getPlayerIndex(nick, partial);
-		if (index < 0)
-			return null;
-		return this.m_players.elementAt(index);
+		return this.m_players.get(nick, partial);
 	}
 
 	public int getPlayerIndex(String nick)
@@ -382,16 +744,26 @@ public class Game implements Runnable, Messages
 
 	public int getPlayerIndex(String nick, boolean partial)
 	{
-		return this.getObjectIndex(nick, partial, this.m_players);
+		return this.m_players.indexOf(nick, partial);
 	}
 
 	/**
 	 *
-	 * @return Returns an array of all current players in the game.
+	 * @return Returns an array of all current players in the game. The array
+	 *         is shared by every caller until the players change, so it must
+	 *         not be modified.
 	 */
 	public IrcUser[] getPlayers()
 	{
-		return this.m_players.toArray(new IrcUser[0]);
+		return this.m_players.toArray();
+	}
+
+	/**
+	 * @return The random source for this game's messages and tiebreaks.
+	 */
+	public GameRandom getRandom()
+	{
+		return this.m_random;
 	}
 
 	public Roleset getRoleset()
@@ -412,6 +784,23 @@ public class Game implements Runnable, Messages
 		return this.m_config;
 	}
 
+	/**
+	 * @return The team groups used to relay team chat.
+	 */
+	public TeamGroups getTeams()
+	{
+		return this.m_teams;
+	}
+
+	/**
+	 * @return The random source for phase timings. Like the rest of the
+	 *         game's state, it is only used from the game's lane.
+	 */
+	public GameRandom getTimerRandom()
+	{
+		return this.m_timerRandom;
+	}
+
 	public IrcUser getUser(String nick)
 	{
 		return this.getUser(nick, false);
@@ -419,10 +808,7 @@ public class Game implements Runnable, Messages
 
 	public IrcUser getUser(String nick, boolean partial)
 	{
-		int index = this.getUserIndex(nick, partial);
-		if (index < 0)
-			return null;
-		return this.m_users.elementAt(index);
+		return this.m_users.get(nick, partial);
 	}
 
 	public int getUserIndex(String nick)
@@ -432,17 +818,29 @@ public class Game implements Runnable, Messages
 
 	public int getUserIndex(String nick, boolean partial)
 	{
-		return this.getObjectIndex(nick, partial, this.m_users);
+		return this.m_users.indexOf(nick, partial);
 	}
 
+	/**
+	 * @return An array of every user in the channel. Shared in the same way
+	 *         as {@link #getPlayers()}.
+	 */
 	public IrcUser[] getUsers()
 	{
-		return this.m_users.toArray(new IrcUser[0]);
+		return this.m_users.toArray();
+	}
+
+	/**
+	 * @return The tally of today's votes.
+	 */
+	public VoteTally getVotes()
+	{
+		return this.m_votes;
 	}
 
 	public void invite(String nick)
 	{
-		this.m_bot.sendInvite(nick, this.m_config.getSetting("channel", Settings.channel));
+		this.m_bot.sendInvite(nick, this.m_channel);
 	}
 
 	public void ircLog(String text)
@@ -457,12 +855,12 @@ public class Game implements Runnable, Messages
 
 	public boolean isPlayer(String nick)
 	{
-		return this.getPlayerIndex(nick) >= 0;
+		return this.m_players.get(nick, false) != null;
 	}
 
 	public boolean isPlayer(String nick, boolean partial)
 	{
-		return this.getPlayerIndex(nick, partial) >= 0;
+		return this.m_players.get(nick, partial) != null;
 	}
 
 	public boolean isUser(IrcUser user)
@@ -472,37 +870,45 @@ public class Game implements Runnable, Messages
 
 	public boolean isUser(String nick)
 	{
-		return this.getUserIndex(nick) >= 0;
+		return this.m_users.get(nick, false) != null;
 	}
 
 	public boolean isUser(String nick, boolean partial)
 	{
-		return this.getUserIndex(nick, partial) >= 0;
+		return this.m_users.get(nick, partial) != null;
 	}
 
+	/**
+	 * Queues text to be appended to a log file. The write happens on a
+	 * background thread, so this never blocks.
+	 *
+	 * @param text
+	 *            The text to append.
+	 * @param location
+	 *            The log file to append to.
+	 */
 	public void logFile(String text, String location)
 	{
-		try
-		{
-			FileWriter out = new FileWriter(location, true);
-			out.write(text);
-			out.close();
-		} catch (IOException ex)
-		{
-			ex.printStackTrace();
-			if (!location.matches("Error.log"))
-				this.errorLog(ex.getMessage());
-		}
+		LogAppender.get(location, this.m_config).append(text);
 	}
 
 	public void notice(String message)
 	{
-		this.notice(this.m_config.getSetting("channel", Settings.channel), message);
+		this.notice(this.m_channel, message);
 	}
 
 	public void notice(String target, String message)
 	{
-		this.m_bot.sendNotice(target, message);
+		this.notice(target, message, this.priority(target));
+	}
+
+	/**
+	 * @param priority
+	 *            The {@link OutboundQueue} lane to send in.
+	 */
+	public void notice(String target, String message, int priority)
+	{
+		this.m_bot.queueNotice(target, message, priority);
 	}
 
 	public void onJoin(IrcUser joiner)
@@ -512,10 +918,10 @@ public class Game implements Runnable, Messages
 
 	public void onJoin(IrcUser joiner, boolean chanList)
 	{
+		this.m_recorder.join(joiner, chanList);
 		System.out.println(joiner.getNick());
-		if (this.isUser(joiner))
-			return;
-		this.m_users.add(joiner);
+		if (this.m_users.add(joiner))
+			this.m_journal.join(joiner);
 	}
 
 	/**
@@ -530,26 +936,22 @@ public class Game implements Runnable, Messages
 	 */
 	public void onMessage(IrcUser user, String message, boolean isChannel)
 	{
-		String[] aliases;
-		String[] userCommands = user.getAliases();
+		this.m_recorder.message(user, message, isChannel);
 		if (!isChannel)
 			this.onTeamMessage(user, message);
-		for (int i = 0; i < userCommands.length; ++i)
-			if ((message.toLowerCase() + " ").startsWith(userCommands[i] + " "))
-			{
-				user.call(user, userCommands[i], message.substring(userCommands[i].length()), isChannel);
-				return;
-			}
-		for (int i = 0; i < this.m_commands.length; ++i)
+		AliasTrie.Binding<Interactable> own = user.getAliasTable().match(message);
+		if (own != null)
 		{
-			aliases = this.m_commands[i].getAliases();
-			for (int j = 0; j < aliases.length; ++j)
-				if ((message.toLowerCase() + " ").startsWith(aliases[j] + " "))
-				{
-					System.err.println("Command recieved: " + aliases[j]);
-					this.m_commands[i].call(user, aliases[j], message.substring(aliases[j].length()), isChannel);
-					return;
-				}
+			own.getOwner().call(user, own.getAlias(), message.substring(own.getAlias().length()), isChannel);
+			this.checkEarlyEnd();
+			return;
+		}
+		AliasTrie.Binding<Command> binding = this.getCommandTable().match(message);
+		if (binding != null)
+		{
+			System.err.println("Command recieved: " + binding.getAlias());
+			binding.getOwner().call(user, binding.getAlias(), message.substring(binding.getAlias().length()), isChannel);
+			this.checkEarlyEnd();
 		}
 	}
 
@@ -563,9 +965,14 @@ public class Game implements Runnable, Messages
 	 */
 	public void onNickChange(String origNick, String newNick)
 	{
+		this.m_recorder.nick(origNick, newNick);
 		IrcUser player = this.getUser(origNick);
-		if (player != null)
-			player.onNickChange(newNick);
+		if (player == null)
+			return;
+		this.m_users.rename(origNick, newNick);
+		this.m_players.rename(origNick, newNick);
+		player.onNickChange(newNick);
+		this.m_journal.nick(origNick, newNick);
 	}
 
 	/**
@@ -578,14 +985,15 @@ public class Game implements Runnable, Messages
 
 	public void onPart(String nick)
 	{
-		int index = this.getUserIndex(nick);
-		if (index == -1)
-			return;
-		this.m_users.remove(index);
-		index = this.getPlayerIndex(nick);
-		if (index == -1)
+		this.m_recorder.part(nick);
+		IrcUser user = this.m_users.remove(nick);
+		if (user == null)
 			return;
-		this.m_players.remove(index);
+		this.m_players.remove(nick);
+		this.m_teams.remove(user);
+		this.m_votes.remove(user);
+		this.m_counters.remove(user);
+		this.m_journal.part(nick);
 	}
 
 	/**
@@ -597,18 +1005,21 @@ public class Game implements Runnable, Messages
 	 */
 	public void onQuit(String nick)
 	{
-		int index = this.getUserIndex(nick);
-		if (index == -1)
+		this.m_recorder.quit(nick);
+		IrcUser user = this.m_users.remove(nick);
+		if (user == null)
 			return;
-		this.m_users.remove(index);
-		index = this.getPlayerIndex(nick);
-		if (index == -1)
-			return;
-		this.m_players.remove(index);
+		this.m_players.remove(nick);
+		this.m_teams.remove(user);
+		this.m_votes.remove(user);
+		this.m_counters.remove(user);
+		this.m_journal.part(nick);
 	}
 
 	/**
-	 * Called to echo messages to a player's teammates.
+	 * Called to echo messages to a player's teammates. The line is rendered
+	 * once and queued for the whole team in one go, split only by whether
+	 * each teammate prefers notices.
 	 * 
 	 * @param user
 	 *            The user who sent the message.
@@ -617,118 +1028,205 @@ public class Game implements Runnable, Messages
 	 */
 	private void onTeamMessage(IrcUser user, String message)
 	{
-		IrcUser check;
-		if (!user.knowsTeam())
+		IrcUser[] team = this.m_teams.getTeam(user);
+		if (team.length < 2)
 			return;
-		for (int i = 0; i < this.m_players.size(); ++i)
-		{
-			check = this.m_players.elementAt(i);
-			if (check.getNick().matches(user.getNick()))
+		String[] messages = new String[team.length - 1];
+		String[] notices = new String[team.length - 1];
+		int messageCount = 0;
+		int noticeCount = 0;
+		for (int i = 0; i < team.length; ++i)
+			if (team[i] == user)
 				continue;
-			if (check.knowsTeam() && user.checkClass() == check.checkClass())
-				check.replyTo(user.getNick() + ": " + message, false);
-		}
+			else if (team[i].getPreference("notice", false))
+				notices[noticeCount++] = team[i].getNick();
+			else
+				messages[messageCount++] = team[i].getNick();
+		String line = user.getNick() + ": " + message;
+		if (messageCount > 0)
+			this.m_bot.queueMessage(Arrays.copyOf(messages, messageCount), line, OutboundQueue.CHATTER);
+		if (noticeCount > 0)
+			this.m_bot.queueNotice(Arrays.copyOf(notices, noticeCount), line, OutboundQueue.CHATTER);
 	}
 
 	public void removePlayer(int index)
 	{
-		if (index < 0 || index > this.m_players.size())
+		IrcUser removed = this.m_players.remove(index);
+		if (removed == null)
 			return;
-		this.m_players.remove(index);
+		this.m_teams.remove(removed);
+		this.m_votes.remove(removed);
+		this.m_counters.remove(removed);
+		this.m_journal.player(removed.getNick(), false);
+	}
+
+	/**
+	 * @return The lane output to a target goes in by default: the game lane
+	 *         for the channel, the private lane for anyone else.
+	 */
+	private int priority(String target)
+	{
+		return target.equalsIgnoreCase(this.m_channel) ? OutboundQueue.GAME : OutboundQueue.PRIVATE;
 	}
 
 	public void removePlayer(IrcUser player)
 	{
-		this.removePlayer(this.getPlayerIndex(player.getNick()));
+		if (this.m_players.remove(player.getNick()) == null)
+			return;
+		this.m_teams.remove(player);
+		this.m_votes.remove(player);
+		this.m_counters.remove(player);
+		this.m_journal.player(player.getNick(), false);
 	}
 
-	@Override
-	public void run()
+	/**
+	 * Puts a restored game back into the phase it was in when the bot went
+	 * down. The phase is started afresh, so its timer runs from the start.
+	 *
+	 * @param id
+	 *            The phase number, as returned by {@link #getPhase()}.
+	 */
+	public void resumePhase(int id)
 	{
-		Thread.currentThread().setDaemon(true);
-		while (this.m_phase <= 4 && this.m_phase >= 0)
+		switch (id)
 		{
-			while (this.m_phase == 0)
-				try
-				{
-					Thread.currentThread().wait();
-				} catch (InterruptedException e)
-				{
-				}
-			// Wait for setup phase.
-			while (this.m_phase == 1)
-				try
-				{
-					Thread.currentThread().wait();
-				} catch (InterruptedException e)
-				{
-				}
-
-			if (this.m_phase == 1)
-			{
-				// Wait for night phase.
-				try
-				{
-					int waitTime = this.m_config.getSetting("nightTime", Settings.nightTime);
-					int endTime = (int) (Math.random() * this.m_config.getSetting("endRange", Settings.endRange));
-					int warningTime = 30;
-					Thread.currentThread().wait(1000 * (waitTime - warningTime));
-					this.say(Game.chooseMessage(Messages.msg_nightWarning, Integer.toString(warningTime)));
-					Thread.currentThread().wait(1000 * warningTime);
-					if (endTime > 1)
-					{
-						this.say(Game.chooseMessage(Messages.msg_nightEnding));
-						Thread.currentThread().wait(1000 * endTime);
-					}
-				} catch (InterruptedException e)
-				{
-					System.err.println("Night ended early...");
-				}
-				this.calcNight();
-			}
-
-			// Wait for day phase.
-			try
-			{
-				int waitTime = this.m_config.getSetting("nightTime", Settings.nightTime);
-				int endTime = (int) (Math.random() * this.m_config.getSetting("endRange", Settings.endRange));
-				int warningTime = 60;
-				Thread.currentThread().wait(1000 * (waitTime - warningTime));
-				this.say(Game.chooseMessage(Messages.msg_nightWarning, Integer.toString(warningTime)));
-				Thread.currentThread().wait(1000 * warningTime);
-				if (endTime > 1)
-				{
-					this.say(Game.chooseMessage(Messages.msg_nightEnding));
-					Thread.currentThread().wait(1000 * endTime);
-				}
-			} catch (InterruptedException e)
-			{
-				System.err.println("Night ended early...");
-			}
-			this.calcDay();
+			case 1:
+				this.setPhase(new Night());
+				break;
+			case 2:
+				this.setPhase(new Morning());
+				break;
+			case 3:
+				this.setPhase(new Day());
+				break;
 		}
 	}
 
 	public void say(String message)
 	{
-		this.say(this.m_config.getSetting("channel", Settings.channel), message);
+		this.say(this.m_channel, message);
 	}
 
 	public void say(String target, String message)
 	{
-		this.m_bot.sendMessage(target, message);
+		this.say(target, message, this.priority(target));
+	}
+
+	/**
+	 * @param priority
+	 *            The {@link OutboundQueue} lane to send in.
+	 */
+	public void say(String target, String message, int priority)
+	{
+		this.m_bot.queueMessage(target, message, priority);
+	}
+
+	/**
+	 * Starts recording this game's state changes. Called once the journal
+	 * has been used to restore the game.
+	 *
+	 * @param journal
+	 *            The journal to record in.
+	 */
+	public void setJournal(GameJournal journal)
+	{
+		this.m_journal = journal;
+	}
+
+	/**
+	 * Moves the game into a new phase, cancelling any timers left over from
+	 * the previous one. Each day starts with no votes, and returning to setup
+	 * stops counting rounds for protections and infections.
+	 *
+	 * @param phase
+	 *            The phase to start, or null to return to setup.
+	 */
+	public void setPhase(GamePhase phase)
+	{
+		this.m_timer.cancel();
+		this.m_current = phase;
+		this.m_phase = phase == null ? 0 : phase.getId();
+		this.m_phaseStart = new Date().getTime();
+		this.m_journal.phase(this.m_phase);
+		if (this.m_phase == 3)
+			this.m_votes.reset(this.getPlayers());
+		if (phase != null)
+			phase.start(this);
+		else
+			this.m_effects.clear();
+	}
+
+	/**
+	 * Starts recording the events this game receives.
+	 *
+	 * @param recorder
+	 *            The recorder, which should have been given this game's seed.
+	 */
+	public void setRecorder(EventRecorder recorder)
+	{
+		this.m_recorder = recorder;
+	}
+
+	/**
+	 * Chooses the roleset the next game is played with.
+	 *
+	 * @param name
+	 *            The name of one of this game's rolesets.
+	 */
+	public void setRoleset(String name)
+	{
+		this.m_roleset = name;
+		this.m_journal.roleset(name);
+	}
+
+	/**
+	 * Reseeds every random source in the game, so the same seed and the same
+	 * events always play out the same way.
+	 *
+	 * @param seed
+	 *            The seed.
+	 */
+	public void setSeed(long seed)
+	{
+		this.m_random = new GameRandom(seed);
+		this.m_nightRandom = this.m_random.split("night");
+		this.m_timerRandom = this.m_random.split("timer");
 	}
 
 	public void startGame()
 	{
-		String users = this.m_users.elementAt(0).getNick();
-		for (int i = 1; i < this.m_users.size(); ++i)
-			users += ", " + this.m_users.elementAt(i).getNick();
+		this.m_recorder.start();
+		IrcUser[] all = this.m_users.toArray();
+		String users = all[0].getNick();
+		for (int i = 1; i < all.length; ++i)
+			users += ", " + all[i].getNick();
 		this.say(users + ": Welcome to Werewolf, the popular detective/party game!");
+		this.setPhase(new Night());
 	}
 
 	public void toChanserv(String message)
 	{
-		this.say(this.m_config.getSetting("chanserv", Settings.chanserv), message);
+		this.say(this.m_config.getSnapshot().chanserv, message);
+	}
+
+	/**
+	 * Casts, changes or withdraws a lynch vote. Once a player holds a majority
+	 * the day ends early, unless the voteType setting only allows timed days.
+	 *
+	 * @param voter
+	 *            The player voting.
+	 * @param target
+	 *            The player voted for, or null to withdraw the vote.
+	 * @return False if it is not day or the vote changed nothing.
+	 */
+	public boolean vote(IrcUser voter, IrcUser target)
+	{
+		if (this.m_phase != 3 || !this.m_votes.vote(voter, target))
+			return false;
+		this.m_journal.vote(voter.getNick(), target == null ? "" : target.getNick());
+		int type = this.m_config.getSnapshot().voteType;
+		if (type != 0 && this.m_votes.getMajority(type == 2) != null)
+			this.m_timer.endEarly();
+		return true;
 	}
 }
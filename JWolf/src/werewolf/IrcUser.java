@@ -1,37 +1,130 @@
 package werewolf;
 
-import java.util.Vector;
+import java.util.Arrays;
 
 import org.jibble.pircbot.User;
 
 import werewolf.define.Interactable;
+import werewolf.define.Reactable;
+import werewolf.define.Transport;
 import werewolf.define.interactable.Item;
 import werewolf.define.interactable.Role;
 import werewolf.define.interactable.Status;
 import werewolf.role.Person;
+import werewolf.util.AliasTrie;
+import werewolf.util.EffectWheel;
 import werewolf.util.Infection;
 import werewolf.util.Kill;
+import werewolf.util.NightResolver;
+import werewolf.util.OutboundQueue;
 import werewolf.util.PeekMod;
+import werewolf.util.PreferenceStore;
 import werewolf.util.Protection;
-
+import werewolf.util.Triggers;
+
+/**
+ * A user in a game's channel. Most users only ever watch, so a user is kept
+ * as a small presence record and everything that only matters to a player
+ * (their role, items, statuses and the protections and infections they carry)
+ * lives in a separate {@link Player} record. That record is made the first
+ * time the user is changed as a player, or when they join the game, and
+ * dropped when they go back to being a user. Until then the user reads as a
+ * plain {@link Person} holding nothing.
+ */
 public class IrcUser implements Interactable
 {
-	private String				m_nick			= "";
-	private String				m_user			= "";
-	private String				m_host			= "";
-	private boolean				m_isOP			= false;
-	private boolean				m_isVoice		= false;
-	private boolean				m_isConnected	= true;
-	private boolean				m_isAdmin		= false;
-	private Game				m_game;
-	private WerewolfHost		m_bot;
-
-	private Role				m_role;
-	private Vector<Item>		m_items			= new Vector<Item>();
-	private Vector<Status>		m_statuses		= new Vector<Status>();
-	private Vector<Infection>	m_infections	= new Vector<Infection>();
-	private Vector<Kill>		m_kills			= new Vector<Kill>();
-	private Vector<Protection>	m_protections	= new Vector<Protection>();
+	/**
+	 * Everything a user carries as a player. The lists are plain arrays,
+	 * replaced rather than changed, since they rarely hold more than a couple
+	 * of entries and are walked far more often than changed. A walk is never
+	 * upset by an item or status removing itself part way through.
+	 * <P>
+	 * The items and statuses are also listed again by each trigger they
+	 * respond to, as worked out by {@link Triggers}, so a trigger only reaches
+	 * the things that do something with it.
+	 */
+	private static class Player
+	{
+		private Role					m_role;
+		private Item[]					m_items			= new Item[0];
+		private Status[]				m_statuses		= new Status[0];
+		private Infection[]				m_infections	= new Infection[0];
+		private Protection[]			m_protections	= new Protection[0];
+		private AliasTrie<Interactable>	m_aliasTable	= new AliasTrie<Interactable>();
+		private Interactable[][]		m_listeners		= new Interactable[Triggers.COUNT][];
+
+		private Player(Role role)
+		{
+			this.m_role = role;
+			this.m_aliasTable.bind(role.getAliases(), role, IrcUser.RANK_ROLE);
+			Arrays.fill(this.m_listeners, IrcUser.NONE);
+		}
+
+		/**
+		 * Lists the items and statuses again by trigger. Items come before
+		 * statuses, in the order they were given, as when every one was asked.
+		 */
+		private void relist()
+		{
+			Interactable[] held = new Interactable[this.m_items.length + this.m_statuses.length];
+			System.arraycopy(this.m_items, 0, held, 0, this.m_items.length);
+			System.arraycopy(this.m_statuses, 0, held, this.m_items.length, this.m_statuses.length);
+			int[] masks = new int[held.length];
+			for (int i = 0; i < held.length; ++i)
+				masks[i] = Triggers.of(held[i]);
+			for (int trigger = 0; trigger < Triggers.COUNT; ++trigger)
+			{
+				int count = 0;
+				for (int i = 0; i < held.length; ++i)
+					if ((masks[i] & 1 << trigger) != 0)
+						++count;
+				Interactable[] listeners = count == 0 ? IrcUser.NONE : new Interactable[count];
+				count = 0;
+				for (int i = 0; i < held.length; ++i)
+					if ((masks[i] & 1 << trigger) != 0)
+						listeners[count++] = held[i];
+				this.m_listeners[trigger] = listeners;
+			}
+		}
+	}
+
+	private static final int			RANK_ITEM	= 0;
+	private static final int			RANK_STATUS	= 1;
+	private static final int			RANK_ROLE	= 2;
+
+	private static final Interactable[]	NONE		= new Interactable[0];
+
+	/**
+	 * What a user who is not a player reads as. Never changed.
+	 */
+	private static final Player			NOBODY		= new Player(new Person(null, null));
+
+	private static <T> T[] add(T[] array, T value)
+	{
+		T[] result = Arrays.copyOf(array, array.length + 1);
+		result[array.length] = value;
+		return result;
+	}
+
+	private static <T> T[] remove(T[] array, int index)
+	{
+		T[] result = Arrays.copyOf(array, array.length - 1);
+		System.arraycopy(array, index + 1, result, index, array.length - index - 1);
+		return result;
+	}
+
+	private String					m_nick			= "";
+	private String					m_user			= "";
+	private String					m_host			= "";
+	private boolean					m_isOP			= false;
+	private boolean					m_isVoice		= false;
+	private boolean					m_isConnected	= true;
+	private boolean					m_isAdmin		= false;
+	private Game					m_game;
+	private Transport				m_bot;
+
+	private Player					m_player		= null;
+	private PreferenceStore.User	m_preferences	= null;
 
 	public IrcUser(Game game, String nick, String user, String host)
 	{
@@ -39,7 +132,6 @@ public class IrcUser implements Interactable
 		this.m_user = user;
 		this.m_host = host;
 		this.m_game = game;
-		this.m_role = new Person(game, this);
 		this.m_bot = game.getBot();
 	}
 
@@ -49,66 +141,97 @@ public class IrcUser implements Interactable
 		this.m_isOP = user.isOp();
 		this.m_isVoice = user.hasVoice();
 		this.m_game = game;
-		this.m_role = new Person(game, this);
 		this.m_bot = game.getBot();
 	}
 
+	/**
+	 * Infects this user. Called by {@link NightResolver} once the infection is
+	 * known not to be blocked. The game's {@link EffectWheel} starts it and
+	 * takes it away again when due.
+	 */
+	public void addInfection(Infection infection)
+	{
+		Player player = this.state();
+		player.m_infections = IrcUser.add(player.m_infections, infection);
+		this.m_game.getEffects().add(this, infection);
+	}
+
+	/**
+	 * Gives this user an item and makes its commands available to them.
+	 *
+	 * @param item
+	 *            The item to add.
+	 */
+	public void addItem(Item item)
+	{
+		Player player = this.state();
+		player.m_items = IrcUser.add(player.m_items, item);
+		player.relist();
+		player.m_aliasTable.bind(item.getAliases(), item, IrcUser.RANK_ITEM);
+		this.m_game.getJournal().item(this, item, true);
+		this.m_game.getVotes().refresh(this);
+		this.m_game.getCounters().update(this);
+	}
+
+	/**
+	 * Protects this user. Called by {@link NightResolver} once the protection
+	 * is known not to be blocked. The game's {@link EffectWheel} starts it and
+	 * takes it away again when due.
+	 */
+	public void addProtection(Protection protection)
+	{
+		Player player = this.state();
+		player.m_protections = IrcUser.add(player.m_protections, protection);
+		this.m_game.getEffects().add(this, protection);
+	}
+
+	/**
+	 * Gives this user a status and makes its commands available to them.
+	 *
+	 * @param status
+	 *            The status to add.
+	 */
+	public void addStatus(Status status)
+	{
+		Player player = this.state();
+		player.m_statuses = IrcUser.add(player.m_statuses, status);
+		player.relist();
+		player.m_aliasTable.bind(status.getAliases(), status, IrcUser.RANK_STATUS);
+		this.m_game.getJournal().status(this, status, true);
+		this.m_game.getVotes().refresh(this);
+		this.m_game.getCounters().update(this);
+	}
+
 	@Override
 	public void assigned()
 	{
-		for (int i = 0; i < this.m_items.size(); ++i)
-			this.m_items.elementAt(i).assigned();
-		for (int i = 0; i < this.m_statuses.size(); ++i)
-			this.m_statuses.elementAt(i).assigned();
-		this.m_role.assigned();
+		Player player = this.player();
+		for (Interactable listener : player.m_listeners[Triggers.ASSIGNED])
+			listener.assigned();
+		player.m_role.assigned();
 	}
 
 	@Override
 	public void blockTrigger()
 	{
-		for (int i = 0; i < this.m_items.size(); ++i)
-			this.m_items.elementAt(i).blockTrigger();
-		for (int i = 0; i < this.m_statuses.size(); ++i)
-			this.m_statuses.elementAt(i).blockTrigger();
-		this.m_role.blockTrigger();
+		Player player = this.player();
+		for (Interactable listener : player.m_listeners[Triggers.BLOCK])
+			listener.blockTrigger();
+		player.m_role.blockTrigger();
 	}
 
 	@Override
 	public void call(IrcUser caller, String command, String arguments, boolean isChannel)
 	{
-		String[] aliases;
-		for (int i = 0; i < this.m_items.size(); ++i)
-		{
-			aliases = this.m_items.elementAt(i).getAliases();
-			for (int j = 0; j < aliases.length; ++j)
-				if (aliases[j].equals(command))
-				{
-					this.m_items.elementAt(i).call(caller, command, arguments, isChannel);
-					return;
-				}
-		}
-		for (int i = 0; i < this.m_statuses.size(); ++i)
-		{
-			aliases = this.m_statuses.elementAt(i).getAliases();
-			for (int j = 0; j < aliases.length; ++j)
-				if (aliases[j].equals(command))
-				{
-					this.m_statuses.elementAt(i).call(caller, command, arguments, isChannel);
-					return;
-				}
-		}
-		aliases = this.m_role.getAliases();
-		for (int i = 0; i < aliases.length; ++i)
-			if (aliases[i].equals(command))
-			{
-				this.m_role.call(caller, command, arguments, isChannel);
-				return;
-			}
+		AliasTrie.Binding<Interactable> binding = this.player().m_aliasTable.get(command);
+		if (binding != null)
+			binding.getOwner().call(caller, command, arguments, isChannel);
 	}
 
 	public int checkClass()
 	{
-		return this.m_role.checkClass();
+		Player player = this.player();
+		return player.m_role.checkClass();
 	}
 
 	/**
@@ -118,7 +241,7 @@ public class IrcUser implements Interactable
 	{
 		if (!this.m_isOP)
 			return;
-		this.m_bot.deOp(this.m_game.getSettings().getSetting("channel", Settings.channel), this.getNick());
+		this.m_bot.deOp(this.m_game.getChannel(), this.getNick());
 	}
 
 	/**
@@ -128,7 +251,7 @@ public class IrcUser implements Interactable
 	{
 		if (!this.m_isVoice)
 			return;
-		this.m_bot.deVoice(this.m_game.getSettings().getSetting("channel", Settings.channel), this.getNick());
+		this.m_bot.deVoice(this.m_game.getChannel(), this.getNick());
 	}
 
 	public boolean equals(IrcUser orig)
@@ -144,19 +267,29 @@ public class IrcUser implements Interactable
 	@Override
 	public String[] getAliases()
 	{
+		Player player = this.player();
 		String[] aliases = new String[0];
-		for (int i = 0; i < this.m_items.size(); ++i)
-			aliases = Game.concat(aliases, this.m_items.elementAt(i).getAliases());
-		for (int i = 0; i < this.m_statuses.size(); ++i)
-			aliases = Game.concat(aliases, this.m_statuses.elementAt(i).getAliases());
-		return Game.concat(aliases, this.m_role.getAliases());
+		for (Item item : player.m_items)
+			aliases = Game.concat(aliases, item.getAliases());
+		for (Status status : player.m_statuses)
+			aliases = Game.concat(aliases, status.getAliases());
+		return Game.concat(aliases, player.m_role.getAliases());
+	}
+
+	/**
+	 * @return The table mapping each command this user's items, statuses and
+	 *         role provide to the object that handles it.
+	 */
+	public AliasTrie<Interactable> getAliasTable()
+	{
+		return this.player().m_aliasTable;
 	}
 
 	/**
 	 *
 	 * @return The bot object that this user is a member of.
 	 */
-	public WerewolfHost getBot()
+	public Transport getBot()
 	{
 		return this.m_bot;
 	}
@@ -164,12 +297,13 @@ public class IrcUser implements Interactable
 	@Override
 	public String[] getCommands()
 	{
+		Player player = this.player();
 		String[] commands = new String[0];
-		for (int i = 0; i < this.m_items.size(); ++i)
-			commands = Game.concat(commands, this.m_items.elementAt(i).getCommands());
-		for (int i = 0; i < this.m_statuses.size(); ++i)
-			commands = Game.concat(commands, this.m_statuses.elementAt(i).getCommands());
-		return Game.concat(commands, this.m_role.getCommands());
+		for (Item item : player.m_items)
+			commands = Game.concat(commands, item.getCommands());
+		for (Status status : player.m_statuses)
+			commands = Game.concat(commands, status.getCommands());
+		return Game.concat(commands, player.m_role.getCommands());
 	}
 
 	/**
@@ -192,7 +326,7 @@ public class IrcUser implements Interactable
 
 	public Item[] getItems()
 	{
-		return this.m_items.toArray(new Item[this.m_items.size()]);
+		return this.player().m_items.clone();
 	}
 
 	/**
@@ -204,29 +338,48 @@ public class IrcUser implements Interactable
 		return this.m_nick;
 	}
 
-	public boolean getPreference(String key, boolean value)
+	public boolean getPreference(String key, boolean defaultValue)
 	{
-		return this.m_game.getSettings().getPreference(this.getNick() + "-" + key, value);
+		String value = this.getPreferences().get(key);
+		if (value == null)
+			return defaultValue;
+		return Boolean.valueOf(value);
 	}
 
-	public int getPreference(String key, int value)
+	public int getPreference(String key, int defaultValue)
 	{
-		return this.m_game.getSettings().getPreference(this.getNick() + "-" + key, value);
+		String value = this.getPreferences().get(key);
+		if (value == null)
+			return defaultValue;
+		return Integer.parseInt(value);
 	}
 
-	public String getPreference(String key, String value)
+	public String getPreference(String key, String defaultValue)
 	{
-		return this.m_game.getSettings().getPreference(this.getNick() + "-" + key, value);
+		String value = this.getPreferences().get(key);
+		if (value == null)
+			return defaultValue;
+		return value;
+	}
+
+	/**
+	 * @return This user's preferences, looked up once per nick.
+	 */
+	private PreferenceStore.User getPreferences()
+	{
+		if (this.m_preferences == null)
+			this.m_preferences = this.m_game.getSettings().getPreferences(this.m_nick);
+		return this.m_preferences;
 	}
 
 	public Role getRole()
 	{
-		return this.m_role;
+		return this.player().m_role;
 	}
 
 	public Status[] getStatuses()
 	{
-		return this.m_statuses.toArray(new Status[this.m_statuses.size()]);
+		return this.player().m_statuses.clone();
 	}
 
 	/**
@@ -256,55 +409,28 @@ public class IrcUser implements Interactable
 	@Override
 	public void help(IrcUser caller, String command, String arguments, boolean isChannel)
 	{
-		String[] aliases;
-		for (int i = 0; i < this.m_items.size(); ++i)
-		{
-			aliases = this.m_items.elementAt(i).getAliases();
-			for (int j = 0; j < aliases.length; ++j)
-				if (aliases[j].equals(command))
-				{
-					this.m_items.elementAt(i).help(caller, command, arguments, isChannel);
-					return;
-				}
-		}
-		for (int i = 0; i < this.m_statuses.size(); ++i)
-		{
-			aliases = this.m_statuses.elementAt(i).getAliases();
-			for (int j = 0; j < aliases.length; ++j)
-				if (aliases[j].equals(command))
-				{
-					this.m_statuses.elementAt(i).help(caller, command, arguments, isChannel);
-					return;
-				}
-		}
-		aliases = this.m_role.getAliases();
-		for (int i = 0; i < aliases.length; ++i)
-			if (aliases[i].equals(command))
-			{
-				this.m_role.help(caller, command, arguments, isChannel);
-				return;
-			}
+		AliasTrie.Binding<Interactable> binding = this.player().m_aliasTable.get(command);
+		if (binding != null)
+			binding.getOwner().help(caller, command, arguments, isChannel);
 	}
 
 	@Override
 	public void infectBlossom(Role conversion, IrcUser user)
 	{
-		for (int i = 0; i < this.m_items.size(); ++i)
-			this.m_items.elementAt(i).infectBlossom(conversion, user);
-		for (int i = 0; i < this.m_statuses.size(); ++i)
-			this.m_statuses.elementAt(i).infectBlossom(conversion, user);
-		this.m_role.infectBlossom(conversion, user);
-		this.m_role = conversion;
+		Player player = this.player();
+		for (Interactable listener : player.m_listeners[Triggers.INFECT_BLOSSOM])
+			listener.infectBlossom(conversion, user);
+		player.m_role.infectBlossom(conversion, user);
+		this.setRole(conversion);
 	}
 
 	@Override
 	public void infectTrigger()
 	{
-		for (int i = 0; i < this.m_items.size(); ++i)
-			this.m_items.elementAt(i).infectTrigger();
-		for (int i = 0; i < this.m_statuses.size(); ++i)
-			this.m_statuses.elementAt(i).infectTrigger();
-		this.m_role.infectTrigger();
+		Player player = this.player();
+		for (Interactable listener : player.m_listeners[Triggers.INFECT])
+			listener.infectTrigger();
+		player.m_role.infectTrigger();
 	}
 
 	/**
@@ -328,13 +454,11 @@ public class IrcUser implements Interactable
 	@Override
 	public boolean isMason()
 	{
-		for (int i = 0; i < this.m_items.size(); ++i)
-			if (this.m_items.elementAt(i).isMason())
-				return true;
-		for (int i = 0; i < this.m_statuses.size(); ++i)
-			if (this.m_statuses.elementAt(i).isMason())
+		Player player = this.player();
+		for (Interactable listener : player.m_listeners[Triggers.IS_MASON])
+			if (listener.isMason())
 				return true;
-		return this.m_role.isMason();
+		return player.m_role.isMason();
 	}
 
 	/**
@@ -377,57 +501,68 @@ public class IrcUser implements Interactable
 	@Override
 	public boolean killHold()
 	{
-		for (int i = 0; i < this.m_items.size(); ++i)
-			if (this.m_items.elementAt(i).killHold())
-				return true;
-		for (int i = 0; i < this.m_statuses.size(); ++i)
-			if (this.m_statuses.elementAt(i).killHold())
+		Player player = this.player();
+		for (Interactable listener : player.m_listeners[Triggers.KILL_HOLD])
+			if (listener.killHold())
 				return true;
-		return this.m_role.killHold();
+		return player.m_role.killHold();
 	}
 
 	@Override
 	public void killTrigger()
 	{
-		for (int i = 0; i < this.m_items.size(); ++i)
-			this.m_items.elementAt(i).killTrigger();
-		for (int i = 0; i < this.m_statuses.size(); ++i)
-			this.m_statuses.elementAt(i).killTrigger();
-		this.m_role.killTrigger();
+		Player player = this.player();
+		for (Interactable listener : player.m_listeners[Triggers.KILL])
+			listener.killTrigger();
+		player.m_role.killTrigger();
 	}
 
 	public boolean knowsTeam()
 	{
-		return this.m_role.knowsTeam();
+		Player player = this.player();
+		return player.m_role.knowsTeam();
+	}
+
+	/**
+	 * @return True if this player's vote power may change as the day goes on:
+	 *         something they hold, or their role, works it out for itself
+	 *         instead of giving the default.
+	 */
+	public boolean listensForVotes()
+	{
+		Player player = this.player();
+		return player.m_listeners[Triggers.VOTE_POWER].length > 0 || (Triggers.of(player.m_role) & 1 << Triggers.VOTE_POWER) != 0;
 	}
 
 	@Override
 	public int mafiaParity()
 	{
+		Player player = this.player();
 		int parity = 0;
-		for (int i = 0; i < this.m_items.size(); ++i)
-			parity += this.m_items.elementAt(i).mafiaParity();
-		for (int i = 0; i < this.m_statuses.size(); ++i)
-			parity += this.m_statuses.elementAt(i).mafiaParity();
-		return parity + this.m_role.mafiaParity();
+		for (Interactable listener : player.m_listeners[Triggers.MAFIA_PARITY])
+			parity += listener.mafiaParity();
+		return parity + player.m_role.mafiaParity();
 	}
 
 	/**
-	 * Marks this user as a player.
+	 * Marks this user as a player, giving them a player record if they do not
+	 * already have one.
 	 */
 	public void makePlayer()
 	{
+		this.state();
 		if (!this.isPlayer())
 			this.m_game.addPlayer(this);
 	}
 
 	/**
-	 * Removes any player mark from this user.
+	 * Removes any player mark from this user and drops their player record.
 	 */
 	public void makeUser()
 	{
 		if (this.isPlayer())
 			this.m_game.removePlayer(this);
+		this.m_player = null;
 	}
 
 	/**
@@ -450,29 +585,43 @@ public class IrcUser implements Interactable
 	 *            If true, a notice will respond directly to the channel.
 	 */
 	public void message(String message, boolean toChannel)
+	{
+		this.message(message, toChannel, OutboundQueue.PRIVATE);
+	}
+
+	/**
+	 * Sends the user a private message.
+	 *
+	 * @param message
+	 *            The message to send.
+	 * @param toChannel
+	 *            If true, a notice will respond directly to the channel.
+	 * @param priority
+	 *            The {@link OutboundQueue} lane to send in.
+	 */
+	public void message(String message, boolean toChannel, int priority)
 	{
 		if (this.getPreference("notice", false))
-			this.notice(message, toChannel);
+			this.notice(message, toChannel, priority);
 		else
-			this.m_game.say(this.m_nick, message);
+			this.m_game.say(this.m_nick, message, priority);
 	}
 
 	@Override
 	public String name()
 	{
-		return this.m_role.name();
+		Player player = this.player();
+		return player.m_role.name();
 	}
 
 	@Override
 	public boolean nightlyHold()
 	{
-		for (int i = 0; i < this.m_items.size(); ++i)
-			if (this.m_items.elementAt(i).nightlyHold())
-				return true;
-		for (int i = 0; i < this.m_statuses.size(); ++i)
-			if (this.m_statuses.elementAt(i).nightlyHold())
+		Player player = this.player();
+		for (Interactable listener : player.m_listeners[Triggers.NIGHTLY_HOLD])
+			if (listener.nightlyHold())
 				return true;
-		return this.m_role.nightlyHold();
+		return player.m_role.nightlyHold();
 	}
 
 	/**
@@ -483,23 +632,86 @@ public class IrcUser implements Interactable
 	 * @param toChannel
 	 *            True if the message should be sent with the channel's tag.
 	 *            (eg, <B>[#bots] Hello there!</B>)
+	 * @param priority
+	 *            The {@link OutboundQueue} lane to send in.
 	 */
-	private void notice(String message, boolean toChannel)
+	private void notice(String message, boolean toChannel, int priority)
 	{
 		if (toChannel)
-			message = "[" + this.m_game.getSettings().getSetting("channel", Settings.channel) + "] " + message;
-		this.m_game.notice(this.getNick(), message);
+			message = "[" + this.m_game.getChannel() + "] " + message;
+		this.m_game.notice(this.getNick(), message, priority);
 	}
 
 	@Override
 	public boolean onBlocked()
 	{
+		Player player = this.player();
 		boolean changed = false;
-		for (int i = 0; i < this.m_items.size(); ++i)
-			changed = this.m_items.elementAt(i).onBlocked() || changed;
-		for (int i = 0; i < this.m_statuses.size(); ++i)
-			changed = this.m_statuses.elementAt(i).onBlocked() || changed;
-		return this.m_role.onBlocked() || changed;
+		for (Interactable listener : player.m_listeners[Triggers.ON_BLOCKED])
+			changed = listener.onBlocked() || changed;
+		return player.m_role.onBlocked() || changed;
+	}
+
+	/**
+	 * Cures this user of an infection. Does nothing if they do not have it.
+	 */
+	public void removeInfection(Infection infection)
+	{
+		Player player = this.player();
+		int index = Arrays.asList(player.m_infections).indexOf(infection);
+		if (index >= 0)
+			player.m_infections = IrcUser.remove(player.m_infections, index);
+	}
+
+	/**
+	 * Takes an item away from this user along with its commands.
+	 *
+	 * @param item
+	 *            The item to remove.
+	 */
+	public void removeItem(Item item)
+	{
+		Player player = this.player();
+		int index = Arrays.asList(player.m_items).indexOf(item);
+		if (index < 0)
+			return;
+		player.m_items = IrcUser.remove(player.m_items, index);
+		player.relist();
+		player.m_aliasTable.unbind(item.getAliases(), item);
+		this.m_game.getJournal().item(this, item, false);
+		this.m_game.getVotes().refresh(this);
+		this.m_game.getCounters().update(this);
+	}
+
+	/**
+	 * Takes a protection off this user. Does nothing if they do not have it.
+	 */
+	public void removeProtection(Protection protection)
+	{
+		Player player = this.player();
+		int index = Arrays.asList(player.m_protections).indexOf(protection);
+		if (index >= 0)
+			player.m_protections = IrcUser.remove(player.m_protections, index);
+	}
+
+	/**
+	 * Takes a status away from this user along with its commands.
+	 *
+	 * @param status
+	 *            The status to remove.
+	 */
+	public void removeStatus(Status status)
+	{
+		Player player = this.player();
+		int index = Arrays.asList(player.m_statuses).indexOf(status);
+		if (index < 0)
+			return;
+		player.m_statuses = IrcUser.remove(player.m_statuses, index);
+		player.relist();
+		player.m_aliasTable.unbind(status.getAliases(), status);
+		this.m_game.getJournal().status(this, status, false);
+		this.m_game.getVotes().refresh(this);
+		this.m_game.getCounters().update(this);
 	}
 
 	/**
@@ -511,6 +723,7 @@ public class IrcUser implements Interactable
 	public void onNickChange(String newNick)
 	{
 		this.m_nick = newNick;
+		this.m_preferences = null;
 	}
 
 	/**
@@ -527,11 +740,10 @@ public class IrcUser implements Interactable
 	@Override
 	public void onPeek(IrcUser peeker)
 	{
-		for (int i = 0; i < this.m_items.size(); ++i)
-			this.m_items.elementAt(i).onPeek(peeker);
-		for (int i = 0; i < this.m_statuses.size(); ++i)
-			this.m_statuses.elementAt(i).onPeek(peeker);
-		this.m_role.onPeek(peeker);
+		Player player = this.player();
+		for (Interactable listener : player.m_listeners[Triggers.ON_PEEK])
+			listener.onPeek(peeker);
+		player.m_role.onPeek(peeker);
 	}
 
 	/**
@@ -552,50 +764,66 @@ public class IrcUser implements Interactable
 	{
 		if (this.m_isOP)
 			return;
-		this.m_bot.op(this.m_game.getSettings().getSetting("channel", Settings.channel), this.getNick());
+		this.m_bot.op(this.m_game.getChannel(), this.getNick());
 	}
 
 	@Override
 	public int peekClass()
 	{
-		for (int i = 0; i < this.m_items.size(); ++i)
-			if (this.m_items.elementAt(i).peekClass() >= 0)
-				return this.m_items.elementAt(i).peekClass();
-		for (int i = 0; i < this.m_statuses.size(); ++i)
-			if (this.m_statuses.elementAt(i).peekClass() >= 0)
-				return this.m_statuses.elementAt(i).peekClass();
-		return this.m_role.peekClass();
+		Player player = this.player();
+		for (Interactable listener : player.m_listeners[Triggers.PEEK_CLASS])
+			if (listener.peekClass() >= 0)
+				return listener.peekClass();
+		return player.m_role.peekClass();
 	}
 
 	public String peekRole()
 	{
-		return this.m_role.peekRole();
+		Player player = this.player();
+		return player.m_role.peekRole();
+	}
+
+	/**
+	 * Lets this user's items, statuses and role modify a peek they make.
+	 *
+	 * @param additions
+	 *            The modifiers for the peek.
+	 */
+	public void peekSetup(PeekMod additions)
+	{
+		Player player = this.player();
+		for (Interactable listener : player.m_listeners[Triggers.PEEK_SETUP])
+			((Reactable) listener).peekSetup(additions);
+		player.m_role.peekSetup(additions);
 	}
 
 	@Override
 	public void peekTrigger(PeekMod additions)
 	{
-		for (int i = 0; i < this.m_items.size(); ++i)
-			this.m_items.elementAt(i).peekSetup(additions);
-		for (int i = 0; i < this.m_statuses.size(); ++i)
-			this.m_statuses.elementAt(i).peekSetup(additions);
-		this.m_role.peekSetup(additions);
+		Player player = this.player();
+		this.peekSetup(additions);
+		for (Interactable listener : player.m_listeners[Triggers.PEEK])
+			listener.peekTrigger(additions);
+		player.m_role.peekTrigger(additions);
+	}
 
-		for (int i = 0; i < this.m_items.size(); ++i)
-			this.m_items.elementAt(i).peekTrigger(additions);
-		for (int i = 0; i < this.m_statuses.size(); ++i)
-			this.m_statuses.elementAt(i).peekTrigger(additions);
-		this.m_role.peekTrigger(additions);
+	/**
+	 * @return This user's player record, or a shared empty one if they have
+	 *         none. Only for reading.
+	 */
+	private Player player()
+	{
+		Player player = this.m_player;
+		return player == null ? IrcUser.NOBODY : player;
 	}
 
 	@Override
 	public void protectTrigger()
 	{
-		for (int i = 0; i < this.m_items.size(); ++i)
-			this.m_items.elementAt(i).protectTrigger();
-		for (int i = 0; i < this.m_statuses.size(); ++i)
-			this.m_statuses.elementAt(i).protectTrigger();
-		this.m_role.protectTrigger();
+		Player player = this.player();
+		for (Interactable listener : player.m_listeners[Triggers.PROTECT])
+			listener.protectTrigger();
+		player.m_role.protectTrigger();
 	}
 
 	/**
@@ -617,15 +845,10 @@ public class IrcUser implements Interactable
 	@Override
 	public void roundEnd()
 	{
-		for (int i = 0; i < this.m_protections.size(); ++i)
-			if (this.m_protections.elementAt(i).isFinished())
-				this.m_protections.remove(i);
-
-		for (int i = 0; i < this.m_items.size(); ++i)
-			this.m_items.elementAt(i).roundEnd();
-		for (int i = 0; i < this.m_statuses.size(); ++i)
-			this.m_statuses.elementAt(i).roundEnd();
-		this.m_role.roundEnd();
+		Player player = this.player();
+		for (Interactable listener : player.m_listeners[Triggers.ROUND_END])
+			listener.roundEnd();
+		player.m_role.roundEnd();
 	}
 
 	/**
@@ -639,19 +862,39 @@ public class IrcUser implements Interactable
 		this.m_host = hostname;
 	}
 
+	/**
+	 * Replaces this user's role, swaps in the new role's commands and moves
+	 * the user to the new role's team group. Any vote power they hold today and
+	 * their share of the win counters are worked out again.
+	 *
+	 * @param role
+	 *            The new role.
+	 */
+	public void setRole(Role role)
+	{
+		Player player = this.state();
+		player.m_aliasTable.unbind(player.m_role.getAliases(), player.m_role);
+		player.m_role = role;
+		player.m_aliasTable.bind(role.getAliases(), role, IrcUser.RANK_ROLE);
+		this.m_game.getTeams().update(this);
+		this.m_game.getJournal().role(this, role);
+		this.m_game.getVotes().refresh(this);
+		this.m_game.getCounters().update(this);
+	}
+
 	public void setPreference(String key, boolean value)
 	{
-		this.m_game.getSettings().setPreference(this.getNick() + "-" + key, value);
+		this.getPreferences().set(key, Boolean.toString(value));
 	}
 
 	public void setPreference(String key, int value)
 	{
-		this.m_game.getSettings().setPreference(this.getNick() + "-" + key, value);
+		this.getPreferences().set(key, Integer.toString(value));
 	}
 
 	public void setPreference(String key, String value)
 	{
-		this.m_game.getSettings().setPreference(this.getNick() + "-" + key, value);
+		this.getPreferences().set(key, value);
 	}
 
 	/**
@@ -665,16 +908,31 @@ public class IrcUser implements Interactable
 		this.m_user = username;
 	}
 
+	/**
+	 * @return This user's player record, made if they have none yet. For
+	 *         anything that changes it.
+	 */
+	private Player state()
+	{
+		if (this.m_player == null)
+			this.m_player = new Player(new Person(this.m_game, this));
+		return this.m_player;
+	}
+
 	@Override
 	public void stopKill(Kill kill)
 	{
-		for (int i = 0; i < this.m_protections.size(); ++i)
-			this.m_protections.elementAt(i).protect(kill);
-		for (int i = 0; i < this.m_items.size(); ++i)
-			this.m_items.elementAt(i).stopKill(kill);
-		for (int i = 0; i < this.m_statuses.size(); ++i)
-			this.m_statuses.elementAt(i).stopKill(kill);
-		this.m_role.stopKill(kill);
+		Player player = this.player();
+		for (Protection protection : player.m_protections)
+			if (protection.isActive() && !protection.isSpent())
+			{
+				protection.protect(kill);
+				if (protection.isSpent())
+					this.m_game.getEffects().retire(this, protection);
+			}
+		for (Interactable listener : player.m_listeners[Triggers.STOP_KILL])
+			listener.stopKill(kill);
+		player.m_role.stopKill(kill);
 	}
 
 	/**
@@ -684,28 +942,26 @@ public class IrcUser implements Interactable
 	{
 		if (this.m_isVoice)
 			return;
-		this.m_bot.voice(this.m_game.getSettings().getSetting("channel", Settings.channel), this.getNick());
+		this.m_bot.voice(this.m_game.getChannel(), this.getNick());
 	}
 
 	@Override
 	public int votePower(IrcUser[][] history, IrcUser[] players)
 	{
+		Player player = this.player();
 		int power = 0;
-		for (int i = 0; i < this.m_items.size(); ++i)
-			power += this.m_items.elementAt(i).votePower(history, players);
-		for (int i = 0; i < this.m_statuses.size(); ++i)
-			power += this.m_statuses.elementAt(i).votePower(history, players);
-		return power + this.m_role.votePower(history, players);
+		for (Interactable listener : player.m_listeners[Triggers.VOTE_POWER])
+			power += listener.votePower(history, players);
+		return power + player.m_role.votePower(history, players);
 	}
 
 	@Override
 	public int wolfParity()
 	{
+		Player player = this.player();
 		int parity = 0;
-		for (int i = 0; i < this.m_items.size(); ++i)
-			parity += this.m_items.elementAt(i).wolfParity();
-		for (int i = 0; i < this.m_statuses.size(); ++i)
-			parity += this.m_statuses.elementAt(i).wolfParity();
-		return parity + this.m_role.wolfParity();
+		for (Interactable listener : player.m_listeners[Triggers.WOLF_PARITY])
+			parity += listener.wolfParity();
+		return parity + player.m_role.wolfParity();
 	}
 }
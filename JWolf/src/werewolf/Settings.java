@@ -4,11 +4,19 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import werewolf.util.PreferenceStore;
 
 /**
  * The Settings class houses all bot and user settings. The interface for each
  * of these is the same.
  * <P>
+ * Each channel the bot hosts in gets an overlay created with
+ * {@link #Settings(Settings, String)}. Overlays hold only the settings changed
+ * for that channel and fall back to the bot-wide settings for everything else.
+ * User preferences are always shared.
+ * <P>
  * Example: {@code Settings.getSetting("nick", Settings.nick);}
  */
 public class Settings
@@ -20,10 +28,57 @@ public class Settings
 
 	public static final String	ident		= "msg nickserv IDENTIFY Rainboy qwerty";
 	public static final int		msgDelay	= 500;
+	public static final int		msgBurst	= 4;											// Number
+																						// of
+																						// lines
+																						// sent
+																						// back
+																						// to
+																						// back
+																						// before
+																						// msgDelay
+																						// applies.
 	public static final String	network		= "irc.freenode.net";
+	public static final int		port		= 6667;
 	public static final String	channel		= "#bots";
 	public static final String	roleset		= "Default";
 	public static final String	cmdChar		= "!";
+	public static final int		cmdDelay	= 2000;										// Number
+																						// of
+																						// milliseconds
+																						// it
+																						// takes
+																						// a
+																						// user
+																						// to
+																						// earn
+																						// back
+																						// one
+																						// command
+																						// of
+																						// a
+																						// kind.
+	public static final int		cmdBurst	= 5;										// Number
+																						// of
+																						// commands
+																						// of
+																						// one
+																						// kind
+																						// a
+																						// user
+																						// may
+																						// send
+																						// back
+																						// to
+																						// back
+																						// before
+																						// cmdDelay
+																						// applies.
+																						// 0
+																						// turns
+																						// command
+																						// limits
+																						// off.
 	public static final int		pingRate	= 120;										// Number
 																						// of
 																						// seconds
@@ -158,6 +213,103 @@ public class Settings
 	// -1 = Player cannot unlock once locked.
 	// 0+ = Takes <lockTime> seconds before they are able to vote after unlock.
 
+	public static final int		logCapacity	= 10000;									// Maximum
+																						// number
+																						// of
+																						// log
+																						// lines
+																						// waiting
+																						// to
+																						// be
+																						// written
+																						// before
+																						// new
+																						// ones
+																						// are
+																						// dropped.
+	public static final int		logSize		= 1024;										// Size
+																						// in
+																						// kilobytes
+																						// at
+																						// which
+																						// a
+																						// log
+																						// file
+																						// is
+																						// rotated
+																						// and
+																						// compressed.
+	public static final int		logAge		= 86400;									// Number
+																						// of
+																						// seconds
+																						// after
+																						// which
+																						// a
+																						// log
+																						// file
+																						// is
+																						// rotated
+																						// and
+																						// compressed.
+	public static final String	journal		= "Journal";								// Directory
+																						// each
+																						// channel's
+																						// game
+																						// journal
+																						// is
+																						// kept
+																						// in.
+																						// Empty
+																						// to
+																						// keep
+																						// no
+																						// journal.
+	public static final int		journalLen	= 256;										// Number
+																						// of
+																						// journaled
+																						// events
+																						// after
+																						// which
+																						// a
+																						// snapshot
+																						// of
+																						// the
+																						// game
+																						// is
+																						// written.
+	public static final int		seed		= 0;										// Seed
+																						// for
+																						// each
+																						// game's
+																						// random
+																						// numbers.
+																						// 0
+																						// to
+																						// pick
+																						// a
+																						// new
+																						// seed
+																						// from
+																						// the
+																						// clock
+																						// for
+																						// every
+																						// game.
+	public static final String	record		= "";										// Directory
+																						// each
+																						// game's
+																						// inbound
+																						// events
+																						// are
+																						// recorded
+																						// in
+																						// for
+																						// replaying.
+																						// Empty
+																						// to
+																						// record
+																						// nothing.
+
 	private Properties			config;												// Houses
 																						// all
 																						// base
@@ -170,27 +322,50 @@ public class Settings
 																						// config
 																						// options.
 
-	private Properties			usrConfig;												// Houses
+	private PreferenceStore		usrConfig;												// Houses
 																						// all
 																						// user
 																						// commands.
 
+	private Settings			parent		= null;										// Settings
+																						// this
+																						// overlay
+																						// falls
+																						// back
+																						// to.
+
+	private String				configFile	= "config.properties";						// File
+																						// the
+																						// base
+																						// config
+																						// is
+																						// saved
+																						// in.
+
+	private volatile SettingsSnapshot	snapshot;										// Parsed
+																						// copy
+																						// of
+																						// the
+																						// current
+																						// settings.
+
+	private CopyOnWriteArrayList<Settings>	overlays	= new CopyOnWriteArrayList<Settings>();	// Channel
+																						// overlays
+																						// to
+																						// refresh
+																						// when
+																						// these
+																						// settings
+																						// change.
+
 	public Settings()
 	{
-		this.usrConfig = new Properties();
-		try
-		{
-			this.usrConfig.load(new FileInputStream("usr_config.properties"));
-		} catch (IOException e)
-		{
-			System.err.println("Error loading user config file.");
-		}
-		this.savePreferences();
+		this.usrConfig = new PreferenceStore("usr_config.properties");
 
 		this.config = new Properties();
 		try
 		{
-			this.config.load(new FileInputStream("config.properties"));
+			this.config.load(new FileInputStream(this.configFile));
 		} catch (IOException ex)
 		{
 			System.err.println("Error loading game config file.");
@@ -198,6 +373,57 @@ public class Settings
 
 		this.tempConfig = new Properties(this.config);
 		this.saveSettings();
+		this.refresh();
+	}
+
+	/**
+	 * Creates settings that live only in memory. Nothing is read from or saved
+	 * to disk, including user preferences, so any number of these can exist at
+	 * once. Used to run simulated games.
+	 *
+	 * @param defaults
+	 *            The settings to start with.
+	 */
+	public Settings(Properties defaults)
+	{
+		this.usrConfig = new PreferenceStore();
+		this.configFile = null;
+		this.config = new Properties();
+		this.config.putAll(defaults);
+		this.tempConfig = new Properties(this.config);
+		this.refresh();
+	}
+
+	/**
+	 * Creates a per-channel overlay. Settings not set for the channel are read
+	 * from the parent, and user preferences are shared with it. An overlay of
+	 * in-memory settings is kept in memory too.
+	 *
+	 * @param parent
+	 *            The bot-wide settings.
+	 * @param channel
+	 *            The channel this overlay is for.
+	 */
+	public Settings(Settings parent, String channel)
+	{
+		this.parent = parent;
+		this.usrConfig = parent.usrConfig;
+		this.configFile = parent.configFile == null ? null : "config-" + channel.replaceAll("[^A-Za-z0-9_-]", "") + ".properties";
+
+		this.config = new Properties();
+		if (this.configFile != null)
+			try
+			{
+				this.config.load(new FileInputStream(this.configFile));
+			} catch (IOException ex)
+			{
+				// No overrides for this channel yet.
+			}
+		this.config.setProperty("channel", channel);
+
+		this.tempConfig = new Properties(this.config);
+		parent.overlays.add(this);
+		this.refresh();
 	}
 
 	/**
@@ -209,7 +435,10 @@ public class Settings
 	 */
 	public boolean getPreference(String key, boolean defaultValue)
 	{
-		return Boolean.valueOf(this.usrConfig.getProperty(key, Boolean.toString(defaultValue)));
+		String value = this.usrConfig.get("").get(key);
+		if (value == null)
+			return defaultValue;
+		return Boolean.valueOf(value);
 	}
 
 	/**
@@ -221,7 +450,10 @@ public class Settings
 	 */
 	public int getPreference(String key, int defaultValue)
 	{
-		return Integer.parseInt(this.usrConfig.getProperty(key, Integer.toString(defaultValue)));
+		String value = this.usrConfig.get("").get(key);
+		if (value == null)
+			return defaultValue;
+		return Integer.parseInt(value);
 	}
 
 	/**
@@ -233,7 +465,22 @@ public class Settings
 	 */
 	public String getPreference(String key, String defaultValue)
 	{
-		return this.usrConfig.getProperty(key, defaultValue);
+		String value = this.usrConfig.get("").get(key);
+		if (value == null)
+			return defaultValue;
+		return value;
+	}
+
+	/**
+	 * Gets the preferences of a single user. The returned handle can be kept
+	 * and read from directly.
+	 *
+	 * @param nick
+	 *            The user's nick, in any case.
+	 */
+	public PreferenceStore.User getPreferences(String nick)
+	{
+		return this.usrConfig.get(nick);
 	}
 
 	/**
@@ -245,7 +492,10 @@ public class Settings
 	 */
 	public boolean getSetting(String key, boolean defaultValue)
 	{
-		return Boolean.valueOf(this.tempConfig.getProperty(key, Boolean.toString(defaultValue)));
+		String value = this.lookup(key);
+		if (value == null)
+			return defaultValue;
+		return Boolean.valueOf(value);
 	}
 
 	/**
@@ -257,7 +507,10 @@ public class Settings
 	 */
 	public int getSetting(String key, int defaultValue)
 	{
-		return Integer.parseInt(this.tempConfig.getProperty(key, Integer.toString(defaultValue)));
+		String value = this.lookup(key);
+		if (value == null)
+			return defaultValue;
+		return Integer.parseInt(value);
 	}
 
 	/**
@@ -269,15 +522,51 @@ public class Settings
 	 */
 	public String getSetting(String key, String defaultValue)
 	{
-		return this.tempConfig.getProperty(key, defaultValue);
+		String value = this.lookup(key);
+		if (value == null)
+			return defaultValue;
+		return value;
 	}
 
 	/**
-	 * Resets all user preferences to their previously saved values.
+	 * @return The parsed settings as of the last change. Holding on to the
+	 *         returned object gives a consistent view even if settings are
+	 *         changed meanwhile.
 	 */
-	public void reloadPreferences() throws IOException
+	public SettingsSnapshot getSnapshot()
 	{
-		this.usrConfig.load(new FileInputStream("usr_config.properties"));
+		return this.snapshot;
+	}
+
+	/**
+	 * @return The raw value of a setting, checking this overlay's temp and
+	 *         saved settings before falling back to the parent's.
+	 */
+	private String lookup(String key)
+	{
+		String value = this.tempConfig.getProperty(key);
+		if (value == null && this.parent != null)
+			return this.parent.lookup(key);
+		return value;
+	}
+
+	/**
+	 * Rebuilds the snapshot of this and every overlay of it.
+	 */
+	private void refresh()
+	{
+		this.snapshot = new SettingsSnapshot(this);
+		for (Settings overlay : this.overlays)
+			overlay.refresh();
+	}
+
+	/**
+	 * Reloads all user preferences from file. Changes are saved as they are
+	 * made, so this only picks up edits made to the file by hand.
+	 */
+	public void reloadPreferences()
+	{
+		this.usrConfig.reload();
 	}
 
 	/**
@@ -285,7 +574,9 @@ public class Settings
 	 */
 	public void reloadSettings() throws IOException
 	{
-		this.config.load(new FileInputStream("config.properties"));
+		if (this.configFile == null)
+			return;
+		this.config.load(new FileInputStream(this.configFile));
 		this.resetSettings();
 	}
 
@@ -295,21 +586,16 @@ public class Settings
 	public void resetSettings()
 	{
 		this.tempConfig = new Properties(this.config);
+		this.refresh();
 	}
 
 	/**
-	 * Saves user preferences to file.
+	 * Writes all user preferences to file. Changes are journaled as they are
+	 * made, so this is only needed to get a tidy file.
 	 */
 	public void savePreferences()
 	{
-		try
-		{
-			this.usrConfig.store(new FileOutputStream("usr_config.properties"), "User settings for the Java Werewolf Host Bot.");
-		} catch (IOException ex)
-		{
-			System.err.println("Error saving user config file.");
-			ex.printStackTrace();
-		}
+		this.usrConfig.compact();
 	}
 
 	/**
@@ -317,9 +603,11 @@ public class Settings
 	 */
 	public void saveSettings()
 	{
+		if (this.configFile == null)
+			return;
 		try
 		{
-			this.config.store(new FileOutputStream("config.properties"), "Game settings for the Java Werewolf Host Bot.");
+			this.config.store(new FileOutputStream(this.configFile), "Game settings for the Java Werewolf Host Bot.");
 		} catch (IOException e)
 		{
 			System.err.println("Error saving game config file.");
@@ -357,8 +645,7 @@ public class Settings
 	 */
 	public void setPreference(String key, String value)
 	{
-		this.usrConfig.setProperty(key, value);
-		this.savePreferences();
+		this.usrConfig.get("").set(key, value);
 	}
 
 	/**
@@ -394,6 +681,7 @@ public class Settings
 		this.config.setProperty(key, value);
 		this.tempConfig.setProperty(key, value);
 		this.saveSettings();
+		this.refresh();
 	}
 
 	/**
@@ -436,5 +724,6 @@ public class Settings
 	public void setTempSetting(String key, String value)
 	{
 		this.tempConfig.setProperty(key, value);
+		this.refresh();
 	}
 }
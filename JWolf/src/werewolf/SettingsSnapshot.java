@@ -0,0 +1,115 @@
+package werewolf;
+
+/**
+ * An immutable copy of every known bot setting, parsed once. {@link Settings}
+ * builds a new snapshot whenever a setting changes, so code that reads
+ * settings on every message can load a field instead of looking up and
+ * parsing a property.
+ * <P>
+ * Fields are named after the matching defaults in {@link Settings}, and keys
+ * with malformed values fall back to those defaults.
+ * <P>
+ * Example: {@code game.getSettings().getSnapshot().cmdChar}
+ */
+public final class SettingsSnapshot
+{
+	public final String		nick;
+	public final String		user;
+	public final String		chanserv;
+	public final String		ident;
+	public final int		msgDelay;
+	public final int		msgBurst;
+	public final String		network;
+	public final String		channel;
+	public final String		roleset;
+	public final String		cmdChar;
+	public final int		cmdDelay;
+	public final int		cmdBurst;
+	public final int		pingRate;
+	public final int		initialWait;
+	public final int		waitTime;
+	public final int		waitReset;
+	public final int		waitPerUser;
+	public final int		waitTotal;
+	public final boolean	dualPhase;
+	public final int		endRange;
+	public final int		dayTime;
+	public final int		nightTime;
+	public final int		voteType;
+	public final boolean	trueTally;
+	public final int		actionType;
+	public final int		lockType;
+	public final int		logCapacity;
+	public final int		logSize;
+	public final int		logAge;
+	public final String		journal;
+	public final int		journalLen;
+	public final int		seed;
+	public final String		record;
+
+	/**
+	 * Reads every known setting from the given settings.
+	 *
+	 * @param config
+	 *            The settings to copy, including any temp settings and values
+	 *            inherited from a parent.
+	 */
+	SettingsSnapshot(Settings config)
+	{
+		this.nick = config.getSetting("nick", Settings.nick);
+		this.user = config.getSetting("user", Settings.user);
+		this.chanserv = config.getSetting("chanserv", Settings.chanserv);
+		this.ident = config.getSetting("ident", Settings.ident);
+		this.msgDelay = SettingsSnapshot.parse(config, "msgDelay", Settings.msgDelay);
+		this.msgBurst = SettingsSnapshot.parse(config, "msgBurst", Settings.msgBurst);
+		this.network = config.getSetting("network", Settings.network);
+		this.channel = config.getSetting("channel", Settings.channel);
+		this.roleset = config.getSetting("roleset", Settings.roleset);
+		this.cmdChar = config.getSetting("cmdChar", Settings.cmdChar);
+		this.cmdDelay = SettingsSnapshot.parse(config, "cmdDelay", Settings.cmdDelay);
+		this.cmdBurst = SettingsSnapshot.parse(config, "cmdBurst", Settings.cmdBurst);
+		this.pingRate = SettingsSnapshot.parse(config, "pingRate", Settings.pingRate);
+		this.initialWait = SettingsSnapshot.parse(config, "initialWait", Settings.initialWait);
+		this.waitTime = SettingsSnapshot.parse(config, "waitTime", Settings.waitTime);
+		this.waitReset = SettingsSnapshot.parse(config, "waitReset", Settings.waitReset);
+		this.waitPerUser = SettingsSnapshot.parse(config, "waitPerUser", Settings.waitPerUser);
+		this.waitTotal = SettingsSnapshot.parse(config, "waitTotal", Settings.waitTotal);
+		this.dualPhase = config.getSetting("dualPhase", Settings.dualPhase);
+		this.endRange = SettingsSnapshot.parse(config, "endRange", Settings.endRange);
+		this.dayTime = SettingsSnapshot.parse(config, "dayTime", Settings.dayTime);
+		this.nightTime = SettingsSnapshot.parse(config, "nightTime", Settings.nightTime);
+		this.voteType = SettingsSnapshot.parse(config, "voteType", Settings.voteType);
+		this.trueTally = config.getSetting("trueTally", Settings.trueTally);
+		this.actionType = SettingsSnapshot.parse(config, "actionType", Settings.actionType);
+		this.lockType = SettingsSnapshot.parse(config, "lockType", Settings.lockType);
+		this.logCapacity = SettingsSnapshot.parse(config, "logCapacity", Settings.logCapacity);
+		this.logSize = SettingsSnapshot.parse(config, "logSize", Settings.logSize);
+		this.logAge = SettingsSnapshot.parse(config, "logAge", Settings.logAge);
+		this.journal = config.getSetting("journal", Settings.journal);
+		this.journalLen = SettingsSnapshot.parse(config, "journalLen", Settings.journalLen);
+		this.seed = SettingsSnapshot.parse(config, "seed", Settings.seed);
+		this.record = config.getSetting("record", Settings.record);
+	}
+
+	private static int parse(Settings config, String key, int defaultValue)
+	{
+		try
+		{
+			return config.getSetting(key, defaultValue);
+		} catch (NumberFormatException e)
+		{
+			System.err.println("Invalid value for setting " + key + ", using " + defaultValue + ".");
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * @param c
+	 *            A character a chat line starts with.
+	 * @return True if the character marks the line as a command.
+	 */
+	public boolean isCmdChar(char c)
+	{
+		return this.cmdChar.indexOf(c) >= 0;
+	}
+}
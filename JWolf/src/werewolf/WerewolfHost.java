@@ -1,20 +1,25 @@
 package werewolf;
 
 import java.io.IOException;
-import java.util.Date;
 import java.util.Properties;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 import org.jibble.pircbot.Colors;
 import org.jibble.pircbot.IrcException;
 import org.jibble.pircbot.NickAlreadyInUseException;
-import org.jibble.pircbot.PircBot;
 import org.jibble.pircbot.User;
 
 import werewolf.command.Help;
 import werewolf.command.Join;
 import werewolf.command.Ping;
 import werewolf.command.Start;
+import werewolf.command.Vote;
 import werewolf.command.Wait;
 import werewolf.command.console.ListPlayers;
 import werewolf.command.console.ListUsers;
@@ -22,9 +27,14 @@ import werewolf.command.console.Set;
 import werewolf.define.Command;
 import werewolf.define.ConsoleCommand;
 import werewolf.define.Roleset;
+import werewolf.define.Transport;
+import werewolf.net.IrcClient;
 import werewolf.roleset.Default;
+import werewolf.util.EventRecorder;
+import werewolf.util.GameJournal;
+import werewolf.util.OutboundQueue;
 
-public class WerewolfHost extends PircBot implements Runnable
+public class WerewolfHost extends IrcClient implements Runnable, Transport
 {
 	public static final int	major	= 0;
 	public static final int	minor	= 0;
@@ -36,40 +46,94 @@ public class WerewolfHost extends PircBot implements Runnable
 		new Thread(bot).run();
 	}
 
-	private Game				m_game;
-	private Settings			config;
-	private ConsoleCommand[]	m_console;				// Array of all possible
-														// console commands.
-	private Properties			m_usrConfig;
+	/**
+	 * Creates a game with the standard commands and every roleset.
+	 *
+	 * @param transport
+	 *            The connection the game talks through.
+	 * @param settings
+	 *            The game's settings.
+	 * @return The new game.
+	 */
+	public static Game newGame(Transport transport, Settings settings)
+	{
+		Command[] commands = new Command[6];
+		Roleset[] rolesets = new Roleset[1];
+		Game game = new Game(transport, settings, commands, rolesets);
+
+		commands[0] = new Help(game, commands);
+		commands[1] = new Join(game);
+		commands[2] = new Wait(game);
+		commands[3] = new Start(game);
+		commands[4] = new Ping(game);
+		commands[5] = new Vote(game);
+
+		rolesets[0] = new Default(game);
+		return game;
+	}
 
-	private long				m_lastOpCheck	= 0;	// Time that the bot
-														// last checked it's OP
-														// status in the
-														// channel.
+	private ConcurrentHashMap<String, Game>	m_games			= new ConcurrentHashMap<String, Game>();	// Games
+																										// keyed
+																										// by
+																										// lowercased
+																										// channel.
+	private Game							m_primary;											// Game
+																										// the
+																										// console
+																										// acts
+																										// on.
+	private Settings						config;
+	private ConsoleCommand[]				m_console;											// Array
+																										// of
+																										// all
+																										// possible
+																										// console
+																										// commands.
+	private Properties						m_usrConfig;
+	private OutboundQueue					m_outbound;
+	private ExecutorService					m_workers;											// Pool
+																										// shared
+																										// by
+																										// every
+																										// game's
+																										// lane.
 
 	public WerewolfHost()
 	{
-		this.config = new Settings();
-		Command[] commands = new Command[5];
-		Roleset[] rolesets = new Roleset[1];
-		this.m_console = new ConsoleCommand[3];
-		this.m_game = new Game(this, this.config, commands, rolesets);
-
-		commands[0] = new Help(this.m_game, commands);
-		commands[1] = new Join(this.m_game);
-		commands[2] = new Wait(this.m_game);
-		commands[3] = new Start(this.m_game);
-		commands[4] = new Ping(this.m_game);
+		this(new Settings());
+	}
 
-		rolesets[0] = new Default(this.m_game);
+	/**
+	 * Starts the bot with the given bot-wide settings and connects it to the
+	 * configured server.
+	 *
+	 * @param config
+	 *            The bot-wide settings. In-memory settings keep the bot from
+	 *            touching any files, which is how load tests run it.
+	 */
+	public WerewolfHost(Settings config)
+	{
+		this.config = config;
+		this.m_workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), (task) -> {
+			Thread thread = new Thread(task, "GameWorker");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		String[] channels = this.config.getSetting("channels", this.config.getSetting("channel", Settings.channel)).split(",");
+		for (int i = 0; i < channels.length; ++i)
+			if (channels[i].trim().length() > 0)
+				this.addChannel(channels[i].trim());
 
-		this.m_console[0] = new ListUsers(this, this.m_game);
-		this.m_console[1] = new ListPlayers(this, this.m_game);
-		this.m_console[2] = new Set(this, this.m_game);
+		this.m_console = new ConsoleCommand[3];
+		this.m_console[0] = new ListUsers(this, this.m_primary);
+		this.m_console[1] = new ListPlayers(this, this.m_primary);
+		this.m_console[2] = new Set(this, this.m_primary);
 
 		this.setName(this.config.getSetting("nick", Settings.nick));
 		this.setLogin(this.config.getSetting("user", Settings.user));
-		this.setMessageDelay(this.config.getSetting("msgDelay", Settings.msgDelay));
+		this.m_outbound = new OutboundQueue((line) -> this.sendRawLine(line), this.config.getSetting("msgDelay", Settings.msgDelay), this.config.getSetting("msgBurst", Settings.msgBurst));
+		this.m_outbound.start();
 
 		// Enable debugging output.
 		this.setVerbose(true);
@@ -78,21 +142,78 @@ public class WerewolfHost extends PircBot implements Runnable
 		this.connectNow();
 	}
 
-	public void checkOp()
+	/**
+	 * Creates a game for a channel with its own settings overlay, commands and
+	 * player list. The first channel added is the one the console acts on.
+	 * <P>
+	 * If the channel has a game journal from an earlier run, the game is
+	 * restored from it before anything else can change it. If recording is on,
+	 * a new recording of the game's events is started.
+	 *
+	 * @param channel
+	 *            The channel to host in.
+	 * @return The new game.
+	 */
+	public Game addChannel(String channel)
+	{
+		Game game = WerewolfHost.newGame(this, new Settings(this.config, channel));
+		String journalDir = game.getSettings().getSnapshot().journal;
+		if (journalDir.length() > 0)
+		{
+			GameJournal journal = new GameJournal(journalDir + "/" + channel.replaceAll("[^A-Za-z0-9_-]", "") + ".state", game.getSettings().getSnapshot().journalLen);
+			journal.restore(game);
+			game.setJournal(journal);
+		}
+		String recordDir = game.getSettings().getSnapshot().record;
+		if (recordDir.length() > 0)
+			game.setRecorder(new EventRecorder(recordDir + "/" + channel.replaceAll("[^A-Za-z0-9_-]", "") + "-" + System.currentTimeMillis() + ".rec", game.getRandom().getSeed(), channel));
+		this.m_games.put(channel.toLowerCase(), game);
+		if (this.m_primary == null)
+			this.m_primary = game;
+		return game;
+	}
+
+	public void checkOp(Game game)
 	{
-		long time = new Date().getTime();
-		if (this.m_lastOpCheck > time - 10000) // Only check every 10 seconds at
-												// most.
+		if (!game.checkOpDue(10000)) // Only check every 10 seconds at most.
 			return;
-		this.m_lastOpCheck = time;
-		IrcUser user = this.m_game.getUser(this.getName());
+		IrcUser user = game.getUser(this.getName());
 		if (user == null)
 		{
 			System.err.println("Cannot find bot IrcPlayer object.");
 			return;
 		}
 		if (!user.isOp())
-			this.sendMessage(this.config.getSetting("chanserv", Settings.chanserv), "OP " + this.config.getSetting("channel", Settings.channel));
+			this.queueMessage(game.getSettings().getSnapshot().chanserv, "OP " + game.getChannel(), OutboundQueue.GAME);
+	}
+
+	/**
+	 * Runs a line typed at the console. Called on the primary game's lane.
+	 */
+	private void console(String str)
+	{
+		if (str.charAt(0) == '?' && str.length() > 1)
+		{ // Console command.
+			boolean found = false;
+			for (int i = 0; i < this.m_console.length; ++i)
+			{
+				String[] aliases = this.m_console[i].getAliases();
+				for (int j = 0; j < aliases.length; ++j)
+					if (str.substring(1).startsWith(aliases[j]) && !found)
+					{
+						found = true;
+						String args = "";
+						if (str.length() > aliases[j].length() + 2)
+							args = str.substring(aliases[j].length() + 2);
+						this.m_console[i].onUse(aliases[j], args);
+					}
+			}
+			if (!found)
+				System.err.println("Unknown command.");
+		} else if (str.charAt(0) == '/') // IRC command.
+			this.m_primary.dispatch(str.substring(1));
+		else
+			this.m_primary.say(str);
 	}
 
 	public void connectNow()
@@ -102,7 +223,7 @@ public class WerewolfHost extends PircBot implements Runnable
 			try
 			{
 				continueConnection = false;
-				this.connect(this.config.getSetting("network", Settings.network));
+				this.connect(this.config.getSetting("network", Settings.network), this.config.getSetting("port", Settings.port));
 			} catch (IOException e)
 			{
 				continueConnection = true;
@@ -117,256 +238,489 @@ public class WerewolfHost extends PircBot implements Runnable
 				e.printStackTrace();
 				continueConnection = true;
 			}
-		this.joinChannel(this.config.getSetting("channel", Settings.channel));
-		this.m_game.dispatch(this.config.getSetting("ident", Settings.ident));
+		for (Game game : this.m_games.values())
+			this.joinChannel(game.getChannel());
+		String ident = this.config.getSetting("ident", Settings.ident);
+		this.m_primary.execute(() -> this.m_primary.dispatch(ident));
 	}
 
-	@Override
-	protected void onDeop(String channel, String sourceNick, String sourceLogin, String sourceHostname, String recipient)
+	/**
+	 * Runs a task for a private message on the lane of the game it belongs
+	 * to: the game the user is playing in, or failing that the first game
+	 * whose channel they are in. Each game is asked on its own lane, so no
+	 * game's users are read from outside it. Nothing is run if the user shares
+	 * no channel with the bot.
+	 *
+	 * @param nick
+	 *            The nick of the user.
+	 * @param task
+	 *            The work to run, given the game. It runs after the games
+	 *            have been asked, so it should check the user again.
+	 */
+	private void executePrivate(String nick, Consumer<Game> task)
 	{
-		if (this.m_game.isUser(sourceNick))
+		Game[] games = this.m_games.values().toArray(new Game[0]);
+		if (games.length == 1)
 		{
-			IrcUser user = this.m_game.getUser(sourceNick);
-			user.setHost(sourceHostname);
-			user.setUser(sourceLogin);
+			games[0].execute(() -> task.accept(games[0]));
+			return;
 		}
-		if (!this.m_game.isUser(recipient))
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		CompletableFuture<Integer>[] ranks = new CompletableFuture[games.length];
+		for (int i = 0; i < games.length; ++i)
+		{
+			Game game = games[i];
+			ranks[i] = CompletableFuture.supplyAsync(() -> game.isPlayer(nick) ? 2 : game.isUser(nick) ? 1 : 0, game::execute);
+		}
+		CompletableFuture.allOf(ranks).thenRun(() -> {
+			Game found = null;
+			int best = 0;
+			for (int i = 0; i < games.length; ++i)
+				if (ranks[i].join() > best)
+				{
+					best = ranks[i].join();
+					found = games[i];
+				}
+			if (found == null)
+				return;
+			Game game = found;
+			game.execute(() -> task.accept(game));
+		});
+	}
+
+	/**
+	 * Hands a line from a user to their game, unless it is a command they have
+	 * been sending faster than the game's command rate limit allows. Shed
+	 * commands get no reply, so flooding costs the bot no output, and are
+	 * never recorded, so replays see only what the game acted on.
+	 */
+	private void forward(Game game, IrcUser user, String message, boolean isChannel)
+	{
+		if (game.allowCommand(user, message))
+			game.onMessage(user, message, isChannel);
+	}
+
+	/**
+	 * @param channel
+	 *            The channel name, in any case.
+	 * @return The game hosted in the channel, or null if the bot does not host
+	 *         there.
+	 */
+	public Game getGame(String channel)
+	{
+		return this.m_games.get(channel.toLowerCase());
+	}
+
+	/**
+	 * @return The queue every game's output goes through.
+	 */
+	public OutboundQueue getOutbound()
+	{
+		return this.m_outbound;
+	}
+
+	/**
+	 * @return The bot-wide settings that every channel's settings fall back to.
+	 */
+	public Settings getSettings()
+	{
+		return this.config;
+	}
+
+	/**
+	 * @return The pool that runs every game's lane.
+	 */
+	@Override
+	public Executor getWorkers()
+	{
+		return this.m_workers;
+	}
+
+	@Override
+	protected void onDeop(String channel, String sourceNick, String sourceLogin, String sourceHostname, String recipient)
+	{
+		Game game = this.getGame(channel);
+		if (game == null)
 			return;
-		this.m_game.getUser(recipient).onOpChange(false);
-		this.checkOp();
+		game.execute(() -> {
+			if (game.isUser(sourceNick))
+			{
+				IrcUser user = game.getUser(sourceNick);
+				user.setHost(sourceHostname);
+				user.setUser(sourceLogin);
+			}
+			if (!game.isUser(recipient))
+				return;
+			game.getUser(recipient).onOpChange(false);
+			this.checkOp(game);
+		});
 	}
 
-	protected void onDevoice(String channel, String sourceNick, String sourceLogin, String sourceHostname, String recipient)
+	@Override
+	protected void onDeVoice(String channel, String sourceNick, String sourceLogin, String sourceHostname, String recipient)
 	{
-		this.checkOp();
-		if (this.m_game.isUser(sourceNick))
-		{
-			IrcUser user = this.m_game.getUser(sourceNick);
-			user.setHost(sourceHostname);
-			user.setUser(sourceLogin);
-		}
-		if (!this.m_game.isUser(recipient))
+		Game game = this.getGame(channel);
+		if (game == null)
 			return;
-		this.m_game.getUser(recipient).onVoiceChange(false);
-		if (this.m_game.isPlayer(recipient))
-			this.voice(this.config.getSetting("channel", Settings.channel), recipient);
+		game.execute(() -> {
+			this.checkOp(game);
+			if (game.isUser(sourceNick))
+			{
+				IrcUser user = game.getUser(sourceNick);
+				user.setHost(sourceHostname);
+				user.setUser(sourceLogin);
+			}
+			if (!game.isUser(recipient))
+				return;
+			game.getUser(recipient).onVoiceChange(false);
+			if (game.isPlayer(recipient))
+				this.voice(game.getChannel(), recipient);
+		});
 	}
 
 	@Override
 	protected void onDisconnect()
 	{
-		WerewolfHost.main(new String[]
-		{});
+		// Games, timers and journals carry on in memory, so only the
+		// connection needs rebuilding.
+		this.connectNow();
 	}
 
 	@Override
 	protected void onJoin(String channel, String sender, String login, String hostname)
 	{
-		if (!this.m_game.isUser(sender))
-			this.m_game.onJoin(new IrcUser(this.m_game, sender, login, hostname));
-		this.checkOp();
+		Game game = this.getGame(channel);
+		if (game == null)
+			return;
+		game.execute(() -> {
+			if (!game.isUser(sender))
+				game.onJoin(new IrcUser(game, sender, login, hostname));
+			this.checkOp(game);
+		});
 	}
 
 	@Override
 	protected void onKick(String channel, String kickerNick, String kickerLogin, String kickerHostname, String recipientNick, String reason)
 	{
-		this.checkOp();
-		this.m_game.onPart(recipientNick);
+		Game game = this.getGame(channel);
+		if (game == null)
+			return;
+		game.execute(() -> {
+			this.checkOp(game);
+			game.onPart(recipientNick);
+		});
 	}
 
 	@Override
 	protected void onMessage(String channel, String sender, String login, String hostname, String message)
 	{
-		this.checkOp();
-		message = Colors.removeColors(message);
-		if (!this.m_game.isUser(sender))
+		Game game = this.getGame(channel);
+		if (game == null)
 			return;
-		IrcUser user = this.m_game.getUser(sender);
-		user.setUser(login);
-		user.setHost(hostname);
-		String chars = this.config.getSetting("cmdChar", Settings.cmdChar);
-		for (int i = 0; i < chars.length(); ++i)
-			if (message.charAt(0) == chars.charAt(i))
-			{
-				this.m_game.onMessage(user, message.substring(1), true);
+		String text = Colors.removeColors(message);
+		game.execute(() -> {
+			this.checkOp(game);
+			if (!game.isUser(sender))
 				return;
-			}
+			IrcUser user = game.getUser(sender);
+			user.setUser(login);
+			user.setHost(hostname);
+			if (text.length() > 0 && game.getSettings().getSnapshot().isCmdChar(text.charAt(0)))
+				this.forward(game, user, text.substring(1), true);
+		});
 	}
 
 	@Override
 	protected void onNickChange(String oldNick, String login, String hostname, String newNick)
 	{
-		this.checkOp();
-		IrcUser user = this.m_game.getUser(oldNick);
-		if (user == null)
-			return;
-		user.setUser(login);
-		user.setHost(hostname);
-		user.onNickChange(newNick);
+		for (Game game : this.m_games.values())
+			game.execute(() -> {
+				this.checkOp(game);
+				IrcUser user = game.getUser(oldNick);
+				if (user == null)
+					return;
+				user.setUser(login);
+				user.setHost(hostname);
+				game.onNickChange(oldNick, newNick);
+			});
 	}
 
 	@Override
 	protected void onNotice(String sourceNick, String sourceLogin, String sourceHostname, String target, String notice)
 	{
-		notice = Colors.removeColors(notice);
-		if (!this.m_game.isUser(sourceNick))
-			return;
-		this.checkOp();
-		IrcUser user = this.m_game.getUser(sourceNick);
-		user.setUser(sourceLogin);
-		user.setHost(sourceHostname);
-		if (target.charAt(0) != this.config.getSetting("channel", Settings.channel).charAt(0))
-		{
-			this.m_game.onMessage(user, notice.substring(1), false);
-			return;
-		}
-		String chars = this.config.getSetting("cmdChar", Settings.cmdChar);
-		for (int i = 0; i < chars.length(); ++i)
-			if (notice.charAt(0) == chars.charAt(i))
+		Game channelGame = this.getGame(target);
+		String text = Colors.removeColors(notice);
+		Consumer<Game> task = (game) -> {
+			if (!game.isUser(sourceNick))
+				return;
+			this.checkOp(game);
+			IrcUser user = game.getUser(sourceNick);
+			user.setUser(sourceLogin);
+			user.setHost(sourceHostname);
+			if (channelGame == null)
 			{
-				this.m_game.onMessage(user, notice.substring(1), true);
+				this.forward(game, user, text.substring(1), false);
 				return;
 			}
+			if (text.length() > 0 && game.getSettings().getSnapshot().isCmdChar(text.charAt(0)))
+				this.forward(game, user, text.substring(1), true);
+		};
+		if (channelGame == null)
+			this.executePrivate(sourceNick, task);
+		else
+			channelGame.execute(() -> task.accept(channelGame));
 	}
 
 	@Override
 	protected void onOp(String channel, String sourceNick, String sourceLogin, String sourceHostname, String recipient)
 	{
-		if (this.m_game.isUser(sourceNick))
-		{
-			IrcUser user = this.m_game.getUser(sourceNick);
-			user.setHost(sourceHostname);
-			user.setUser(sourceLogin);
-		}
-		if (!this.m_game.isUser(recipient))
+		Game game = this.getGame(channel);
+		if (game == null)
 			return;
-		this.m_game.getUser(recipient).onOpChange(true);
-		this.checkOp();
+		game.execute(() -> {
+			if (game.isUser(sourceNick))
+			{
+				IrcUser user = game.getUser(sourceNick);
+				user.setHost(sourceHostname);
+				user.setUser(sourceLogin);
+			}
+			if (!game.isUser(recipient))
+				return;
+			game.getUser(recipient).onOpChange(true);
+			this.checkOp(game);
+		});
 	}
 
 	@Override
 	protected void onPart(String channel, String sender, String login, String hostname)
 	{
-		this.checkOp();
-		this.m_game.onQuit(sender);
+		Game game = this.getGame(channel);
+		if (game == null)
+			return;
+		game.execute(() -> {
+			this.checkOp(game);
+			game.onQuit(sender);
+		});
 	}
 
 	@Override
 	protected void onPrivateMessage(String sender, String login, String hostname, String message)
 	{
-		this.checkOp();
-		message = Colors.removeColors(message);
-		if (!this.m_game.isUser(sender))
-			return;
-		IrcUser user = this.m_game.getUser(sender);
-		user.setUser(login);
-		user.setHost(hostname);
-		this.m_game.onMessage(user, message.substring(1), false); // Private, so
-																	// don't
-																	// wait for
-																	// cmd char.
+		String text = Colors.removeColors(message);
+		this.executePrivate(sender, (game) -> {
+			this.checkOp(game);
+			if (!game.isUser(sender))
+				return;
+			IrcUser user = game.getUser(sender);
+			user.setUser(login);
+			user.setHost(hostname);
+			this.forward(game, user, text.substring(1), false); // Private, so
+															// don't wait for
+															// cmd char.
+		});
 	}
 
 	@Override
 	protected void onQuit(String sourceNick, String sourceLogin, String sourceHostname, String reason)
 	{
-		this.checkOp();
-		if (reason.substring(0, 5).matches("Quit:"))
-			this.m_game.onQuit(sourceNick);
-		else
-			this.m_game.onPart(sourceNick);
+		boolean isQuit = reason.substring(0, 5).matches("Quit:");
+		for (Game game : this.m_games.values())
+			game.execute(() -> {
+				this.checkOp(game);
+				if (isQuit)
+					game.onQuit(sourceNick);
+				else
+					game.onPart(sourceNick);
+			});
 	}
 
 	@Override
 	protected void onRemoveModerated(String channel, String sourceNick, String sourceLogin, String sourceHostname)
 	{
-		this.checkOp();
-		if (this.m_game.isPlayer(sourceNick))
-		{
-			IrcUser user = this.m_game.getUser(sourceNick);
-			user.setHost(sourceHostname);
-			user.setUser(sourceLogin);
-		}
-		if (!sourceNick.matches(this.getName()))
-			this.setMode(channel, "+m");
+		Game game = this.getGame(channel);
+		if (game == null)
+			return;
+		game.execute(() -> {
+			this.checkOp(game);
+			if (game.isPlayer(sourceNick))
+			{
+				IrcUser user = game.getUser(sourceNick);
+				user.setHost(sourceHostname);
+				user.setUser(sourceLogin);
+			}
+			if (!sourceNick.matches(this.getName()))
+				this.setMode(channel, "+m");
+		});
+	}
+
+	/**
+	 * Reads the target limit for PRIVMSG and NOTICE out of the server's
+	 * ISUPPORT lines, so identical messages can share a line.
+	 */
+	@Override
+	protected void onServerResponse(int code, String response)
+	{
+		if (code != 5)
+			return;
+		String[] tokens = response.split(" ");
+		for (int i = 0; i < tokens.length; ++i)
+			try
+			{
+				if (tokens[i].startsWith("MAXTARGETS="))
+					this.m_outbound.setMaxTargets(Integer.parseInt(tokens[i].substring(11)));
+				else if (tokens[i].startsWith("TARGMAX="))
+				{
+					String[] limits = tokens[i].substring(8).split(",");
+					for (int j = 0; j < limits.length; ++j)
+						if (limits[j].startsWith("PRIVMSG:"))
+						{
+							String limit = limits[j].substring(8);
+							this.m_outbound.setMaxTargets(limit.length() == 0 ? 8 : Math.min(8, Integer.parseInt(limit)));
+						}
+				}
+			} catch (NumberFormatException e)
+			{
+				e.printStackTrace();
+			}
 	}
 
 	@Override
 	protected void onSetModerated(String channel, String sourceNick, String sourceLogin, String sourceHostname)
 	{
-		this.checkOp();
-		if (this.m_game.isPlayer(sourceNick))
-		{
-			IrcUser user = this.m_game.getUser(sourceNick);
-			user.setHost(sourceHostname);
-			user.setUser(sourceLogin);
-		}
-		if (!sourceNick.matches(this.getName()))
-			this.setMode(channel, "-m");
+		Game game = this.getGame(channel);
+		if (game == null)
+			return;
+		game.execute(() -> {
+			this.checkOp(game);
+			if (game.isPlayer(sourceNick))
+			{
+				IrcUser user = game.getUser(sourceNick);
+				user.setHost(sourceHostname);
+				user.setUser(sourceLogin);
+			}
+			if (!sourceNick.matches(this.getName()))
+				this.setMode(channel, "-m");
+		});
 	}
 
 	@Override
 	protected void onUserList(String channel, User[] users)
 	{
-		for (int i = 0; i < users.length; ++i)
-			if (!this.m_game.isUser(users[i].getNick()))
-				this.m_game.onJoin(new IrcUser(this.m_game, users[i]), true);
+		Game game = this.getGame(channel);
+		if (game == null)
+			return;
+		game.execute(() -> {
+			for (int i = 0; i < users.length; ++i)
+				if (!game.isUser(users[i].getNick()))
+					game.onJoin(new IrcUser(game, users[i]), true);
+		});
 	}
 
 	@Override
 	protected void onVoice(String channel, String sourceNick, String sourceLogin, String sourceHostname, String recipient)
 	{
-		this.checkOp();
-		if (this.m_game.isUser(sourceNick))
-		{
-			IrcUser user = this.m_game.getUser(sourceNick);
-			user.setHost(sourceHostname);
-			user.setUser(sourceLogin);
-		}
-		if (!this.m_game.isUser(recipient))
+		Game game = this.getGame(channel);
+		if (game == null)
 			return;
-		this.m_game.getUser(recipient).onVoiceChange(true);
-		if (!this.m_game.isPlayer(recipient))
-			this.deVoice(this.config.getSetting("channel", Settings.channel), recipient);
+		game.execute(() -> {
+			this.checkOp(game);
+			if (game.isUser(sourceNick))
+			{
+				IrcUser user = game.getUser(sourceNick);
+				user.setHost(sourceHostname);
+				user.setUser(sourceLogin);
+			}
+			if (!game.isUser(recipient))
+				return;
+			game.getUser(recipient).onVoiceChange(true);
+			if (!game.isPlayer(recipient))
+				this.deVoice(game.getChannel(), recipient);
+		});
+	}
+
+	/**
+	 * Queues a CTCP ACTION to be sent.
+	 */
+	@Override
+	public void queueAction(String target, String message, int priority)
+	{
+		this.m_outbound.addAction(target, message, priority);
+	}
+
+	/**
+	 * Queues a message to be sent. Game output should go through here rather
+	 * than {@link #sendMessage} so that it is paced and joined up with the rest
+	 * of the game's output.
+	 *
+	 * @param target
+	 *            The channel or nick to send to.
+	 * @param message
+	 *            The message.
+	 * @param priority
+	 *            The {@link OutboundQueue} lane to send in.
+	 */
+	@Override
+	public void queueMessage(String target, String message, int priority)
+	{
+		this.m_outbound.addMessage(target, message, priority);
+	}
+
+	/**
+	 * Queues a message for several targets. The copies are queued together,
+	 * so they go out as multi-target lines where the server allows it.
+	 */
+	@Override
+	public void queueMessage(String[] targets, String message, int priority)
+	{
+		this.m_outbound.addMessage(targets, message, priority);
+	}
+
+	/**
+	 * Queues a notice to be sent.
+	 */
+	@Override
+	public void queueNotice(String target, String message, int priority)
+	{
+		this.m_outbound.addNotice(target, message, priority);
 	}
 
+	/**
+	 * Queues a notice for several targets.
+	 */
+	@Override
+	public void queueNotice(String[] targets, String message, int priority)
+	{
+		this.m_outbound.addNotice(targets, message, priority);
+	}
+
+	/**
+	 * Reads console input until it is closed. Console commands, raw IRC
+	 * commands and chat are all run on the primary game's lane, like
+	 * everything else that touches the game.
+	 */
 	@Override
 	public void run()
 	{
 		Scanner input = new Scanner(System.in);
-		boolean found = false;
 
-		while (true)
+		while (input.hasNextLine())
 			try
 			{
-				if (System.in.available() == 0)
-					continue;
-				found = false;
 				String str = input.nextLine();
-				if (str.charAt(0) == '?' && str.length() > 1)
-				{ // Console command.
-					for (int i = 0; i < this.m_console.length; ++i)
-					{
-						String[] aliases = this.m_console[i].getAliases();
-						for (int j = 0; j < aliases.length; ++j)
-							if (str.substring(1).startsWith(aliases[j]) && !found)
-							{
-								found = true;
-								String args = "";
-								if (str.length() > aliases[j].length() + 2)
-									args = str.substring(aliases[j].length() + 2);
-								this.m_console[i].onUse(aliases[j], args);
-							}
-					}
-					if (!found)
-						System.err.println("Unknown command.");
-				} else if (str.charAt(0) == '/') // IRC command.
-					this.m_game.dispatch(str.substring(1));
-				else
-					this.m_game.say(str);
+				if (str.length() == 0)
+					continue;
+				this.m_primary.execute(() -> this.console(str));
 			} catch (Throwable e)
 			{
 				e.printStackTrace();
 			}
+		while (true) // Keep hosting once the console is gone.
+			try
+			{
+				Thread.sleep(Long.MAX_VALUE);
+			} catch (InterruptedException e)
+			{
+				return;
+			}
 	}
 }
@@ -1,16 +1,12 @@
 package werewolf.command;
 
-import java.util.Date;
-
 import werewolf.Game;
 import werewolf.IrcUser;
-import werewolf.Settings;
 import werewolf.define.Command;
 
 public class Ping implements Command
 {
-	Game			m_game;
-	private long	lastUse	= 0;
+	Game	m_game;
 
 	public Ping(Game game)
 	{
@@ -24,7 +20,7 @@ public class Ping implements Command
 			return;
 		if (this.m_game.getPhase() == 0)
 		{
-			if (this.m_game.getSettings().getSetting("pingRate", Settings.pingRate) * 1000 + this.lastUse <= new Date().getTime())
+			if (this.m_game.getLimits().allow(this, Ping.class, 1, this.m_game.getSettings().getSnapshot().pingRate * 1000L, System.currentTimeMillis()))
 			{
 				String output = "PING!";
 				IrcUser[] users = this.m_game.getUsers();
@@ -42,7 +38,6 @@ public class Ping implements Command
 				}
 				if (output.length() > 6)
 					this.m_game.say(output);
-				this.lastUse = new Date().getTime();
 			} else
 				caller.message("This command is rate-limited. Try again later.", isChannel);
 		} else
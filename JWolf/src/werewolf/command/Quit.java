@@ -21,11 +21,11 @@ public class Quit implements Command
 			caller.replyTo("You are not currently playing.", isChannel);
 		else if (this.m_game.getPhase() == 0 || !this.m_game.getRoleset().showRoles())
 		{
-			this.m_game.say(Game.chooseMessage(Messages.msg_quit, caller.getNick()));
+			this.m_game.say(this.m_game.chooseMessage(Messages.msg_quit, caller.getNick()));
 			caller.makeUser();
 		} else
 		{
-			this.m_game.say(Game.chooseMessage(Messages.msg_quit, caller.getNick()) + " He was the " + Game.bold(caller.getRole().name()));
+			this.m_game.say(this.m_game.chooseMessage(Messages.msg_quit, caller.getNick()) + " He was the " + Game.bold(caller.getRole().name()));
 			caller.makeUser();
 		}
 	}
@@ -2,7 +2,9 @@ package werewolf.command;
 
 import werewolf.Game;
 import werewolf.IrcUser;
+import werewolf.SettingsSnapshot;
 import werewolf.define.Command;
+import werewolf.util.VoteTally;
 
 public class Vote implements Command
 {
@@ -16,14 +18,35 @@ public class Vote implements Command
 	@Override
 	public void call(IrcUser caller, String command, String arguments, boolean isChannel)
 	{
-
+		String target = arguments.trim();
+		SettingsSnapshot config = this.m_game.getSettings().getSnapshot();
+		if (!caller.isPlayer())
+			caller.replyTo("You are not currently playing.", isChannel);
+		else if (this.m_game.getPhase() != 3)
+			caller.replyTo("You can only vote during the day.", isChannel);
+		else if (command.equals("votes") || (target.isEmpty() && !command.equals("unvote")))
+			caller.replyTo(this.tally(config.trueTally), isChannel);
+		else if (config.lockType == -3 && this.m_game.getVotes().getVote(caller) != null)
+			caller.replyTo("Your vote is locked.", isChannel);
+		else if (command.equals("unvote"))
+		{
+			if (this.m_game.vote(caller, null))
+				this.m_game.say(Game.bold(caller.getNick()) + " has withdrawn their vote.");
+		} else
+		{
+			IrcUser voted = this.m_game.getPlayer(target, true);
+			if (voted == null)
+				caller.replyTo(Game.bold(target) + " is not playing.", isChannel);
+			else if (this.m_game.vote(caller, voted))
+				this.m_game.say(Game.bold(caller.getNick()) + " votes to lynch " + Game.bold(voted.getNick()) + ".");
+		}
 	}
 
 	@Override
 	public String[] getAliases()
 	{
 		String[] result =
-		{ "vote", "lynch" };
+		{ "vote", "lynch", "unvote", "votes" };
 		return result;
 	}
 
@@ -31,12 +54,39 @@ public class Vote implements Command
 	public String[] getCommands()
 	{
 		return new String[]
-		{ "vote" };
+		{ "vote", "unvote", "votes" };
 	}
 
 	@Override
 	public void help(werewolf.IrcUser caller, String command, String arguments, boolean isChannel)
 	{
+		if (command.equals("unvote"))
+			caller.replyTo("Unvote - Withdraws your lynch vote. Only usable by players during the day.", isChannel);
+		else if (command.equals("votes"))
+			caller.replyTo("Votes - Shows who has been voted for so far today.", isChannel);
+		else
+			caller.replyTo("Vote <player> - Votes to lynch a player, replacing any earlier vote. Only usable by players during the day.", isChannel);
+	}
 
+	/**
+	 * @param real
+	 *            True to show each player's weighted votes rather than their
+	 *            number of voters.
+	 * @return Today's votes, from the most voted for down.
+	 */
+	private String tally(boolean real)
+	{
+		VoteTally votes = this.m_game.getVotes();
+		IrcUser[] ranking = votes.getRanking(real);
+		if (ranking.length == 0)
+			return "Nobody has been voted for yet.";
+		StringBuilder out = new StringBuilder("Votes: ");
+		for (int i = 0; i < ranking.length; ++i)
+		{
+			if (i > 0)
+				out.append(", ");
+			out.append(ranking[i].getNick()).append(" (").append(real ? votes.getVotes(ranking[i]) : votes.getVoters(ranking[i])).append(')');
+		}
+		return out.toString();
 	}
 }
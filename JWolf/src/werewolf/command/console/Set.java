@@ -40,19 +40,19 @@ public class Set implements ConsoleCommand
 
 		if (args.startsWith("nick"))
 		{
-			result = JOptionPane.showInputDialog(null, "Enter Nickname:", this.m_game.getSettings().getSetting("nick", Settings.nick));
+			result = JOptionPane.showInputDialog(null, "Enter Nickname:", this.m_bot.getSettings().getSetting("nick", Settings.nick));
 			if (result != null)
-				this.m_game.getSettings().setSetting("nick", result);
+				this.m_bot.getSettings().setSetting("nick", result);
 		} else if (args.startsWith("network"))
 		{
-			result = JOptionPane.showInputDialog(null, "Enter IRC Network:", this.m_game.getSettings().getSetting("network", Settings.network));
+			result = JOptionPane.showInputDialog(null, "Enter IRC Network:", this.m_bot.getSettings().getSetting("network", Settings.network));
 			if (result != null)
-				this.m_game.getSettings().setSetting("network", result);
+				this.m_bot.getSettings().setSetting("network", result);
 		} else if (args.startsWith("channel"))
 		{
-			result = JOptionPane.showInputDialog(null, "Enter Channel Name:", this.m_game.getSettings().getSetting("channel", Settings.channel));
+			result = JOptionPane.showInputDialog(null, "Enter Channel Name:", this.m_bot.getSettings().getSetting("channel", Settings.channel));
 			if (result != null)
-				this.m_game.getSettings().setSetting("channel", result);
+				this.m_bot.getSettings().setSetting("channel", result);
 		} else
 			System.err.println("Unknown setting: " + args);
 	}
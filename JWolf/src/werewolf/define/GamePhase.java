@@ -2,7 +2,35 @@ package werewolf.define;
 
 import werewolf.Game;
 
+/**
+ * A phase of a running game. Phases announce themselves and arm the game's
+ * {@link werewolf.phase.PhaseTimer PhaseTimer} when started, and resolve any
+ * actions taken during them when the timer runs out or the phase is ended
+ * early.
+ */
 public interface GamePhase
 {
+	/**
+	 * Resolves the phase.
+	 *
+	 * @param game
+	 *            The game the phase belongs to.
+	 * @return The phase that should follow this one, or null if the game
+	 *         should return to setup.
+	 */
+	public GamePhase end(Game game);
+
+	/**
+	 * @return The phase number reported by {@link werewolf.Game#getPhase()}.
+	 *         1=Night, 2=Dawn, 3=Day, 4=Dusk.
+	 */
+	public int getId();
+
+	/**
+	 * Begins the phase. Called once when the game enters it.
+	 *
+	 * @param game
+	 *            The game the phase belongs to.
+	 */
 	public void start(Game game);
 }
@@ -21,8 +21,9 @@ public interface Interactable extends Command
 	public void assigned();
 
 	/**
-	 * Performs any block actions by calling the {@link #onBlocked()}function of
-	 * any affected players.
+	 * Submits any block actions to the game's
+	 * {@link werewolf.util.NightResolver#block NightResolver}, which calls the
+	 * {@link #onBlocked()} function of any affected players.
 	 */
 	public void blockTrigger();
 
@@ -44,8 +45,8 @@ public interface Interactable extends Command
 	public void infectBlossom(Role conversion, IrcUser user);
 
 	/**
-	 * Performs any infect actions by calling the {@link #onInfect} function of
-	 * any affected players.
+	 * Submits any infect actions to the game's
+	 * {@link werewolf.util.NightResolver#infect NightResolver}.
 	 */
 	public void infectTrigger();
 
@@ -66,7 +67,8 @@ public interface Interactable extends Command
 	public boolean killHold();
 
 	/**
-	 * Performs any kills the object may have.
+	 * Submits any kills the object may have to the game's
+	 * {@link werewolf.util.NightResolver#kill NightResolver}.
 	 */
 	public void killTrigger();
 
@@ -122,12 +124,14 @@ public interface Interactable extends Command
 	public int peekClass();
 
 	/**
-	 * Performs any peeking actions.
+	 * Submits any peeking actions to the game's
+	 * {@link werewolf.util.NightResolver#peek NightResolver}.
 	 */
 	public void peekTrigger(PeekMod additions);
 
 	/**
-	 * Perfoms any protection actions for this role.
+	 * Submits any protection actions for this role to the game's
+	 * {@link werewolf.util.NightResolver#protect NightResolver}.
 	 */
 	public void protectTrigger();
 
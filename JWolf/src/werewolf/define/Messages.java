@@ -24,8 +24,10 @@ public interface Messages
 	public static final String[]	msg_nightMulti		=
 														{};
 
+	public static final String[]	msg_lynchNone		=
+														{ "The village could not agree on anyone to lynch." };
 	public static final String[]	msg_lynchHidden		=
-														{};
+														{ "The village has lynched " + Game.bold("[1]") + "." };
 	public static final String[]	msg_lynchWolf		=
 														{};
 	public static final String[]	msg_lynchMafia		=
@@ -37,6 +39,11 @@ public interface Messages
 	public static final String[]	msg_lynchVillage	=
 														{};
 
+	public static final String[]	msg_win				=
+														{ Game.bold("The [1] team has won the game!") };
+	public static final String[]	msg_draw			=
+														{ Game.bold("No team is left standing. The game is a draw.") };
+
 	public static final String[]	msg_nightWarning	=
 														{ Game.bold("The sun slowly rises over the village. There are [1] seconds left before night can end!") };
 	public static final String[]	msg_nightEnding		=
@@ -0,0 +1,59 @@
+package werewolf.define;
+
+import java.util.concurrent.Executor;
+
+/**
+ * The connection a game talks through. {@link werewolf.WerewolfHost
+ * WerewolfHost} carries games over IRC, while the simulation harness in
+ * {@link werewolf.sim} stands in for it so whole games can be played in memory.
+ * <P>
+ * Output is queued rather than sent, with a priority lane taken from
+ * {@link werewolf.util.OutboundQueue OutboundQueue}.
+ */
+public interface Transport
+{
+	public void deOp(String channel, String nick);
+
+	public void deVoice(String channel, String nick);
+
+	/**
+	 * @return The nick the bot is using.
+	 */
+	public String getNick();
+
+	/**
+	 * @return The executor every game's lane runs on.
+	 */
+	public Executor getWorkers();
+
+	public void kick(String channel, String nick);
+
+	public void kick(String channel, String nick, String reason);
+
+	public void op(String channel, String nick);
+
+	public void queueAction(String target, String message, int priority);
+
+	public void queueMessage(String target, String message, int priority);
+
+	/**
+	 * Queues the same message to several targets at once, so it can go out
+	 * in as few lines as the server allows.
+	 */
+	public void queueMessage(String[] targets, String message, int priority);
+
+	public void queueNotice(String target, String message, int priority);
+
+	/**
+	 * Queues the same notice to several targets at once.
+	 */
+	public void queueNotice(String[] targets, String message, int priority);
+
+	public void quitServer();
+
+	public void quitServer(String reason);
+
+	public void sendInvite(String nick, String channel);
+
+	public void voice(String channel, String nick);
+}
@@ -0,0 +1,769 @@
+package werewolf.net;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.LineBasedFrameDecoder;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jibble.pircbot.IrcException;
+import org.jibble.pircbot.NickAlreadyInUseException;
+import org.jibble.pircbot.User;
+
+/**
+ * A non-blocking IRC client built on Netty, in place of
+ * {@link org.jibble.pircbot.PircBot PircBot}. Every client in the process
+ * shares a single event loop thread, so hosting on several servers costs no
+ * extra threads, where PircBot needs an input and an output thread for each
+ * connection.
+ * <P>
+ * Incoming data is split into lines by the pipeline and parsed on the event
+ * loop, which then calls the same protected callbacks PircBot does, with the
+ * same arguments, so a bot moves over by changing what it extends. Callbacks
+ * must not block, since every connection waits on them; {@link #onDisconnect()}
+ * is the exception and runs on a thread of its own, so it may reconnect.
+ * <P>
+ * Outgoing lines are encoded straight into pooled buffers on the sending
+ * thread and queued. One task on the event loop writes however many lines are
+ * queued by the time it runs and flushes them together, so a burst goes out in
+ * as few packets as possible.
+ * Unlike PircBot, sending is never delayed here; pacing is left to
+ * {@link werewolf.util.OutboundQueue OutboundQueue}.
+ */
+public abstract class IrcClient
+{
+	private class Handler extends SimpleChannelInboundHandler<ByteBuf>
+	{
+		private CompletableFuture<Void>	m_registration;
+
+		private Handler(CompletableFuture<Void> registration)
+		{
+			this.m_registration = registration;
+		}
+
+		@Override
+		public void channelInactive(ChannelHandlerContext ctx)
+		{
+			IrcClient.this.closed(ctx.channel(), this.m_registration);
+		}
+
+		@Override
+		protected void channelRead0(ChannelHandlerContext ctx, ByteBuf line)
+		{
+			try
+			{
+				IrcClient.this.handleLine(line.toString(StandardCharsets.UTF_8));
+			} catch (Throwable e)
+			{
+				e.printStackTrace();
+			}
+		}
+
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
+		{
+			IrcClient.this.log("*** " + cause);
+			ctx.close();
+		}
+	}
+
+	/**
+	 * Longest line accepted from the server, excluding the line ending.
+	 */
+	private static final int				MAX_IN		= 8192;
+
+	/**
+	 * Longest line sent to the server, excluding the line ending.
+	 */
+	private static final int				MAX_OUT		= 510;
+
+	private static final long				TIMEOUT		= 60000;
+	private static final String				CHANNELS	= "#&+!";
+	private static final String				PREFIXES	= "~&@%+";
+	private static final Constructor<User>	USER		= IrcClient.userConstructor();
+	private static final EventLoopGroup		LOOP		= new NioEventLoopGroup(1, (task) -> {
+															Thread thread = new Thread(task, "IrcClient");
+															thread.setDaemon(true);
+															return thread;
+														});
+
+	private static boolean isChannel(String target)
+	{
+		return target.length() > 0 && IrcClient.CHANNELS.indexOf(target.charAt(0)) >= 0;
+	}
+
+	private static User newUser(String name)
+	{
+		int nick = 0;
+		while (nick < name.length() - 1 && IrcClient.PREFIXES.indexOf(name.charAt(nick)) >= 0)
+			++nick;
+		try
+		{
+			return IrcClient.USER.newInstance(name.substring(0, nick), name.substring(nick));
+		} catch (ReflectiveOperationException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static Constructor<User> userConstructor()
+	{
+		try
+		{
+			Constructor<User> constructor = User.class.getDeclaredConstructor(String.class, String.class);
+			constructor.setAccessible(true);
+			return constructor;
+		} catch (ReflectiveOperationException e)
+		{
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private String								m_name			= "JWolf";
+	private String								m_nick			= "JWolf";
+	private String								m_login			= "JWolf";
+	private String								m_version		= "JWolf IRC client";
+	private String								m_server		= null;
+	private int									m_port			= -1;
+	private boolean								m_verbose		= false;
+	private volatile Channel					m_channel		= null;
+	private CompletableFuture<Void>				m_registration	= null;
+	private ConcurrentLinkedQueue<ByteBuf>		m_pending		= new ConcurrentLinkedQueue<ByteBuf>();
+	private AtomicBoolean						m_flushing		= new AtomicBoolean(false);
+	private HashMap<String, ArrayList<User>>	m_names			= new HashMap<String, ArrayList<User>>();
+
+	public final void changeNick(String newNick)
+	{
+		this.sendRawLine("NICK " + newNick);
+	}
+
+	private void closed(Channel channel, CompletableFuture<Void> registration)
+	{
+		if (this.m_channel == channel)
+			this.m_channel = null;
+		this.m_names.clear();
+		this.log("*** Disconnected.");
+		if (registration.completeExceptionally(new IOException("Connection closed while logging in.")))
+			return;
+		if (registration.isCompletedExceptionally())
+			return;
+		Thread thread = new Thread(() -> this.onDisconnect(), "IrcClient-disconnect");
+		thread.start();
+	}
+
+	/**
+	 * Connects to a server on the standard port.
+	 *
+	 * @see #connect(String, int)
+	 */
+	public final void connect(String hostname) throws IOException, IrcException
+	{
+		this.connect(hostname, 6667);
+	}
+
+	/**
+	 * Connects to a server and logs in, waiting until the server has welcomed
+	 * the client. Must not be called from a callback other than
+	 * {@link #onDisconnect()}.
+	 *
+	 * @throws IOException
+	 *             If the connection could not be made or was lost while logging
+	 *             in.
+	 * @throws NickAlreadyInUseException
+	 *             If the nick is taken. The connection is closed.
+	 * @throws IrcException
+	 *             If the client is already connected, or the server refused or
+	 *             did not finish the login.
+	 */
+	public final synchronized void connect(String hostname, int port) throws IOException, IrcException
+	{
+		if (this.isConnected())
+			throw new IrcException("Already connected to " + this.m_server + ". Disconnect first.");
+		this.m_server = hostname;
+		this.m_port = port;
+		this.m_nick = this.m_name;
+		CompletableFuture<Void> registration = new CompletableFuture<Void>();
+		this.m_registration = registration;
+
+		Bootstrap bootstrap = new Bootstrap();
+		bootstrap.group(IrcClient.LOOP).channel(NioSocketChannel.class);
+		bootstrap.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+		bootstrap.option(ChannelOption.TCP_NODELAY, true);
+		bootstrap.option(ChannelOption.SO_KEEPALIVE, true);
+		bootstrap.handler(new ChannelInitializer<SocketChannel>()
+		{
+			@Override
+			protected void initChannel(SocketChannel channel)
+			{
+				channel.pipeline().addLast(new LineBasedFrameDecoder(IrcClient.MAX_IN, true, false), new Handler(registration));
+			}
+		});
+		ChannelFuture future = bootstrap.connect(hostname, port).awaitUninterruptibly();
+		if (!future.isSuccess())
+		{
+			registration.cancel(false);
+			throw new IOException("Could not connect to " + hostname + ":" + port + ".", future.cause());
+		}
+		this.m_channel = future.channel();
+		this.log("*** Connected to server.");
+		this.sendRawLine("NICK " + this.m_nick);
+		this.sendRawLine("USER " + this.m_login + " 8 * :" + this.m_version);
+
+		Throwable failure = null;
+		try
+		{
+			registration.get(IrcClient.TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (ExecutionException e)
+		{
+			failure = e.getCause();
+		} catch (TimeoutException e)
+		{
+			failure = new IrcException("The server did not finish logging in.");
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			failure = new IOException("Interrupted while logging in.");
+		}
+		if (failure != null)
+		{
+			registration.cancel(false);
+			this.m_channel = null;
+			future.channel().close().awaitUninterruptibly();
+			if (failure instanceof IrcException)
+				throw (IrcException) failure;
+			throw failure instanceof IOException ? (IOException) failure : new IOException(failure);
+		}
+		this.onConnect();
+	}
+
+	public final void deOp(String channel, String nick)
+	{
+		this.setMode(channel, "-o " + nick);
+	}
+
+	public final void deVoice(String channel, String nick)
+	{
+		this.setMode(channel, "-v " + nick);
+	}
+
+	/**
+	 * Closes the connection without a QUIT. {@link #onDisconnect()} is still
+	 * called.
+	 */
+	public final void disconnect()
+	{
+		Channel channel = this.m_channel;
+		if (channel != null)
+			channel.close();
+	}
+
+	/**
+	 * Writes every pending line and flushes them together. Runs on the event
+	 * loop.
+	 */
+	private void flush(Channel channel)
+	{
+		this.m_flushing.set(false);
+		ByteBuf buffer;
+		while ((buffer = this.m_pending.poll()) != null)
+			channel.write(buffer, channel.voidPromise());
+		channel.flush();
+	}
+
+	public final String getLogin()
+	{
+		return this.m_login;
+	}
+
+	/**
+	 * @return The nick the client asks for when connecting.
+	 */
+	public final String getName()
+	{
+		return this.m_name;
+	}
+
+	/**
+	 * @return The nick the client currently has, which may differ from
+	 *         {@link #getName()} after a nick change.
+	 */
+	public String getNick()
+	{
+		return this.m_nick;
+	}
+
+	public final int getPort()
+	{
+		return this.m_port;
+	}
+
+	public final String getServer()
+	{
+		return this.m_server;
+	}
+
+	public final String getVersion()
+	{
+		return this.m_version;
+	}
+
+	private void handleCtcp(String sender, String login, String hostname, String target, String request)
+	{
+		if (request.startsWith("ACTION "))
+			this.onAction(sender, login, hostname, target, request.substring(7));
+		else if (request.equals("VERSION"))
+			this.sendRawLine("NOTICE " + sender + " :\u0001VERSION " + this.m_version + "\u0001");
+		else if (request.startsWith("PING "))
+			this.sendRawLine("NOTICE " + sender + " :\u0001" + request + "\u0001");
+	}
+
+	/**
+	 * Parses one line from the server and calls the matching callbacks. Runs
+	 * on the event loop.
+	 */
+	private void handleLine(String line)
+	{
+		this.log(line);
+		if (line.startsWith("PING "))
+		{
+			this.sendRawLine("PONG " + line.substring(5));
+			return;
+		}
+
+		String prefix = "";
+		int start = 0;
+		if (line.startsWith(":"))
+		{
+			start = line.indexOf(' ');
+			if (start < 0)
+				return;
+			prefix = line.substring(1, start++);
+		}
+		int end = line.indexOf(' ', start);
+		String command = end < 0 ? line.substring(start) : line.substring(start, end);
+		String rest = end < 0 ? "" : line.substring(end + 1);
+		ArrayList<String> params = new ArrayList<String>();
+		for (int i = 0; i < rest.length();)
+		{
+			if (rest.charAt(i) == ':')
+			{
+				params.add(rest.substring(i + 1));
+				break;
+			}
+			int space = rest.indexOf(' ', i);
+			if (space < 0)
+				space = rest.length();
+			if (space > i)
+				params.add(rest.substring(i, space));
+			i = space + 1;
+		}
+
+		int bang = prefix.indexOf('!');
+		int at = prefix.indexOf('@');
+		String sender = bang > 0 ? prefix.substring(0, bang) : at > 0 ? prefix.substring(0, at) : prefix;
+		String login = bang > 0 && at > bang ? prefix.substring(bang + 1, at) : "";
+		String hostname = at > 0 ? prefix.substring(at + 1) : "";
+
+		if (command.length() == 3 && Character.isDigit(command.charAt(0)) && Character.isDigit(command.charAt(1)) && Character.isDigit(command.charAt(2)))
+		{
+			this.handleNumeric(Integer.parseInt(command), rest, params);
+			return;
+		}
+		String target = params.isEmpty() ? "" : params.get(0);
+		String text = params.size() > 1 ? params.get(params.size() - 1) : "";
+		switch (command)
+		{
+			case "PRIVMSG":
+				if (text.length() > 1 && text.charAt(0) == '\u0001' && text.charAt(text.length() - 1) == '\u0001')
+					this.handleCtcp(sender, login, hostname, target, text.substring(1, text.length() - 1));
+				else if (IrcClient.isChannel(target))
+					this.onMessage(target, sender, login, hostname, text);
+				else
+					this.onPrivateMessage(sender, login, hostname, text);
+				break;
+			case "NOTICE":
+				this.onNotice(sender, login, hostname, target, text);
+				break;
+			case "JOIN":
+				this.onJoin(target, sender, login, hostname);
+				break;
+			case "PART":
+				this.onPart(target, sender, login, hostname);
+				break;
+			case "KICK":
+				this.onKick(target, sender, login, hostname, params.size() > 1 ? params.get(1) : "", params.size() > 2 ? params.get(2) : "");
+				break;
+			case "QUIT":
+				this.onQuit(sender, login, hostname, target);
+				break;
+			case "NICK":
+				if (sender.equalsIgnoreCase(this.m_nick))
+					this.m_nick = target;
+				this.onNickChange(sender, login, hostname, target);
+				break;
+			case "MODE":
+				if (IrcClient.isChannel(target))
+					this.handleMode(target, sender, login, hostname, params);
+				break;
+			case "INVITE":
+				this.onInvite(target, sender, login, hostname, text);
+				break;
+			default:
+				this.onUnknown(line);
+		}
+	}
+
+	private void handleMode(String channel, String sender, String login, String hostname, ArrayList<String> params)
+	{
+		this.onMode(channel, sender, login, hostname, String.join(" ", params.subList(1, params.size())));
+		if (params.size() < 2)
+			return;
+		String modes = params.get(1);
+		int arg = 2;
+		boolean set = true;
+		for (int i = 0; i < modes.length(); ++i)
+		{
+			char mode = modes.charAt(i);
+			if (mode == '+' || mode == '-')
+			{
+				set = mode == '+';
+				continue;
+			}
+			String recipient = null;
+			if ("ovhbkqaeI".indexOf(mode) >= 0 || mode == 'l' && set)
+				recipient = arg < params.size() ? params.get(arg++) : "";
+			if (mode == 'o' && set)
+				this.onOp(channel, sender, login, hostname, recipient);
+			else if (mode == 'o')
+				this.onDeop(channel, sender, login, hostname, recipient);
+			else if (mode == 'v' && set)
+				this.onVoice(channel, sender, login, hostname, recipient);
+			else if (mode == 'v')
+				this.onDeVoice(channel, sender, login, hostname, recipient);
+			else if (mode == 'm' && set)
+				this.onSetModerated(channel, sender, login, hostname);
+			else if (mode == 'm')
+				this.onRemoveModerated(channel, sender, login, hostname);
+		}
+	}
+
+	/**
+	 * Handles a numeric reply. The login finishes on RPL_MYINFO, as it does
+	 * for PircBot, and fails on a taken nick or any other error before then.
+	 * NAMES replies are gathered until their end and passed on together.
+	 *
+	 * @param response
+	 *            Everything after the numeric, as PircBot passes it.
+	 */
+	private void handleNumeric(int code, String response, ArrayList<String> params)
+	{
+		CompletableFuture<Void> registration = this.m_registration;
+		if (registration != null && !registration.isDone())
+		{
+			if (code == 1 && !params.isEmpty())
+				this.m_nick = params.get(0);
+			else if (code == 4)
+				registration.complete(null);
+			else if (code == 433)
+				registration.completeExceptionally(new NickAlreadyInUseException(response));
+			else if (code >= 400 && code < 600)
+				registration.completeExceptionally(new IrcException("Could not log into the IRC server: " + response));
+		}
+		if (code == 353 && params.size() >= 3)
+		{
+			String channel = params.get(params.size() - 2).toLowerCase();
+			ArrayList<User> users = this.m_names.get(channel);
+			if (users == null)
+			{
+				users = new ArrayList<User>();
+				this.m_names.put(channel, users);
+			}
+			String[] names = params.get(params.size() - 1).split(" ");
+			for (int i = 0; i < names.length; ++i)
+				if (names[i].length() > 0)
+					users.add(IrcClient.newUser(names[i]));
+		} else if (code == 366 && params.size() >= 2)
+		{
+			ArrayList<User> users = this.m_names.remove(params.get(1).toLowerCase());
+			this.onUserList(params.get(1), users == null ? new User[0] : users.toArray(new User[users.size()]));
+		}
+		this.onServerResponse(code, response);
+	}
+
+	/**
+	 * @return True if the client has a live connection, even if it is still
+	 *         logging in.
+	 */
+	public final boolean isConnected()
+	{
+		Channel channel = this.m_channel;
+		return channel != null && channel.isActive();
+	}
+
+	public final void joinChannel(String channel)
+	{
+		this.sendRawLine("JOIN " + channel);
+	}
+
+	public final void kick(String channel, String nick)
+	{
+		this.kick(channel, nick, "");
+	}
+
+	public final void kick(String channel, String nick, String reason)
+	{
+		this.sendRawLine("KICK " + channel + " " + nick + " :" + reason);
+	}
+
+	/**
+	 * Prints a line with a timestamp if the client is verbose.
+	 */
+	public void log(String line)
+	{
+		if (this.m_verbose)
+			System.out.println(System.currentTimeMillis() + " " + line);
+	}
+
+	protected void onAction(String sender, String login, String hostname, String target, String action)
+	{
+	}
+
+	protected void onConnect()
+	{
+	}
+
+	protected void onDeop(String channel, String sourceNick, String sourceLogin, String sourceHostname, String recipient)
+	{
+	}
+
+	protected void onDeVoice(String channel, String sourceNick, String sourceLogin, String sourceHostname, String recipient)
+	{
+	}
+
+	/**
+	 * Called on a thread of its own once a connection that finished logging
+	 * in has closed, however it closed.
+	 */
+	protected void onDisconnect()
+	{
+	}
+
+	protected void onInvite(String targetNick, String sourceNick, String sourceLogin, String sourceHostname, String channel)
+	{
+	}
+
+	protected void onJoin(String channel, String sender, String login, String hostname)
+	{
+	}
+
+	protected void onKick(String channel, String kickerNick, String kickerLogin, String kickerHostname, String recipientNick, String reason)
+	{
+	}
+
+	protected void onMessage(String channel, String sender, String login, String hostname, String message)
+	{
+	}
+
+	/**
+	 * Called for every channel mode change, before the callbacks for the
+	 * individual modes.
+	 *
+	 * @param mode
+	 *            The modes and their arguments, as sent.
+	 */
+	protected void onMode(String channel, String sourceNick, String sourceLogin, String sourceHostname, String mode)
+	{
+	}
+
+	protected void onNickChange(String oldNick, String login, String hostname, String newNick)
+	{
+	}
+
+	protected void onNotice(String sourceNick, String sourceLogin, String sourceHostname, String target, String notice)
+	{
+	}
+
+	protected void onOp(String channel, String sourceNick, String sourceLogin, String sourceHostname, String recipient)
+	{
+	}
+
+	protected void onPart(String channel, String sender, String login, String hostname)
+	{
+	}
+
+	protected void onPrivateMessage(String sender, String login, String hostname, String message)
+	{
+	}
+
+	protected void onQuit(String sourceNick, String sourceLogin, String sourceHostname, String reason)
+	{
+	}
+
+	protected void onRemoveModerated(String channel, String sourceNick, String sourceLogin, String sourceHostname)
+	{
+	}
+
+	/**
+	 * Called for every numeric reply.
+	 *
+	 * @param response
+	 *            Everything after the numeric, starting with the client's own
+	 *            nick.
+	 */
+	protected void onServerResponse(int code, String response)
+	{
+	}
+
+	protected void onSetModerated(String channel, String sourceNick, String sourceLogin, String sourceHostname)
+	{
+	}
+
+	/**
+	 * Called for any line not handled by another callback.
+	 */
+	protected void onUnknown(String line)
+	{
+	}
+
+	/**
+	 * Called with everyone in a channel once the server has finished listing
+	 * them, normally just after joining.
+	 */
+	protected void onUserList(String channel, User[] users)
+	{
+	}
+
+	protected void onVoice(String channel, String sourceNick, String sourceLogin, String sourceHostname, String recipient)
+	{
+	}
+
+	public final void op(String channel, String nick)
+	{
+		this.setMode(channel, "+o " + nick);
+	}
+
+	public final void partChannel(String channel)
+	{
+		this.sendRawLine("PART " + channel);
+	}
+
+	public final void partChannel(String channel, String reason)
+	{
+		this.sendRawLine("PART " + channel + " :" + reason);
+	}
+
+	public final void quitServer()
+	{
+		this.quitServer("");
+	}
+
+	public final void quitServer(String reason)
+	{
+		this.sendRawLine("QUIT :" + reason);
+	}
+
+	public final void sendAction(String target, String action)
+	{
+		this.sendRawLine("PRIVMSG " + target + " :\u0001ACTION " + action + "\u0001");
+	}
+
+	public final void sendInvite(String nick, String channel)
+	{
+		this.sendRawLine("INVITE " + nick + " :" + channel);
+	}
+
+	public final void sendMessage(String target, String message)
+	{
+		this.sendRawLine("PRIVMSG " + target + " :" + message);
+	}
+
+	public final void sendNotice(String target, String notice)
+	{
+		this.sendRawLine("NOTICE " + target + " :" + notice);
+	}
+
+	/**
+	 * Sends a line straight away, cut to the IRC length limit. Lines are
+	 * written in order from any thread, and a run of lines is flushed
+	 * together. Does nothing if the client is not connected.
+	 */
+	public final void sendRawLine(String line)
+	{
+		Channel channel = this.m_channel;
+		if (channel == null)
+			return;
+		if (line.length() > IrcClient.MAX_OUT)
+			line = line.substring(0, IrcClient.MAX_OUT);
+		ByteBuf buffer = channel.alloc().buffer(line.length() + 2);
+		ByteBufUtil.writeUtf8(buffer, line);
+		buffer.writeByte('\r').writeByte('\n');
+		this.m_pending.add(buffer);
+		if (this.m_flushing.compareAndSet(false, true))
+			channel.eventLoop().execute(() -> this.flush(channel));
+		this.log(">>>" + line);
+	}
+
+	/**
+	 * Sets the login sent when connecting.
+	 */
+	public final void setLogin(String login)
+	{
+		this.m_login = login;
+	}
+
+	public final void setMode(String channel, String mode)
+	{
+		this.sendRawLine("MODE " + channel + " " + mode);
+	}
+
+	/**
+	 * Sets the nick asked for when connecting.
+	 */
+	public final void setName(String name)
+	{
+		this.m_name = name;
+	}
+
+	/**
+	 * Sets whether every line sent and received is printed.
+	 */
+	public final void setVerbose(boolean verbose)
+	{
+		this.m_verbose = verbose;
+	}
+
+	/**
+	 * Sets the real name sent when connecting and the CTCP VERSION reply.
+	 */
+	public final void setVersion(String version)
+	{
+		this.m_version = version;
+	}
+
+	public final void voice(String channel, String nick)
+	{
+		this.setMode(channel, "+v " + nick);
+	}
+}
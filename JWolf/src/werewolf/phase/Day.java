@@ -1,7 +1,9 @@
 package werewolf.phase;
 
 import werewolf.Game;
+import werewolf.SettingsSnapshot;
 import werewolf.define.GamePhase;
+import werewolf.define.Messages;
 
 public class Day implements GamePhase
 {
@@ -10,8 +12,23 @@ public class Day implements GamePhase
 		super();
 	}
 
+	@Override
+	public GamePhase end(Game game)
+	{
+		game.calcDay();
+		return new Night();
+	}
+
+	@Override
+	public int getId()
+	{
+		return 3;
+	}
+
 	@Override
 	public void start(Game game)
 	{
+		SettingsSnapshot config = game.getSettings().getSnapshot();
+		game.getPhaseTimer().start(config.dayTime, 60, config.endRange, Messages.msg_dayWarning, Messages.msg_dayEnding);
 	}
 }
@@ -10,8 +10,22 @@ public class Morning implements GamePhase
 		super();
 	}
 
+	@Override
+	public GamePhase end(Game game)
+	{
+		return new Day();
+	}
+
+	@Override
+	public int getId()
+	{
+		return 2;
+	}
+
 	@Override
 	public void start(Game game)
 	{
+		game.displayResults();
+		game.getPhaseTimer().start(0, 0, 0, null, null);
 	}
 }
@@ -1,7 +1,9 @@
 package werewolf.phase;
 
 import werewolf.Game;
+import werewolf.SettingsSnapshot;
 import werewolf.define.GamePhase;
+import werewolf.define.Messages;
 
 public class Night implements GamePhase
 {
@@ -10,8 +12,23 @@ public class Night implements GamePhase
 		super();
 	}
 
+	@Override
+	public GamePhase end(Game game)
+	{
+		game.calcNight();
+		return new Morning();
+	}
+
+	@Override
+	public int getId()
+	{
+		return 1;
+	}
+
 	@Override
 	public void start(Game game)
 	{
+		SettingsSnapshot config = game.getSettings().getSnapshot();
+		game.getPhaseTimer().start(config.nightTime, 30, config.endRange, Messages.msg_nightWarning, Messages.msg_nightEnding);
 	}
 }
@@ -0,0 +1,186 @@
+package werewolf.phase;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import werewolf.Game;
+
+/**
+ * Times the phases of a single game. All games share one small scheduler pool,
+ * so a game waiting out a phase holds no thread of its own. Every timer armed
+ * for a phase is cancelled when the phase ends, whether it ran out or was
+ * ended early.
+ * <P>
+ * A timer that goes off only queues its work on the game's lane, and the timer
+ * is only used from that lane, so it needs no locking. A timer cancelled after
+ * its work was queued finds the phase has moved on and does nothing.
+ */
+public class PhaseTimer
+{
+	private static final ScheduledThreadPoolExecutor	SCHEDULER;
+
+	static
+	{
+		SCHEDULER = new ScheduledThreadPoolExecutor(2, new ThreadFactory()
+		{
+			private int	m_count	= 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable task)
+			{
+				Thread thread = new Thread(task, "PhaseTimer-" + ++this.m_count);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		PhaseTimer.SCHEDULER.setRemoveOnCancelPolicy(true);
+	}
+
+	private Game						m_game;
+	private int							m_generation	= 0;
+	private ScheduledFuture<?>			m_warning;
+	private ScheduledFuture<?>			m_ending;
+	private boolean						m_manual		= false;
+
+	public PhaseTimer(Game game)
+	{
+		this.m_game = game;
+	}
+
+	/**
+	 * Cancels any timers armed for the current phase.
+	 */
+	public void cancel()
+	{
+		++this.m_generation;
+		if (this.m_warning != null)
+			this.m_warning.cancel(false);
+		if (this.m_ending != null)
+			this.m_ending.cancel(false);
+		this.m_warning = null;
+		this.m_ending = null;
+	}
+
+	/**
+	 * Ends the current phase as soon as possible, skipping any remaining
+	 * warnings.
+	 */
+	public void endEarly()
+	{
+		this.cancel();
+		if (this.m_manual)
+			return;
+		this.m_ending = this.schedule(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				PhaseTimer.this.m_game.endPhase();
+			}
+		}, 0);
+	}
+
+	/**
+	 * Turns timing off, so phases only end when {@link Game#endPhase()} is
+	 * called directly. Used by simulations to play phases out without waiting.
+	 *
+	 * @param manual
+	 *            True to stop arming timers.
+	 */
+	public void setManual(boolean manual)
+	{
+		this.m_manual = manual;
+		if (manual)
+			this.cancel();
+	}
+
+	private ScheduledFuture<?> schedule(final Runnable task, long delay)
+	{
+		final int generation = this.m_generation;
+		final Runnable due = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if (generation != PhaseTimer.this.m_generation)
+					return;
+				try
+				{
+					task.run();
+				} catch (Throwable e)
+				{
+					e.printStackTrace();
+					PhaseTimer.this.m_game.errorLog(e.toString());
+				}
+			}
+		};
+		return PhaseTimer.SCHEDULER.schedule(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				PhaseTimer.this.m_game.execute(due);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Arms the timers for a new phase. The phase lasts <code>length</code>
+	 * seconds plus a random extra of up to <code>endRange</code> seconds, after
+	 * which {@link Game#endPhase()} is called.
+	 *
+	 * @param length
+	 *            The minimum length of the phase, in seconds.
+	 * @param warning
+	 *            How many seconds before the minimum length the warning
+	 *            message is sent.
+	 * @param endRange
+	 *            The maximum number of seconds the phase may run over.
+	 * @param warningMessages
+	 *            Messages to choose the warning from, with the number of
+	 *            seconds left as [1]. Null for no warning.
+	 * @param endingMessages
+	 *            Messages to choose from once the phase may end at any time.
+	 *            Null for no message.
+	 */
+	public void start(int length, final int warning, int endRange, final String[] warningMessages, final String[] endingMessages)
+	{
+		this.cancel();
+		if (this.m_manual)
+			return;
+		final long extra = (long) (this.m_game.getTimerRandom().nextDouble() * endRange * 1000);
+		if (warningMessages != null && warning > 0 && warning < length)
+			this.m_warning = this.schedule(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					PhaseTimer.this.m_game.say(PhaseTimer.this.m_game.chooseMessage(warningMessages, Integer.toString(warning)));
+				}
+			}, 1000L * (length - warning));
+		this.m_ending = this.schedule(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if (extra < 1000)
+				{
+					PhaseTimer.this.m_game.endPhase();
+					return;
+				}
+				if (endingMessages != null)
+					PhaseTimer.this.m_game.say(PhaseTimer.this.m_game.chooseMessage(endingMessages));
+				PhaseTimer.this.m_ending = PhaseTimer.this.schedule(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						PhaseTimer.this.m_game.endPhase();
+					}
+				}, extra);
+			}
+		}, 1000L * length);
+	}
+}
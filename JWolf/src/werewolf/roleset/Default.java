@@ -43,7 +43,7 @@ public class Default implements Roleset
 	@Override
 	public String name()
 	{
-		return null;
+		return this.name;
 	}
 
 	@Override
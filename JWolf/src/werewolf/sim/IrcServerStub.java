@@ -0,0 +1,599 @@
+package werewolf.sim;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.LineBasedFrameDecoder;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small IRC server for testing the bot on loopback. It knows just enough of
+ * the protocol for the bot and a crowd of test clients to talk: logging in,
+ * PING, JOIN with NAMES, PART, QUIT, NICK, PRIVMSG and NOTICE to channels,
+ * nicks or lists of both, channel MODE for ops, voices and moderation, and
+ * KICK. The first user in a channel gets ops. There are no services, bans,
+ * flood limits or server links.
+ * <P>
+ * Every connection is served from a single event loop thread, which owns all
+ * of the server's state, so nothing is locked. A line sent to a whole channel
+ * is encoded once and the same pooled buffer is shared by every copy, and
+ * output is flushed once per pass of the loop rather than once per line.
+ */
+public class IrcServerStub
+{
+	private static class Client
+	{
+		private Channel			m_channel;
+		private String			m_nick	= null;
+		private String			m_user	= null;
+		private boolean			m_ready	= false;
+		private HashSet<Room>	m_rooms	= new HashSet<Room>();
+
+		private Client(Channel channel)
+		{
+			this.m_channel = channel;
+		}
+
+		private String prefix()
+		{
+			return ":" + this.m_nick + "!" + this.m_user + "@" + IrcServerStub.HOST;
+		}
+	}
+
+	private static class Room
+	{
+		private String							m_name;
+		private LinkedHashMap<String, Client>	m_members	= new LinkedHashMap<String, Client>();
+		private HashSet<Client>					m_ops		= new HashSet<Client>();
+		private HashSet<Client>					m_voiced	= new HashSet<Client>();
+		private boolean							m_moderated	= false;
+
+		private Room(String name)
+		{
+			this.m_name = name;
+		}
+	}
+
+	private class Handler extends SimpleChannelInboundHandler<ByteBuf>
+	{
+		private Client	m_client;
+
+		@Override
+		public void channelActive(ChannelHandlerContext ctx)
+		{
+			this.m_client = new Client(ctx.channel());
+		}
+
+		@Override
+		public void channelInactive(ChannelHandlerContext ctx)
+		{
+			IrcServerStub.this.quit(this.m_client, "Quit: Connection closed");
+		}
+
+		@Override
+		protected void channelRead0(ChannelHandlerContext ctx, ByteBuf line)
+		{
+			++IrcServerStub.this.m_linesIn;
+			try
+			{
+				IrcServerStub.this.handle(this.m_client, line.toString(StandardCharsets.UTF_8));
+			} catch (Throwable e)
+			{
+				e.printStackTrace();
+			}
+		}
+
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
+		{
+			ctx.close();
+		}
+	}
+
+	private static final String	SERVER		= "stub.local";
+	private static final String	HOST		= "127.0.0.1";
+	private static final int	MAX_LINE	= 512;
+	private static final int	MAX_NAMES	= 400;
+
+	private static boolean isChannel(String target)
+	{
+		return target.startsWith("#") || target.startsWith("&");
+	}
+
+	private EventLoopGroup					m_loop		= new NioEventLoopGroup(1, (task) -> {
+															Thread thread = new Thread(task, "IrcServerStub");
+															thread.setDaemon(true);
+															return thread;
+														});
+	private Channel							m_server;
+	private HashMap<String, Client>			m_clients	= new HashMap<String, Client>();
+	private HashMap<String, Room>			m_rooms		= new HashMap<String, Room>();
+	private HashSet<Channel>				m_dirty		= new HashSet<Channel>();
+	private long							m_linesIn	= 0;
+	private long							m_linesOut	= 0;
+
+	/**
+	 * Runs a task on the server's thread and waits for its result.
+	 */
+	private <T> T call(Callable<T> task)
+	{
+		try
+		{
+			return this.m_loop.submit(task).get();
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e)
+		{
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	private ByteBuf encode(ByteBuf buffer, String line)
+	{
+		if (line.length() > IrcServerStub.MAX_LINE - 2)
+			line = line.substring(0, IrcServerStub.MAX_LINE - 2);
+		ByteBufUtil.writeUtf8(buffer, line);
+		return buffer.writeByte('\r').writeByte('\n');
+	}
+
+	private void flush()
+	{
+		for (Channel channel : this.m_dirty)
+			channel.flush();
+		this.m_dirty.clear();
+	}
+
+	/**
+	 * @return The number of lines received from every client.
+	 */
+	public long getLinesIn()
+	{
+		return this.call(() -> this.m_linesIn);
+	}
+
+	/**
+	 * @return The number of lines sent to every client, counting each copy of
+	 *         a line sent to a channel.
+	 */
+	public long getLinesOut()
+	{
+		return this.call(() -> this.m_linesOut);
+	}
+
+	/**
+	 * @return The nicks in a channel, or an empty list if it does not exist.
+	 */
+	public ArrayList<String> getMembers(String channel)
+	{
+		return this.call(() -> {
+			ArrayList<String> members = new ArrayList<String>();
+			Room room = this.m_rooms.get(channel.toLowerCase());
+			if (room != null)
+				for (Client member : room.m_members.values())
+					members.add(member.m_nick);
+			return members;
+		});
+	}
+
+	private void handle(Client client, String line)
+	{
+		if (line.startsWith(":"))
+			line = line.indexOf(' ') < 0 ? "" : line.substring(line.indexOf(' ') + 1);
+		int space = line.indexOf(' ');
+		String command = (space < 0 ? line : line.substring(0, space)).toUpperCase();
+		ArrayList<String> params = new ArrayList<String>();
+		String rest = space < 0 ? "" : line.substring(space + 1);
+		for (int i = 0; i < rest.length();)
+		{
+			if (rest.charAt(i) == ':')
+			{
+				params.add(rest.substring(i + 1));
+				break;
+			}
+			int end = rest.indexOf(' ', i);
+			if (end < 0)
+				end = rest.length();
+			if (end > i)
+				params.add(rest.substring(i, end));
+			i = end + 1;
+		}
+		if (command.length() == 0)
+			return;
+
+		switch (command)
+		{
+			case "PING":
+				this.reply(client, "PONG " + IrcServerStub.SERVER + " :" + (params.isEmpty() ? "" : params.get(0)));
+				return;
+			case "PONG":
+				return;
+			case "NICK":
+				this.nick(client, params.isEmpty() ? "" : params.get(0));
+				return;
+			case "USER":
+				client.m_user = params.isEmpty() ? "user" : params.get(0);
+				this.welcome(client);
+				return;
+			case "QUIT":
+				this.quit(client, "Quit: " + (params.isEmpty() ? "" : params.get(0)));
+				client.m_channel.close();
+				return;
+		}
+		if (!client.m_ready)
+		{
+			this.numeric(client, 451, ":You have not registered");
+			return;
+		}
+		switch (command)
+		{
+			case "JOIN":
+				if (!params.isEmpty())
+					for (String name : params.get(0).split(","))
+						this.join(client, name);
+				break;
+			case "PART":
+				if (!params.isEmpty())
+					for (String name : params.get(0).split(","))
+						this.part(client, name, client.prefix() + " PART " + name + (params.size() > 1 ? " :" + params.get(1) : ""));
+				break;
+			case "PRIVMSG":
+			case "NOTICE":
+				if (params.size() >= 2)
+					for (String target : params.get(0).split(","))
+						this.message(client, command, target, params.get(1));
+				break;
+			case "MODE":
+				if (!params.isEmpty() && IrcServerStub.isChannel(params.get(0)))
+					this.mode(client, params);
+				break;
+			case "KICK":
+				if (params.size() >= 2)
+					this.kick(client, params.get(0), params.get(1), params.size() > 2 ? params.get(2) : client.m_nick);
+				break;
+			case "INVITE":
+			case "TOPIC":
+			case "WHO":
+			case "USERHOST":
+				break;
+			default:
+				this.numeric(client, 421, command + " :Unknown command");
+		}
+	}
+
+	private void join(Client client, String name)
+	{
+		if (!IrcServerStub.isChannel(name))
+		{
+			this.numeric(client, 403, name + " :No such channel");
+			return;
+		}
+		Room room = this.m_rooms.get(name.toLowerCase());
+		if (room == null)
+		{
+			room = new Room(name);
+			this.m_rooms.put(name.toLowerCase(), room);
+		}
+		if (room.m_members.containsKey(client.m_nick.toLowerCase()))
+			return;
+		if (room.m_members.isEmpty())
+			room.m_ops.add(client);
+		room.m_members.put(client.m_nick.toLowerCase(), client);
+		client.m_rooms.add(room);
+		this.send(room, client.prefix() + " JOIN :" + room.m_name, null);
+
+		StringBuilder names = new StringBuilder();
+		for (Client member : room.m_members.values())
+		{
+			if (names.length() > IrcServerStub.MAX_NAMES)
+			{
+				this.numeric(client, 353, "= " + room.m_name + " :" + names);
+				names.setLength(0);
+			}
+			if (names.length() > 0)
+				names.append(' ');
+			names.append(room.m_ops.contains(member) ? "@" : room.m_voiced.contains(member) ? "+" : "").append(member.m_nick);
+		}
+		this.numeric(client, 353, "= " + room.m_name + " :" + names);
+		this.numeric(client, 366, room.m_name + " :End of /NAMES list.");
+	}
+
+	private void kick(Client client, String name, String nick, String reason)
+	{
+		Room room = this.room(client, name);
+		if (room == null)
+			return;
+		Client target = room.m_members.get(nick.toLowerCase());
+		if (target == null)
+			this.numeric(client, 441, nick + " " + name + " :They aren't on that channel");
+		else
+			this.part(target, name, client.prefix() + " KICK " + room.m_name + " " + target.m_nick + " :" + reason);
+	}
+
+	private void message(Client client, String command, String target, String text)
+	{
+		if (IrcServerStub.isChannel(target))
+		{
+			Room room = this.m_rooms.get(target.toLowerCase());
+			if (room == null)
+			{
+				if (command.equals("PRIVMSG"))
+					this.numeric(client, 403, target + " :No such channel");
+				return;
+			}
+			if (room.m_moderated && !room.m_ops.contains(client) && !room.m_voiced.contains(client))
+			{
+				if (command.equals("PRIVMSG"))
+					this.numeric(client, 404, room.m_name + " :Cannot send to channel");
+				return;
+			}
+			this.send(room, client.prefix() + " " + command + " " + room.m_name + " :" + text, client);
+			return;
+		}
+		Client recipient = this.m_clients.get(target.toLowerCase());
+		if (recipient == null)
+		{
+			if (command.equals("PRIVMSG"))
+				this.numeric(client, 401, target + " :No such nick/channel");
+			return;
+		}
+		this.send(recipient, client.prefix() + " " + command + " " + recipient.m_nick + " :" + text);
+	}
+
+	private void mode(Client client, ArrayList<String> params)
+	{
+		Room room = this.room(client, params.get(0));
+		if (room == null)
+			return;
+		if (params.size() < 2)
+		{
+			this.numeric(client, 324, room.m_name + " +" + (room.m_moderated ? "m" : ""));
+			return;
+		}
+		if (!room.m_ops.contains(client))
+		{
+			this.numeric(client, 482, room.m_name + " :You're not channel operator");
+			return;
+		}
+		String modes = params.get(1);
+		int arg = 2;
+		boolean set = true;
+		StringBuilder applied = new StringBuilder(room.m_name).append(' ').append(modes);
+		for (int i = 0; i < modes.length(); ++i)
+		{
+			char mode = modes.charAt(i);
+			if (mode == '+' || mode == '-')
+				set = mode == '+';
+			else if (mode == 'm')
+				room.m_moderated = set;
+			else if ((mode == 'o' || mode == 'v') && arg < params.size())
+			{
+				String nick = params.get(arg++);
+				applied.append(' ').append(nick);
+				Client target = room.m_members.get(nick.toLowerCase());
+				HashSet<Client> holders = mode == 'o' ? room.m_ops : room.m_voiced;
+				if (target == null)
+					continue;
+				if (set)
+					holders.add(target);
+				else
+					holders.remove(target);
+			}
+		}
+		this.send(room, client.prefix() + " MODE " + applied, null);
+	}
+
+	private void nick(Client client, String nick)
+	{
+		if (nick.length() == 0 || nick.startsWith("#") || nick.contains(",") || nick.contains("!") || nick.contains("@"))
+		{
+			this.numeric(client, 432, nick + " :Erroneous nickname");
+			return;
+		}
+		Client holder = this.m_clients.get(nick.toLowerCase());
+		if (holder == client)
+		{
+			if (nick.equals(client.m_nick))
+				return;
+		} else if (holder != null)
+		{
+			this.numeric(client, 433, nick + " :Nickname is already in use");
+			return;
+		}
+		if (client.m_nick == null || !client.m_ready)
+		{
+			if (client.m_nick != null)
+				this.m_clients.remove(client.m_nick.toLowerCase());
+			client.m_nick = nick;
+			this.m_clients.put(nick.toLowerCase(), client);
+			this.welcome(client);
+			return;
+		}
+		String line = client.prefix() + " NICK :" + nick;
+		HashSet<Client> told = new HashSet<Client>();
+		told.add(client);
+		this.send(client, line);
+		for (Room room : client.m_rooms)
+		{
+			for (Client member : room.m_members.values())
+				if (told.add(member))
+					this.send(member, line);
+			room.m_members.remove(client.m_nick.toLowerCase());
+			room.m_members.put(nick.toLowerCase(), client);
+		}
+		this.m_clients.remove(client.m_nick.toLowerCase());
+		client.m_nick = nick;
+		this.m_clients.put(nick.toLowerCase(), client);
+	}
+
+	private void numeric(Client client, int code, String text)
+	{
+		this.send(client, String.format(":%s %03d %s %s", IrcServerStub.SERVER, code, client.m_nick == null ? "*" : client.m_nick, text));
+	}
+
+	/**
+	 * Removes a client from a channel after telling the channel why.
+	 *
+	 * @param line
+	 *            The PART or KICK to send.
+	 */
+	private void part(Client client, String name, String line)
+	{
+		Room room = this.m_rooms.get(name.toLowerCase());
+		if (room == null || !room.m_members.containsKey(client.m_nick.toLowerCase()))
+		{
+			this.numeric(client, 442, name + " :You're not on that channel");
+			return;
+		}
+		this.send(room, line, null);
+		this.remove(client, room);
+	}
+
+	private void quit(Client client, String reason)
+	{
+		if (client == null || client.m_nick == null || this.m_clients.get(client.m_nick.toLowerCase()) != client)
+			return;
+		this.m_clients.remove(client.m_nick.toLowerCase());
+		String line = client.prefix() + " QUIT :" + reason;
+		HashSet<Client> told = new HashSet<Client>();
+		told.add(client);
+		for (Room room : client.m_rooms.toArray(new Room[client.m_rooms.size()]))
+		{
+			this.remove(client, room);
+			for (Client member : room.m_members.values())
+				if (told.add(member))
+					this.send(member, line);
+		}
+	}
+
+	private void remove(Client client, Room room)
+	{
+		room.m_members.remove(client.m_nick.toLowerCase());
+		room.m_ops.remove(client);
+		room.m_voiced.remove(client);
+		client.m_rooms.remove(room);
+		if (room.m_members.isEmpty())
+			this.m_rooms.remove(room.m_name.toLowerCase());
+	}
+
+	private void reply(Client client, String text)
+	{
+		this.send(client, ":" + IrcServerStub.SERVER + " " + text);
+	}
+
+	/**
+	 * Finds a channel the client is in, telling the client if there is none.
+	 */
+	private Room room(Client client, String name)
+	{
+		Room room = this.m_rooms.get(name.toLowerCase());
+		if (room == null)
+			this.numeric(client, 403, name + " :No such channel");
+		else if (!room.m_members.containsKey(client.m_nick.toLowerCase()))
+		{
+			this.numeric(client, 442, name + " :You're not on that channel");
+			return null;
+		}
+		return room;
+	}
+
+	private void send(Client client, String line)
+	{
+		ByteBuf buffer = client.m_channel.alloc().buffer(line.length() + 2);
+		this.write(client.m_channel, this.encode(buffer, line));
+	}
+
+	/**
+	 * Sends a line to everyone in a channel, sharing one buffer between them.
+	 *
+	 * @param except
+	 *            A member not to send to, or null.
+	 */
+	private void send(Room room, String line, Client except)
+	{
+		ByteBuf buffer = this.encode(PooledByteBufAllocator.DEFAULT.buffer(line.length() + 2), line);
+		for (Client member : room.m_members.values())
+			if (member != except)
+				this.write(member.m_channel, buffer.duplicate().retain());
+		buffer.release();
+	}
+
+	/**
+	 * Starts listening on a free loopback port.
+	 *
+	 * @return The port.
+	 */
+	public int start() throws InterruptedException
+	{
+		ServerBootstrap bootstrap = new ServerBootstrap();
+		bootstrap.group(this.m_loop, this.m_loop).channel(NioServerSocketChannel.class);
+		bootstrap.childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+		bootstrap.childOption(ChannelOption.TCP_NODELAY, true);
+		bootstrap.option(ChannelOption.SO_BACKLOG, 4096);
+		bootstrap.childHandler(new ChannelInitializer<SocketChannel>()
+		{
+			@Override
+			protected void initChannel(SocketChannel channel)
+			{
+				channel.pipeline().addLast(new LineBasedFrameDecoder(IrcServerStub.MAX_LINE * 16, true, false), new Handler());
+			}
+		});
+		this.m_server = bootstrap.bind(IrcServerStub.HOST, 0).sync().channel();
+		return ((InetSocketAddress) this.m_server.localAddress()).getPort();
+	}
+
+	/**
+	 * Closes every connection and stops the server.
+	 */
+	public void stop()
+	{
+		if (this.m_server != null)
+			this.m_server.close().awaitUninterruptibly();
+		this.m_loop.shutdownGracefully(0, 1, TimeUnit.SECONDS).awaitUninterruptibly();
+	}
+
+	private void welcome(Client client)
+	{
+		if (client.m_ready || client.m_nick == null || client.m_user == null)
+			return;
+		client.m_ready = true;
+		this.numeric(client, 1, ":Welcome to the stub IRC network " + client.m_nick);
+		this.numeric(client, 2, ":Your host is " + IrcServerStub.SERVER);
+		this.numeric(client, 3, ":This server was started for a test");
+		this.numeric(client, 4, IrcServerStub.SERVER + " stub o mov");
+		this.numeric(client, 5, "MAXTARGETS=4 TARGMAX=PRIVMSG:4,NOTICE:4 :are supported by this server");
+	}
+
+	/**
+	 * Writes without flushing. Everything written in one pass of the event
+	 * loop is flushed together at the end of it.
+	 */
+	private void write(Channel channel, ByteBuf buffer)
+	{
+		++this.m_linesOut;
+		channel.write(buffer, channel.voidPromise());
+		if (this.m_dirty.isEmpty())
+			channel.eventLoop().execute(() -> this.flush());
+		this.m_dirty.add(channel);
+	}
+}
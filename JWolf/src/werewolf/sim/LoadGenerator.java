@@ -0,0 +1,444 @@
+package werewolf.sim;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.LineBasedFrameDecoder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import werewolf.Settings;
+import werewolf.WerewolfHost;
+import werewolf.util.GameRandom;
+
+/**
+ * Puts a real {@link WerewolfHost} under load over loopback. An
+ * {@link IrcServerStub} is started, the bot connects to it and hosts a game in
+ * each of a number of channels, and then a swarm of simulated users connects,
+ * joins the channels and goes about its business: chatting, changing nicks and
+ * sending the bot commands. Every user acts at random moments, so the swarm as
+ * a whole sends a steady number of actions per second.
+ * <P>
+ * The command sent is one the bot always answers with a single private line,
+ * so each answer can be matched to the oldest command its user is still
+ * waiting on. The time from sending a command to receiving its answer is the
+ * bot's end-to-end latency: the stub, the bot's client, the game's lane, the
+ * outbound queue and back. Once the run is over, the latency percentiles and
+ * the throughput of every party are printed.
+ * <P>
+ * The bot runs with in-memory settings and almost no output pacing, so the
+ * numbers show what the bot itself can do; a settings file can override that.
+ * <P>
+ * Usage: {@code LoadGenerator [users] [channels] [rate] [seconds] [settings]}
+ * where rate is the number of actions per second for the whole swarm.
+ */
+public class LoadGenerator
+{
+	/**
+	 * One simulated user, living on one of the swarm's event loop threads.
+	 */
+	private class User extends SimpleChannelInboundHandler<ByteBuf>
+	{
+		private int					m_index;
+		private String				m_nick;
+		private String				m_room;
+		private GameRandom			m_random;
+		private Channel				m_channel;
+		private ArrayDeque<Long>	m_waiting	= new ArrayDeque<Long>();
+		private long[]				m_latencies	= new long[64];
+		private int					m_answered	= 0;
+		private int					m_renames	= 0;
+		private boolean				m_joined	= false;
+
+		private User(int index)
+		{
+			this.m_index = index;
+			this.m_nick = "user" + index;
+			this.m_room = LoadGenerator.this.m_rooms[index % LoadGenerator.this.m_rooms.length];
+			this.m_random = LoadGenerator.this.m_random.split(this.m_nick);
+		}
+
+		/**
+		 * Does one random thing and picks when to do the next.
+		 */
+		private void act()
+		{
+			if (!LoadGenerator.this.m_running)
+				return;
+			double roll = this.m_random.nextDouble();
+			if (roll < LoadGenerator.COMMANDS)
+			{
+				this.m_waiting.add(System.nanoTime());
+				this.send("PRIVMSG " + this.m_room + " :" + LoadGenerator.COMMAND);
+				LoadGenerator.this.m_commands.incrementAndGet();
+			} else if (roll < LoadGenerator.COMMANDS + LoadGenerator.RENAMES && this.m_waiting.isEmpty())
+			{
+				// Answers go to the nick the bot knows, so only rename
+				// between commands.
+				this.send("NICK user" + this.m_index + "_" + ++this.m_renames);
+				LoadGenerator.this.m_renames.incrementAndGet();
+			} else
+			{
+				this.send("PRIVMSG " + this.m_room + " :" + LoadGenerator.CHAT[this.m_random.nextInt(LoadGenerator.CHAT.length)]);
+				LoadGenerator.this.m_chat.incrementAndGet();
+			}
+			this.schedule();
+		}
+
+		private void answered(int count)
+		{
+			long now = System.nanoTime();
+			for (int i = 0; i < count; ++i)
+			{
+				Long sent = this.m_waiting.poll();
+				if (sent == null)
+				{
+					LoadGenerator.this.m_unexpected.incrementAndGet();
+					continue;
+				}
+				if (this.m_answered == this.m_latencies.length)
+					this.m_latencies = Arrays.copyOf(this.m_latencies, this.m_answered * 2);
+				this.m_latencies[this.m_answered++] = now - sent;
+			}
+		}
+
+		@Override
+		public void channelActive(ChannelHandlerContext ctx)
+		{
+			this.m_channel = ctx.channel();
+			this.send("NICK " + this.m_nick);
+			this.send("USER " + this.m_nick + " 8 * :Load test user");
+		}
+
+		@Override
+		protected void channelRead0(ChannelHandlerContext ctx, ByteBuf buffer)
+		{
+			String line = buffer.toString(StandardCharsets.UTF_8);
+			if (line.startsWith("PING "))
+			{
+				this.send("PONG " + line.substring(5));
+				return;
+			}
+			String[] parts = line.split(" ", 4);
+			if (parts.length < 3)
+				return;
+			String sender = parts[0].substring(1, Math.max(1, parts[0].indexOf('!')));
+			switch (parts[1])
+			{
+				case "001":
+					this.m_nick = parts[2];
+					this.send("JOIN " + this.m_room);
+					break;
+				case "433":
+					if (this.m_joined)
+						break;
+					this.m_nick = this.m_nick + "_";
+					this.send("NICK " + this.m_nick);
+					break;
+				case "JOIN":
+					if (!this.m_joined && sender.equals(this.m_nick))
+					{
+						this.m_joined = true;
+						LoadGenerator.this.m_ready.countDown();
+					}
+					break;
+				case "NICK":
+					if (sender.equals(this.m_nick))
+						this.m_nick = parts[2].substring(1);
+					break;
+				case "PRIVMSG":
+				case "NOTICE":
+					if (sender.equalsIgnoreCase(LoadGenerator.this.m_botNick) && parts[2].equalsIgnoreCase(this.m_nick) && parts.length > 3)
+						this.answered(parts[3].split(LoadGenerator.SEPARATOR, -1).length);
+					break;
+			}
+		}
+
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
+		{
+			ctx.close();
+		}
+
+		private void schedule()
+		{
+			double mean = LoadGenerator.this.m_users / LoadGenerator.this.m_rate;
+			long delay = (long) (-Math.log(1 - this.m_random.nextDouble()) * mean * 1e9);
+			this.m_channel.eventLoop().schedule(() -> this.act(), delay, TimeUnit.NANOSECONDS);
+		}
+
+		private void send(String line)
+		{
+			ByteBuf buffer = this.m_channel.alloc().buffer(line.length() + 2);
+			ByteBufUtil.writeUtf8(buffer, line);
+			buffer.writeByte('\r').writeByte('\n');
+			this.m_channel.writeAndFlush(buffer, this.m_channel.voidPromise());
+			LoadGenerator.this.m_sent.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Share of actions that are commands. Of the rest, {@link #RENAMES} are
+	 * nick changes and the others are chat.
+	 */
+	private static final double		COMMANDS	= 0.5;
+	private static final double		RENAMES		= 0.05;
+
+	/**
+	 * A command the bot always answers with one private line, since the swarm
+	 * never joins a game.
+	 */
+	private static final String		COMMAND		= "!votes";
+
+	/**
+	 * What the bot's outbound queue puts between answers it joins into a line,
+	 * as a pattern.
+	 */
+	private static final String		SEPARATOR	= " \\| ";
+
+	private static final String[]	CHAT		=
+												{ "hello", "anyone up for a game?", "brb", "lol", "who is the wolf", "not me", "vote soon please" };
+
+	public static void main(String[] args) throws Exception
+	{
+		int users = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int channels = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		double rate = args.length > 2 ? Double.parseDouble(args[2]) : 1000;
+		int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 30;
+		Properties settings = new Properties();
+		if (args.length > 4)
+			try (InputStream in = Files.newInputStream(Paths.get(args[4])))
+			{
+				settings.load(in);
+			}
+
+		PrintStream out = System.out;
+		PrintStream err = System.err;
+		PrintStream discard = new PrintStream(new OutputStream()
+		{
+			@Override
+			public void write(int b)
+			{
+			}
+		});
+		System.setOut(discard); // The bot logs every line it sends and receives.
+		System.setErr(discard);
+		LoadGenerator generator = new LoadGenerator(users, channels, rate, settings);
+		String report;
+		try
+		{
+			report = generator.run(seconds);
+		} finally
+		{
+			System.setOut(out);
+			System.setErr(err);
+		}
+		out.println(report);
+		System.exit(0); // The bot would otherwise keep reconnecting.
+	}
+
+	/**
+	 * @return The latency at a fraction of the way through sorted samples, in
+	 *         milliseconds.
+	 */
+	private static double percentile(long[] sorted, double fraction)
+	{
+		if (sorted.length == 0)
+			return 0;
+		return sorted[Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1)] / 1e6;
+	}
+
+	private int					m_users;
+	private double				m_rate;
+	private String[]			m_rooms;
+	private Properties			m_settings;
+	private GameRandom			m_random		= new GameRandom(0);
+	private IrcServerStub		m_server		= new IrcServerStub();
+	private WerewolfHost		m_bot;
+	private String				m_botNick;
+	private EventLoopGroup		m_swarm;
+	private User[]				m_crowd;
+	private CountDownLatch		m_ready;
+	private volatile boolean	m_running		= false;
+	private AtomicLong			m_sent			= new AtomicLong();
+	private AtomicLong			m_commands		= new AtomicLong();
+	private AtomicLong			m_chat			= new AtomicLong();
+	private AtomicLong			m_renames		= new AtomicLong();
+	private AtomicLong			m_unexpected	= new AtomicLong();
+
+	/**
+	 * @param users
+	 *            The number of simulated users.
+	 * @param channels
+	 *            The number of channels, each with its own game. Users are
+	 *            spread evenly over them.
+	 * @param rate
+	 *            Actions per second for the whole swarm.
+	 * @param settings
+	 *            Settings for the bot, over the load test's own.
+	 */
+	public LoadGenerator(int users, int channels, double rate, Properties settings)
+	{
+		this.m_users = users;
+		this.m_rate = rate;
+		this.m_rooms = new String[Math.max(1, channels)];
+		for (int i = 0; i < this.m_rooms.length; ++i)
+			this.m_rooms[i] = "#load" + i;
+		this.m_settings = new Properties();
+		this.m_settings.setProperty("network", "127.0.0.1");
+		this.m_settings.setProperty("channels", String.join(",", this.m_rooms));
+		this.m_settings.setProperty("ident", "PING load");
+		this.m_settings.setProperty("journal", "");
+		this.m_settings.setProperty("record", "");
+		this.m_settings.setProperty("msgDelay", "1");
+		this.m_settings.setProperty("msgBurst", "1000");
+		this.m_settings.setProperty("cmdBurst", "0");
+		this.m_settings.putAll(settings);
+	}
+
+	/**
+	 * Starts the server and the bot, waits for the bot to be in every
+	 * channel, then connects the swarm and waits for every user to join.
+	 *
+	 * @return The milliseconds the swarm took to join.
+	 */
+	private long connect() throws InterruptedException, IOException
+	{
+		int port = this.m_server.start();
+		this.m_settings.setProperty("port", Integer.toString(port));
+		this.m_bot = new WerewolfHost(new Settings(this.m_settings));
+		this.m_bot.setVerbose(false);
+		this.m_botNick = this.m_bot.getNick();
+		for (int i = 0; i < this.m_rooms.length; ++i)
+			while (!this.m_server.getMembers(this.m_rooms[i]).contains(this.m_botNick))
+				Thread.sleep(10);
+
+		long start = System.nanoTime();
+		this.m_ready = new CountDownLatch(this.m_users);
+		this.m_crowd = new User[this.m_users];
+		this.m_swarm = new NioEventLoopGroup(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), (task) -> {
+			Thread thread = new Thread(task, "LoadGenerator");
+			thread.setDaemon(true);
+			return thread;
+		});
+		Bootstrap bootstrap = new Bootstrap();
+		bootstrap.group(this.m_swarm).channel(NioSocketChannel.class);
+		bootstrap.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+		bootstrap.option(ChannelOption.TCP_NODELAY, true);
+		for (int i = 0; i < this.m_users; ++i)
+		{
+			User user = new User(i);
+			this.m_crowd[i] = user;
+			bootstrap.handler(new ChannelInitializer<SocketChannel>()
+			{
+				@Override
+				protected void initChannel(SocketChannel channel)
+				{
+					channel.pipeline().addLast(new LineBasedFrameDecoder(8192, true, false), user);
+				}
+			});
+			if (!bootstrap.connect("127.0.0.1", port).await().isSuccess())
+				throw new IOException("User " + i + " could not connect to the stub server.");
+		}
+		if (!this.m_ready.await(60 + this.m_users / 100, TimeUnit.SECONDS))
+			throw new IOException("Only " + (this.m_users - this.m_ready.getCount()) + " of " + this.m_users + " users joined.");
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+	}
+
+	/**
+	 * Runs the load test, then shuts the swarm down. The server is left
+	 * running, as the bot would only try to reconnect to it.
+	 *
+	 * @param seconds
+	 *            How long the swarm keeps acting.
+	 * @return The report.
+	 */
+	public String run(int seconds) throws InterruptedException, IOException, ExecutionException
+	{
+		long joined = this.connect();
+		long linesIn = this.m_server.getLinesIn();
+		long linesOut = this.m_server.getLinesOut();
+		long botLines = this.m_bot.getOutbound().getLinesSent();
+		long botMessages = this.m_bot.getOutbound().getMessagesSent();
+		long sent = this.m_sent.get();
+
+		long start = System.nanoTime();
+		this.m_running = true;
+		for (int i = 0; i < this.m_crowd.length; ++i)
+		{
+			User user = this.m_crowd[i];
+			user.m_channel.eventLoop().execute(() -> user.schedule());
+		}
+		Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+		this.m_running = false;
+		long elapsed = System.nanoTime() - start;
+
+		// Give the bot a moment to answer what is still in flight.
+		long waiting = 0;
+		for (int tries = 0; tries < 50; ++tries)
+		{
+			waiting = 0;
+			for (int i = 0; i < this.m_crowd.length; ++i)
+			{
+				User user = this.m_crowd[i];
+				waiting += user.m_channel.eventLoop().submit(() -> user.m_waiting.size()).get();
+			}
+			if (waiting == 0)
+				break;
+			Thread.sleep(100);
+		}
+
+		long[] latencies = new long[1024];
+		int count = 0;
+		for (int i = 0; i < this.m_crowd.length; ++i)
+		{
+			User user = this.m_crowd[i];
+			long[] copy = user.m_channel.eventLoop().submit(() -> Arrays.copyOf(user.m_latencies, user.m_answered)).get();
+			if (count + copy.length > latencies.length)
+				latencies = Arrays.copyOf(latencies, Math.max(latencies.length * 2, count + copy.length));
+			System.arraycopy(copy, 0, latencies, count, copy.length);
+			count += copy.length;
+		}
+		latencies = Arrays.copyOf(latencies, count);
+		Arrays.sort(latencies);
+
+		linesIn = this.m_server.getLinesIn() - linesIn;
+		linesOut = this.m_server.getLinesOut() - linesOut;
+		botLines = this.m_bot.getOutbound().getLinesSent() - botLines;
+		botMessages = this.m_bot.getOutbound().getMessagesSent() - botMessages;
+		sent = this.m_sent.get() - sent;
+		double secs = elapsed / 1e9;
+		this.m_swarm.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("%d users in %d channels joined in %d ms, then acted for %.1f s at %.0f actions/s.%n", this.m_users, this.m_rooms.length, joined, secs, this.m_rate));
+		report.append(String.format("Sent %d commands, %d chat lines and %d nick changes (%.0f lines/s).%n", this.m_commands.get(), this.m_chat.get(), this.m_renames.get(), sent / secs));
+		report.append(String.format("Answered %d commands (%.0f/s), %d unanswered, %d unexpected answers.%n", count, count / secs, waiting, this.m_unexpected.get()));
+		report.append(String.format("Latency ms: p50 %.2f, p90 %.2f, p99 %.2f, p99.9 %.2f, max %.2f.%n", LoadGenerator.percentile(latencies, 0.5), LoadGenerator.percentile(latencies, 0.9), LoadGenerator.percentile(latencies, 0.99), LoadGenerator.percentile(latencies, 0.999), LoadGenerator.percentile(latencies, 1)));
+		report.append(String.format("Bot sent %d lines for %d messages (%.0f lines/s); server took %d lines (%.0f/s) and delivered %d (%.0f/s).", botLines, botMessages, botLines / secs, linesIn, linesIn / secs, linesOut, linesOut / secs));
+		return report.toString();
+	}
+}
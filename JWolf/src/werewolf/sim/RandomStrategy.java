@@ -0,0 +1,31 @@
+package werewolf.sim;
+
+import java.util.Random;
+
+import werewolf.IrcUser;
+
+/**
+ * Plays at random. During the day the player votes for a random other player,
+ * and at night they use a random one of the commands their role, items and
+ * statuses give them on a random other player.
+ */
+public class RandomStrategy implements Strategy
+{
+	@Override
+	public String act(IrcUser self, IrcUser[] players, int phase, Random random)
+	{
+		if (players.length < 2)
+			return null;
+		IrcUser target = players[random.nextInt(players.length)];
+		while (target == self)
+			target = players[random.nextInt(players.length)];
+		if (phase == 3)
+			return "vote " + target.getNick();
+		if (phase != 1)
+			return null;
+		String[] commands = self.getCommands();
+		if (commands.length == 0)
+			return null;
+		return commands[random.nextInt(commands.length)] + " " + target.getNick();
+	}
+}
@@ -0,0 +1,149 @@
+package werewolf.sim;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import werewolf.Game;
+import werewolf.Settings;
+import werewolf.WerewolfHost;
+import werewolf.util.EventRecorder;
+
+/**
+ * Plays a game recorded by {@link EventRecorder} again in memory, through a
+ * {@link StandInBot}. The game is given the recorded seed and its phases only
+ * end where the recording says they did, so the same rules play the game out
+ * exactly as it went. Events can be played as fast as the engine allows or
+ * spaced out as recorded, sped up by any factor.
+ * <P>
+ * Stopping after a given number of events and printing the transcript makes it
+ * easy to bisect a recording for the event where a rule goes wrong.
+ * <P>
+ * Usage: {@code Replay [-t] <recording> [speed] [events] [settings]} where
+ * speed is how many times faster than recorded to play (0, the default, for
+ * no waiting), events is how many events to play, settings is a properties
+ * file to play with in place of the defaults, and -t prints the transcript.
+ */
+public class Replay
+{
+	public static void main(String[] args) throws IOException
+	{
+		ArrayList<String> rest = new ArrayList<String>(Arrays.asList(args));
+		boolean transcript = rest.remove("-t");
+		if (rest.isEmpty())
+		{
+			System.err.println("Usage: Replay [-t] <recording> [speed] [events] [settings]");
+			return;
+		}
+		double speed = rest.size() > 1 ? Double.parseDouble(rest.get(1)) : 0;
+		long limit = rest.size() > 2 ? Long.parseLong(rest.get(2)) : Long.MAX_VALUE;
+		Properties settings = new Properties();
+		if (rest.size() > 3)
+			try (InputStream in = Files.newInputStream(Paths.get(rest.get(3))))
+			{
+				settings.load(in);
+			}
+
+		Replay replay = new Replay(rest.get(0), settings);
+		if (transcript)
+			replay.getBot().record();
+		long start = System.nanoTime();
+		long played = replay.run(speed, limit);
+		long elapsed = System.nanoTime() - start;
+
+		if (transcript)
+			for (String line : replay.getBot().getTranscript())
+				System.out.println(line);
+		System.out.println(String.format("%d events (%.1f s recorded) replayed in %.3f s (%.0f events/s), %d lines sent, phase %d.", played, replay.m_last / 1e3, elapsed / 1e9, played / (elapsed / 1e9), replay.getBot().getLines(), replay.getGame().getPhase()));
+	}
+
+	private EventRecorder.Reader	m_reader;
+	private Game					m_game;
+	private StandInBot				m_bot;
+	private long					m_last	= 0;
+
+	/**
+	 * Opens a recording and sets up a game to play it in.
+	 *
+	 * @param file
+	 *            The recording.
+	 * @param settings
+	 *            The settings to play with. The channel is always the
+	 *            recorded one.
+	 * @throws IOException
+	 *             If the recording cannot be opened.
+	 */
+	public Replay(String file, Properties settings) throws IOException
+	{
+		this.m_reader = new EventRecorder.Reader(file);
+		Properties config = new Properties();
+		config.putAll(settings);
+		config.setProperty("channel", this.m_reader.getChannel());
+		this.m_bot = new StandInBot();
+		this.m_game = WerewolfHost.newGame(this.m_bot, new Settings(config));
+		this.m_bot.attach(this.m_game);
+		this.m_game.setSeed(this.m_reader.getSeed());
+		this.m_game.getPhaseTimer().setManual(true);
+	}
+
+	/**
+	 * @return The stand-in bot the game talks through.
+	 */
+	public StandInBot getBot()
+	{
+		return this.m_bot;
+	}
+
+	/**
+	 * @return The game being replayed.
+	 */
+	public Game getGame()
+	{
+		return this.m_game;
+	}
+
+	/**
+	 * Plays the recording, then closes it.
+	 *
+	 * @param speed
+	 *            How many times faster than recorded to play, or 0 to play
+	 *            every event straight away.
+	 * @param limit
+	 *            The most events to play.
+	 * @return The number of events played.
+	 */
+	public long run(double speed, long limit) throws IOException
+	{
+		long start = System.nanoTime();
+		long played = 0;
+		try
+		{
+			EventRecorder.Event event;
+			while (played < limit && (event = this.m_reader.next()) != null)
+			{
+				if (speed > 0)
+				{
+					long due = start + (long) (TimeUnit.MILLISECONDS.toNanos(event.getTime()) / speed);
+					long wait;
+					while ((wait = due - System.nanoTime()) > 0)
+						TimeUnit.NANOSECONDS.sleep(wait);
+				}
+				event.apply(this.m_game);
+				this.m_last = event.getTime();
+				++played;
+			}
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		} finally
+		{
+			this.m_reader.close();
+		}
+		return played;
+	}
+}
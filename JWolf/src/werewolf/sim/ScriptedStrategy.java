@@ -0,0 +1,35 @@
+package werewolf.sim;
+
+import java.util.Random;
+
+import werewolf.IrcUser;
+
+/**
+ * Plays from a fixed script, one line per phase. An empty or null line passes
+ * the phase, and the player does nothing once the script runs out.
+ */
+public class ScriptedStrategy implements Strategy
+{
+	private String[]	m_script;
+	private int			m_next	= 0;
+
+	/**
+	 * @param script
+	 *            The command lines to use, starting with the first night.
+	 */
+	public ScriptedStrategy(String... script)
+	{
+		this.m_script = script;
+	}
+
+	@Override
+	public String act(IrcUser self, IrcUser[] players, int phase, Random random)
+	{
+		if (this.m_next >= this.m_script.length)
+			return null;
+		String line = this.m_script[this.m_next++];
+		if (line == null || line.length() == 0)
+			return null;
+		return line;
+	}
+}
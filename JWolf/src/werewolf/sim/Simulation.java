@@ -0,0 +1,211 @@
+package werewolf.sim;
+
+import java.util.Random;
+
+import werewolf.Game;
+import werewolf.IrcUser;
+import werewolf.Settings;
+import werewolf.WerewolfHost;
+import werewolf.util.WinCounters;
+
+/**
+ * Plays one game of Werewolf entirely in memory. Players join, the game is
+ * started, and then every phase each player's {@link Strategy} is asked for a
+ * line before the phase is ended directly, so no timer is ever waited on.
+ * <P>
+ * Game output goes to a {@link StandInBot}. Strategies draw from a random
+ * source seeded by the caller, so the same seed, players and strategies always
+ * give the same sequence of commands.
+ */
+public class Simulation
+{
+	/**
+	 * The outcome of a simulated game.
+	 */
+	public static class Result
+	{
+		private String	m_roleset;
+		private long	m_seed;
+		private boolean	m_ended;
+		private String	m_winner;
+		private int		m_rounds;
+		private int		m_survivors;
+		private long	m_lines;
+		private long	m_nanos;
+
+		/**
+		 * @return The number of lines the game sent.
+		 */
+		public long getLines()
+		{
+			return this.m_lines;
+		}
+
+		/**
+		 * @return How long the game took to play, in nanoseconds.
+		 */
+		public long getNanos()
+		{
+			return this.m_nanos;
+		}
+
+		/**
+		 * @return The name of the roleset played.
+		 */
+		public String getRoleset()
+		{
+			return this.m_roleset;
+		}
+
+		/**
+		 * @return The number of nights played.
+		 */
+		public int getRounds()
+		{
+			return this.m_rounds;
+		}
+
+		/**
+		 * @return The seed the game was played with.
+		 */
+		public long getSeed()
+		{
+			return this.m_seed;
+		}
+
+		/**
+		 * @return The number of players left at the end.
+		 */
+		public int getSurvivors()
+		{
+			return this.m_survivors;
+		}
+
+		/**
+		 * @return The class of the winning team, "Draw" if no team was left,
+		 *         or "Undecided" if the game hit the round limit first.
+		 */
+		public String getWinner()
+		{
+			return this.m_winner;
+		}
+
+		/**
+		 * @return True if the game ended on its own rather than at the round
+		 *         limit.
+		 */
+		public boolean isEnded()
+		{
+			return this.m_ended;
+		}
+	}
+
+	private Game		m_game;
+	private StandInBot	m_bot;
+	private Strategy[]	m_strategies;
+	private Random		m_random;
+	private long		m_seed;
+	private int			m_maxRounds;
+
+	/**
+	 * Sets up a game ready to be played.
+	 *
+	 * @param config
+	 *            The settings to play with. They are only read, so one
+	 *            in-memory {@link Settings} can be shared by any number of
+	 *            simulations.
+	 * @param roleset
+	 *            The name of the roleset to play.
+	 * @param strategies
+	 *            One strategy for each player.
+	 * @param seed
+	 *            The seed for the game's and the strategies' random sources.
+	 * @param maxRounds
+	 *            The number of nights after which the game is abandoned.
+	 */
+	public Simulation(Settings config, String roleset, Strategy[] strategies, long seed, int maxRounds)
+	{
+		this.m_bot = new StandInBot();
+		this.m_game = WerewolfHost.newGame(this.m_bot, config);
+		this.m_bot.attach(this.m_game);
+		this.m_game.setRoleset(roleset);
+		this.m_game.setSeed(seed);
+		this.m_game.getPhaseTimer().setManual(true);
+		this.m_strategies = strategies;
+		this.m_random = new Random(seed);
+		this.m_seed = seed;
+		this.m_maxRounds = maxRounds;
+	}
+
+	/**
+	 * @return The stand-in bot the game talks through.
+	 */
+	public StandInBot getBot()
+	{
+		return this.m_bot;
+	}
+
+	/**
+	 * @return The game being played.
+	 */
+	public Game getGame()
+	{
+		return this.m_game;
+	}
+
+	/**
+	 * Plays the game through.
+	 *
+	 * @return The outcome.
+	 */
+	public Result run()
+	{
+		long start = System.nanoTime();
+		Game game = this.m_game;
+		IrcUser[] users = new IrcUser[this.m_strategies.length];
+		for (int i = 0; i < users.length; ++i)
+		{
+			users[i] = new IrcUser(game, "Player" + (i + 1), "sim", "sim.invalid");
+			game.onJoin(users[i]);
+			game.onMessage(users[i], "join", true);
+		}
+		game.startGame();
+
+		Result result = new Result();
+		while (game.getPhase() != 0 && !this.m_bot.hasQuit())
+		{
+			int phase = game.getPhase();
+			if (phase == 1 && ++result.m_rounds > this.m_maxRounds)
+				break;
+			IrcUser[] players = game.getPlayers();
+			for (int i = 0; i < users.length; ++i)
+			{
+				if (!game.isPlayer(users[i]))
+					continue;
+				String line = this.m_strategies[i].act(users[i], players, phase, this.m_random);
+				if (line != null)
+					game.onMessage(users[i], line, phase != 1);
+			}
+			game.endPhase();
+		}
+
+		IrcUser[] survivors = game.getPlayers();
+		result.m_roleset = game.getRoleset() == null ? "" : game.getRoleset().name();
+		result.m_seed = this.m_seed;
+		result.m_ended = game.getPhase() == 0;
+		result.m_winner = result.m_ended ? Simulation.winner(game.getCounters().getWinner()) : "Undecided";
+		result.m_rounds = Math.min(result.m_rounds, this.m_maxRounds);
+		result.m_survivors = survivors.length;
+		result.m_lines = this.m_bot.getLines();
+		game.setPhase(null);
+		result.m_nanos = System.nanoTime() - start;
+		return result;
+	}
+
+	private static String winner(int team)
+	{
+		if (team == WinCounters.DRAW || team == WinCounters.NONE)
+			return "Draw";
+		return Game.getClass(team, false);
+	}
+}
@@ -0,0 +1,278 @@
+package werewolf.sim;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import werewolf.Settings;
+
+/**
+ * Plays many simulated games in parallel on a {@link ForkJoinPool} and totals
+ * the results by roleset. Game <i>n</i> of a run is always played with the
+ * same seed, so a run can be repeated exactly.
+ * <P>
+ * Usage: {@code SimulationRunner [games] [players] [rolesets] [seed] [threads]}
+ * where rolesets is a comma separated list played in turn.
+ */
+public class SimulationRunner
+{
+	/**
+	 * Totals for the games played with one roleset.
+	 */
+	public static class Tally
+	{
+		private long					m_games		= 0;
+		private long					m_ended		= 0;
+		private long					m_rounds	= 0;
+		private long					m_lines		= 0;
+		private long					m_nanos		= 0;
+		private long					m_minNanos	= Long.MAX_VALUE;
+		private long					m_maxNanos	= 0;
+		private TreeMap<String, Long>	m_wins		= new TreeMap<String, Long>();
+
+		private void add(Simulation.Result result)
+		{
+			++this.m_games;
+			if (result.isEnded())
+				++this.m_ended;
+			this.m_rounds += result.getRounds();
+			this.m_lines += result.getLines();
+			this.m_nanos += result.getNanos();
+			this.m_minNanos = Math.min(this.m_minNanos, result.getNanos());
+			this.m_maxNanos = Math.max(this.m_maxNanos, result.getNanos());
+			Long wins = this.m_wins.get(result.getWinner());
+			this.m_wins.put(result.getWinner(), wins == null ? 1 : wins + 1);
+		}
+
+		private void merge(Tally other)
+		{
+			this.m_games += other.m_games;
+			this.m_ended += other.m_ended;
+			this.m_rounds += other.m_rounds;
+			this.m_lines += other.m_lines;
+			this.m_nanos += other.m_nanos;
+			this.m_minNanos = Math.min(this.m_minNanos, other.m_minNanos);
+			this.m_maxNanos = Math.max(this.m_maxNanos, other.m_maxNanos);
+			for (Map.Entry<String, Long> entry : other.m_wins.entrySet())
+			{
+				Long wins = this.m_wins.get(entry.getKey());
+				this.m_wins.put(entry.getKey(), wins == null ? entry.getValue() : wins + entry.getValue());
+			}
+		}
+
+		/**
+		 * @return The number of games that ended on their own.
+		 */
+		public long getEnded()
+		{
+			return this.m_ended;
+		}
+
+		/**
+		 * @return The number of games played.
+		 */
+		public long getGames()
+		{
+			return this.m_games;
+		}
+
+		/**
+		 * @return The fraction of games won by each side, including "Draw" and
+		 *         "Undecided".
+		 */
+		public Map<String, Double> getWinRates()
+		{
+			TreeMap<String, Double> rates = new TreeMap<String, Double>();
+			for (Map.Entry<String, Long> entry : this.m_wins.entrySet())
+				rates.put(entry.getKey(), entry.getValue() / (double) this.m_games);
+			return rates;
+		}
+
+		@Override
+		public String toString()
+		{
+			StringBuilder text = new StringBuilder();
+			text.append(this.m_games).append(" games, ").append(this.m_ended).append(" ended, ");
+			text.append(String.format("%.2f nights, %.1f lines, ", this.m_rounds / (double) this.m_games, this.m_lines / (double) this.m_games));
+			text.append(String.format("%.1f/%.1f/%.1f us min/avg/max", this.m_minNanos / 1000.0, this.m_nanos / 1000.0 / this.m_games, this.m_maxNanos / 1000.0));
+			for (Map.Entry<String, Double> entry : this.getWinRates().entrySet())
+				text.append(String.format("%n    %-12s %6.2f%%", entry.getKey(), entry.getValue() * 100));
+			return text.toString();
+		}
+	}
+
+	/**
+	 * Plays a range of games, splitting it in half until it is small enough to
+	 * play on one thread.
+	 */
+	private class Batch extends RecursiveTask<TreeMap<String, Tally>>
+	{
+		private static final long	serialVersionUID	= 1L;
+		private static final int	THRESHOLD			= 64;
+
+		private int					m_from;
+		private int					m_to;
+
+		private Batch(int from, int to)
+		{
+			this.m_from = from;
+			this.m_to = to;
+		}
+
+		@Override
+		protected TreeMap<String, Tally> compute()
+		{
+			if (this.m_to - this.m_from > Batch.THRESHOLD)
+			{
+				int middle = (this.m_from + this.m_to) >>> 1;
+				Batch left = new Batch(this.m_from, middle);
+				left.fork();
+				TreeMap<String, Tally> right = new Batch(middle, this.m_to).compute();
+				return SimulationRunner.merge(left.join(), right);
+			}
+			TreeMap<String, Tally> tallies = new TreeMap<String, Tally>();
+			for (int i = this.m_from; i < this.m_to; ++i)
+			{
+				Simulation.Result result = SimulationRunner.this.play(i);
+				Tally tally = tallies.get(result.getRoleset());
+				if (tally == null)
+				{
+					tally = new Tally();
+					tallies.put(result.getRoleset(), tally);
+				}
+				tally.add(result);
+			}
+			return tallies;
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int players = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		String[] rolesets = (args.length > 2 ? args[2] : "Default").split(",");
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : 0;
+		int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+
+		SimulationRunner runner = new SimulationRunner(new Settings(new Properties()), rolesets, players, seed);
+		PrintStream out = System.out;
+		PrintStream err = System.err;
+		PrintStream discard = new PrintStream(new OutputStream()
+		{
+			@Override
+			public void write(int b)
+			{
+			}
+		});
+		System.setOut(discard); // Games log to the console as they go.
+		System.setErr(discard);
+		long start = System.nanoTime();
+		TreeMap<String, Tally> tallies;
+		try
+		{
+			tallies = runner.run(games, new ForkJoinPool(threads));
+		} finally
+		{
+			System.setOut(out);
+			System.setErr(err);
+		}
+		long elapsed = System.nanoTime() - start;
+
+		for (Map.Entry<String, Tally> entry : tallies.entrySet())
+			out.println(entry.getKey() + ": " + entry.getValue());
+		out.println(String.format("%d games in %.3f s on %d threads (%.0f games/s)", games, elapsed / 1e9, threads, games / (elapsed / 1e9)));
+	}
+
+	private static TreeMap<String, Tally> merge(TreeMap<String, Tally> into, TreeMap<String, Tally> from)
+	{
+		for (Map.Entry<String, Tally> entry : from.entrySet())
+		{
+			Tally tally = into.get(entry.getKey());
+			if (tally == null)
+				into.put(entry.getKey(), entry.getValue());
+			else
+				tally.merge(entry.getValue());
+		}
+		return into;
+	}
+
+	private Settings	m_config;
+	private String[]	m_rolesets;
+	private int			m_players;
+	private long		m_seed;
+	private int			m_maxRounds	= 50;
+	private Strategy	m_strategy	= new RandomStrategy();
+
+	/**
+	 * @param config
+	 *            Settings shared by every game. Should be created with
+	 *            {@link Settings#Settings(Properties)} so games do not touch
+	 *            the disk.
+	 * @param rolesets
+	 *            The rolesets to play, in turn.
+	 * @param players
+	 *            The number of players in each game.
+	 * @param seed
+	 *            The seed the seed of each game is derived from.
+	 */
+	public SimulationRunner(Settings config, String[] rolesets, int players, long seed)
+	{
+		this.m_config = config;
+		this.m_rolesets = rolesets;
+		this.m_players = players;
+		this.m_seed = seed;
+	}
+
+	/**
+	 * Plays a single game of the run.
+	 *
+	 * @param index
+	 *            The number of the game within the run.
+	 * @return The outcome.
+	 */
+	public Simulation.Result play(int index)
+	{
+		long seed = this.m_seed + index * 0x9E3779B97F4A7C15L;
+		Strategy[] strategies = new Strategy[this.m_players];
+		for (int i = 0; i < strategies.length; ++i)
+			strategies[i] = this.m_strategy;
+		return new Simulation(this.m_config, this.m_rolesets[index % this.m_rolesets.length], strategies, seed, this.m_maxRounds).run();
+	}
+
+	/**
+	 * Plays every game of the run.
+	 *
+	 * @param games
+	 *            The number of games to play.
+	 * @param pool
+	 *            The pool to play them on.
+	 * @return The totals for each roleset, by roleset name.
+	 */
+	public TreeMap<String, Tally> run(int games, ForkJoinPool pool)
+	{
+		return pool.invoke(new Batch(0, games));
+	}
+
+	/**
+	 * @param maxRounds
+	 *            The number of nights after which a game is abandoned.
+	 */
+	public void setMaxRounds(int maxRounds)
+	{
+		this.m_maxRounds = maxRounds;
+	}
+
+	/**
+	 * @param strategy
+	 *            The strategy every player uses. Must not keep any state
+	 *            between calls, since games run in parallel.
+	 */
+	public void setStrategy(Strategy strategy)
+	{
+		this.m_strategy = strategy;
+	}
+}
@@ -0,0 +1,195 @@
+package werewolf.sim;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+import werewolf.Game;
+import werewolf.IrcUser;
+import werewolf.define.Transport;
+
+/**
+ * An in-memory stand-in for {@link werewolf.WerewolfHost WerewolfHost}. Output
+ * is counted and, if asked for, kept as a transcript of raw IRC lines. Mode
+ * changes are reflected straight back to the game as if the server had
+ * confirmed them, and every task on the game's lane runs immediately on the
+ * calling thread.
+ */
+public class StandInBot implements Transport
+{
+	private static final Executor	DIRECT			= (task) -> task.run();
+
+	private String					m_nick			= "JWolf";
+	private Game					m_game;
+	private ArrayList<String>		m_transcript	= null;
+	private long					m_lines			= 0;
+	private boolean					m_quit			= false;
+
+	/**
+	 * Connects the bot to the game it is standing in for, so mode changes can
+	 * be reported back.
+	 */
+	public void attach(Game game)
+	{
+		this.m_game = game;
+	}
+
+	@Override
+	public void deOp(String channel, String nick)
+	{
+		this.mode(channel, "-o", nick);
+		IrcUser user = this.m_game.getUser(nick);
+		if (user != null)
+			user.onOpChange(false);
+	}
+
+	@Override
+	public void deVoice(String channel, String nick)
+	{
+		this.mode(channel, "-v", nick);
+		IrcUser user = this.m_game.getUser(nick);
+		if (user != null)
+			user.onVoiceChange(false);
+	}
+
+	/**
+	 * @return The number of lines the game has sent.
+	 */
+	public long getLines()
+	{
+		return this.m_lines;
+	}
+
+	@Override
+	public String getNick()
+	{
+		return this.m_nick;
+	}
+
+	/**
+	 * @return Every line sent so far, or null if the transcript is not being
+	 *         kept.
+	 */
+	public String[] getTranscript()
+	{
+		if (this.m_transcript == null)
+			return null;
+		return this.m_transcript.toArray(new String[this.m_transcript.size()]);
+	}
+
+	@Override
+	public Executor getWorkers()
+	{
+		return StandInBot.DIRECT;
+	}
+
+	/**
+	 * @return True if the game asked the bot to quit.
+	 */
+	public boolean hasQuit()
+	{
+		return this.m_quit;
+	}
+
+	@Override
+	public void kick(String channel, String nick)
+	{
+		this.kick(channel, nick, nick);
+	}
+
+	@Override
+	public void kick(String channel, String nick, String reason)
+	{
+		this.send("KICK " + channel + " " + nick + " :" + reason);
+		this.m_game.onPart(nick);
+	}
+
+	private void mode(String channel, String mode, String nick)
+	{
+		this.send("MODE " + channel + " " + mode + " " + nick);
+	}
+
+	@Override
+	public void op(String channel, String nick)
+	{
+		this.mode(channel, "+o", nick);
+		IrcUser user = this.m_game.getUser(nick);
+		if (user != null)
+			user.onOpChange(true);
+	}
+
+	@Override
+	public void queueAction(String target, String message, int priority)
+	{
+		this.send("PRIVMSG " + target + " :\u0001ACTION " + message + "\u0001");
+	}
+
+	@Override
+	public void queueMessage(String target, String message, int priority)
+	{
+		this.send("PRIVMSG " + target + " :" + message);
+	}
+
+	@Override
+	public void queueMessage(String[] targets, String message, int priority)
+	{
+		for (int i = 0; i < targets.length; ++i)
+			this.queueMessage(targets[i], message, priority);
+	}
+
+	@Override
+	public void queueNotice(String target, String message, int priority)
+	{
+		this.send("NOTICE " + target + " :" + message);
+	}
+
+	@Override
+	public void queueNotice(String[] targets, String message, int priority)
+	{
+		for (int i = 0; i < targets.length; ++i)
+			this.queueNotice(targets[i], message, priority);
+	}
+
+	@Override
+	public void quitServer()
+	{
+		this.quitServer("");
+	}
+
+	@Override
+	public void quitServer(String reason)
+	{
+		this.send("QUIT :" + reason);
+		this.m_quit = true;
+	}
+
+	/**
+	 * Keeps a copy of every line sent from now on.
+	 */
+	public void record()
+	{
+		if (this.m_transcript == null)
+			this.m_transcript = new ArrayList<String>();
+	}
+
+	private void send(String line)
+	{
+		++this.m_lines;
+		if (this.m_transcript != null)
+			this.m_transcript.add(line);
+	}
+
+	@Override
+	public void sendInvite(String nick, String channel)
+	{
+		this.send("INVITE " + nick + " " + channel);
+	}
+
+	@Override
+	public void voice(String channel, String nick)
+	{
+		this.mode(channel, "+v", nick);
+		IrcUser user = this.m_game.getUser(nick);
+		if (user != null)
+			user.onVoiceChange(true);
+	}
+}
@@ -0,0 +1,28 @@
+package werewolf.sim;
+
+import java.util.Random;
+
+import werewolf.IrcUser;
+
+/**
+ * Decides what a simulated player says. A strategy is asked once per player
+ * per phase, and whatever it returns is handled exactly as if the player had
+ * typed it.
+ */
+public interface Strategy
+{
+	/**
+	 * @param self
+	 *            The player deciding.
+	 * @param players
+	 *            Every player still in the game, including this one.
+	 * @param phase
+	 *            The current phase. See {@link werewolf.Game#getPhase()}.
+	 * @param random
+	 *            The simulation's random source. Strategies should draw only
+	 *            from this so that a seed always plays out the same game.
+	 * @return A command line without its command character, or null to do
+	 *         nothing this phase.
+	 */
+	public String act(IrcUser self, IrcUser[] players, int phase, Random random);
+}
@@ -0,0 +1,36 @@
+package werewolf.tiebreaker;
+
+import werewolf.Game;
+import werewolf.IrcUser;
+import werewolf.define.Tiebreaker;
+import werewolf.util.VoteTally;
+
+/**
+ * Breaks a tie in favour of the leader whose tally was reached first, that is
+ * the one whose latest vote came earliest in the day. Changing a vote away and
+ * back again therefore counts against the target.
+ */
+public class FirstToLead implements Tiebreaker
+{
+	@Override
+	public IrcUser breakFinalTie(Game currentGame)
+	{
+		IrcUser[] leaders = this.breakTie(currentGame);
+		return leaders.length == 0 ? null : leaders[0];
+	}
+
+	@Override
+	public IrcUser[] breakTie(Game currentGame)
+	{
+		IrcUser[] leaders = currentGame.getLeaders();
+		if (leaders.length < 2)
+			return leaders;
+		VoteTally votes = currentGame.getVotes();
+		IrcUser first = leaders[0];
+		for (int i = 1; i < leaders.length; ++i)
+			if (votes.getReached(leaders[i]) < votes.getReached(first))
+				first = leaders[i];
+		return new IrcUser[]
+		{ first };
+	}
+}
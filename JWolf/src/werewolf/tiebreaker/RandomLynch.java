@@ -0,0 +1,29 @@
+package werewolf.tiebreaker;
+
+import werewolf.Game;
+import werewolf.IrcUser;
+import werewolf.define.Tiebreaker;
+
+/**
+ * Breaks a tie by picking one of the leaders at random, using the game's own
+ * random number generator.
+ */
+public class RandomLynch implements Tiebreaker
+{
+	@Override
+	public IrcUser breakFinalTie(Game currentGame)
+	{
+		IrcUser[] leaders = currentGame.getLeaders();
+		if (leaders.length == 0)
+			return null;
+		return leaders[currentGame.getRandom().nextInt(leaders.length)];
+	}
+
+	@Override
+	public IrcUser[] breakTie(Game currentGame)
+	{
+		IrcUser chosen = this.breakFinalTie(currentGame);
+		return chosen == null ? new IrcUser[0] : new IrcUser[]
+		{ chosen };
+	}
+}
@@ -0,0 +1,215 @@
+package werewolf.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A dispatch table from command aliases to the objects that own them. Aliases
+ * are stored lowercased in a character trie, so matching a chat line costs a
+ * single walk over the characters of its command and allocates nothing.
+ * <P>
+ * Several owners may share an alias. The owner bound with the lowest rank wins,
+ * with ties going to whichever was bound first.
+ *
+ * @param <T>
+ *            The type of object that owns the aliases.
+ */
+public class AliasTrie<T>
+{
+	/**
+	 * An alias bound to its owner.
+	 */
+	public static class Binding<T>
+	{
+		private String	m_alias;
+		private T		m_owner;
+		private int		m_rank;
+
+		private Binding(String alias, T owner, int rank)
+		{
+			this.m_alias = alias;
+			this.m_owner = owner;
+			this.m_rank = rank;
+		}
+
+		/**
+		 * @return The lowercased alias that was matched.
+		 */
+		public String getAlias()
+		{
+			return this.m_alias;
+		}
+
+		/**
+		 * @return The object the alias belongs to.
+		 */
+		public T getOwner()
+		{
+			return this.m_owner;
+		}
+	}
+
+	private static class Node<T>
+	{
+		private char[]					m_keys		= new char[0];
+		private Node<T>[]				m_children	= Node.empty();
+		private ArrayList<Binding<T>>	m_bindings	= null;
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private static <T> Node<T>[] empty()
+		{
+			return new Node[0];
+		}
+
+		private Node<T> add(char key)
+		{
+			int index = this.indexOf(key);
+			if (index >= 0)
+				return this.m_children[index];
+			index = -index - 1;
+			char[] keys = new char[this.m_keys.length + 1];
+			Node<T>[] children = Arrays.copyOf(this.m_children, keys.length);
+			System.arraycopy(this.m_keys, 0, keys, 0, index);
+			System.arraycopy(this.m_keys, index, keys, index + 1, this.m_keys.length - index);
+			System.arraycopy(this.m_children, index, children, index + 1, this.m_children.length - index);
+			keys[index] = key;
+			children[index] = new Node<T>();
+			this.m_keys = keys;
+			this.m_children = children;
+			return children[index];
+		}
+
+		private Node<T> get(char key)
+		{
+			int index = this.indexOf(key);
+			if (index < 0)
+				return null;
+			return this.m_children[index];
+		}
+
+		private int indexOf(char key)
+		{
+			int low = 0;
+			int high = this.m_keys.length - 1;
+			while (low <= high)
+			{
+				int mid = (low + high) >>> 1;
+				if (this.m_keys[mid] < key)
+					low = mid + 1;
+				else if (this.m_keys[mid] > key)
+					high = mid - 1;
+				else
+					return mid;
+			}
+			return -(low + 1);
+		}
+
+		private Binding<T> top()
+		{
+			if (this.m_bindings == null || this.m_bindings.isEmpty())
+				return null;
+			return this.m_bindings.get(0);
+		}
+	}
+
+	private Node<T>	m_root	= new Node<T>();
+
+	/**
+	 * Binds every alias of an owner.
+	 *
+	 * @param aliases
+	 *            The aliases to bind. Empty aliases are ignored.
+	 * @param owner
+	 *            The object the aliases dispatch to.
+	 * @param rank
+	 *            The precedence of this owner over others sharing an alias.
+	 *            Lower ranks win.
+	 */
+	public void bind(String[] aliases, T owner, int rank)
+	{
+		for (int i = 0; i < aliases.length; ++i)
+		{
+			if (aliases[i].length() == 0)
+				continue;
+			String alias = aliases[i].toLowerCase();
+			Node<T> node = this.m_root;
+			for (int j = 0; j < alias.length(); ++j)
+				node = node.add(alias.charAt(j));
+			if (node.m_bindings == null)
+				node.m_bindings = new ArrayList<Binding<T>>(1);
+			int index = 0;
+			while (index < node.m_bindings.size() && node.m_bindings.get(index).m_rank <= rank)
+				++index;
+			node.m_bindings.add(index, new Binding<T>(alias, owner, rank));
+		}
+	}
+
+	/**
+	 * Finds the binding for an exact alias.
+	 *
+	 * @param alias
+	 *            The alias, in any case.
+	 * @return The winning binding, or null if the alias is not bound.
+	 */
+	public Binding<T> get(String alias)
+	{
+		Node<T> node = this.m_root;
+		for (int i = 0; i < alias.length() && node != null; ++i)
+			node = node.get(Character.toLowerCase(alias.charAt(i)));
+		if (node == null)
+			return null;
+		return node.top();
+	}
+
+	/**
+	 * Finds the alias a chat line starts with. An alias only matches if it is
+	 * followed by a space or the end of the line, and the longest such alias
+	 * is used.
+	 *
+	 * @param message
+	 *            The chat line, with any command character removed.
+	 * @return The winning binding, or null if the line is not a command.
+	 */
+	public Binding<T> match(String message)
+	{
+		Binding<T> found = null;
+		Node<T> node = this.m_root;
+		for (int i = 0; node != null; ++i)
+		{
+			if (i == message.length() || message.charAt(i) == ' ')
+				if (node.top() != null)
+					found = node.top();
+			if (i == message.length())
+				break;
+			node = node.get(Character.toLowerCase(message.charAt(i)));
+		}
+		return found;
+	}
+
+	/**
+	 * Removes every binding made for an owner with {@link #bind}.
+	 *
+	 * @param aliases
+	 *            The aliases the owner was bound with.
+	 * @param owner
+	 *            The owner to unbind.
+	 */
+	public void unbind(String[] aliases, T owner)
+	{
+		for (int i = 0; i < aliases.length; ++i)
+		{
+			String alias = aliases[i].toLowerCase();
+			Node<T> node = this.m_root;
+			for (int j = 0; j < alias.length() && node != null; ++j)
+				node = node.get(alias.charAt(j));
+			if (node == null || node.m_bindings == null)
+				continue;
+			for (int j = 0; j < node.m_bindings.size(); ++j)
+				if (node.m_bindings.get(j).m_owner == owner)
+				{
+					node.m_bindings.remove(j);
+					break;
+				}
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package werewolf.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import werewolf.IrcUser;
+
+/**
+ * Keeps track of when each protection and infection in a game starts and
+ * stops working. An effect is given the rounds it starts and finishes in when
+ * it lands, and is filed under those rounds, so ending a round only touches
+ * the effects that start or finish at that point rather than polling every
+ * effect every player carries.
+ * <P>
+ * Rounds are counted in nights. An effect with a delay of <code>d</code> and a
+ * duration of <code>n</code> that lands during night <code>r</code> works from
+ * night <code>r + d</code> until the end of night <code>r + d + n</code>, or
+ * for the rest of the game if <code>n</code> is negative. A protection that
+ * runs out of charges is retired at the end of the night it ran out.
+ */
+public class EffectWheel
+{
+	private static class Effect
+	{
+		private IrcUser		m_user;
+		private Protection	m_protection;
+		private Infection	m_infection;
+
+		private Effect(IrcUser user, Protection protection, Infection infection)
+		{
+			this.m_user = user;
+			this.m_protection = protection;
+			this.m_infection = infection;
+		}
+	}
+
+	private static void put(HashMap<Integer, ArrayList<Effect>> buckets, int round, Effect effect)
+	{
+		ArrayList<Effect> bucket = buckets.get(round);
+		if (bucket == null)
+			buckets.put(round, bucket = new ArrayList<Effect>());
+		bucket.add(effect);
+	}
+
+	private static void start(Effect effect)
+	{
+		if (effect.m_protection != null)
+			effect.m_protection.start();
+		else
+			effect.m_infection.start();
+	}
+
+	private HashMap<Integer, ArrayList<Effect>>	m_starting	= new HashMap<Integer, ArrayList<Effect>>();
+	private HashMap<Integer, ArrayList<Effect>>	m_ending	= new HashMap<Integer, ArrayList<Effect>>();
+	private int									m_round		= 0;
+
+	/**
+	 * Files a protection that has just landed on a player.
+	 */
+	public void add(IrcUser user, Protection protection)
+	{
+		this.file(new Effect(user, protection, null), protection.getDelay(), protection.getDuration());
+	}
+
+	/**
+	 * Files an infection that has just landed on a player.
+	 */
+	public void add(IrcUser user, Infection infection)
+	{
+		this.file(new Effect(user, null, infection), infection.getDelay(), infection.getDuration());
+	}
+
+	/**
+	 * Forgets every effect and starts counting rounds again. Called when a game
+	 * ends.
+	 */
+	public void clear()
+	{
+		this.m_starting.clear();
+		this.m_ending.clear();
+		this.m_round = 0;
+	}
+
+	/**
+	 * Ends the current round. Effects finishing in it are taken off their
+	 * players, and effects starting in the next one begin working.
+	 */
+	public void endRound()
+	{
+		ArrayList<Effect> ending = this.m_ending.remove(this.m_round);
+		if (ending != null)
+			for (Effect effect : ending)
+				if (effect.m_protection != null)
+					effect.m_user.removeProtection(effect.m_protection);
+				else
+					effect.m_user.removeInfection(effect.m_infection);
+		++this.m_round;
+		ArrayList<Effect> starting = this.m_starting.remove(this.m_round);
+		if (starting != null)
+			for (Effect effect : starting)
+				EffectWheel.start(effect);
+	}
+
+	private void file(Effect effect, int delay, int duration)
+	{
+		int start = this.m_round + Math.max(0, delay);
+		if (start == this.m_round)
+			EffectWheel.start(effect);
+		else
+			EffectWheel.put(this.m_starting, start, effect);
+		if (duration >= 0)
+			EffectWheel.put(this.m_ending, start + duration, effect);
+	}
+
+	/**
+	 * @return The number of rounds ended so far this game.
+	 */
+	public int getRound()
+	{
+		return this.m_round;
+	}
+
+	/**
+	 * Retires a protection at the end of the current round, ahead of when it
+	 * was due. Called once it has used up its charges.
+	 */
+	public void retire(IrcUser user, Protection protection)
+	{
+		EffectWheel.put(this.m_ending, this.m_round, new Effect(user, protection, null));
+	}
+}
@@ -0,0 +1,338 @@
+package werewolf.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import werewolf.Game;
+import werewolf.IrcUser;
+
+/**
+ * Records what a game receives from IRC so the game can be played again later.
+ * Only what reaches the game is kept: users joining, leaving and changing nick,
+ * chat lines, the game starting, and phases ending on their timers. Each event
+ * is stamped with the milliseconds since recording began. Along with the
+ * game's seed, written at the top of the file, that is enough to play the game
+ * out exactly as it went.
+ * <P>
+ * Events are written in a compact binary form through a buffer, which is
+ * flushed whenever a phase ends and when the bot shuts down. A recording is
+ * read back with {@link Reader}.
+ */
+public class EventRecorder
+{
+	/**
+	 * One recorded event.
+	 */
+	public static class Event
+	{
+		private long		m_time;
+		private int			m_type;
+		private String[]	m_args;
+		private boolean		m_flag;
+
+		/**
+		 * Hands the event to a game the same way the bot did when it was
+		 * recorded.
+		 *
+		 * @param game
+		 *            The game to play the event in.
+		 */
+		public void apply(Game game)
+		{
+			switch (this.m_type)
+			{
+				case JOIN:
+					game.onJoin(new IrcUser(game, this.m_args[0], this.m_args[1], this.m_args[2]), this.m_flag);
+					break;
+				case MESSAGE:
+					IrcUser user = game.getUser(this.m_args[0]);
+					if (user != null)
+						game.onMessage(user, this.m_args[1], this.m_flag);
+					break;
+				case NICK:
+					game.onNickChange(this.m_args[0], this.m_args[1]);
+					break;
+				case PART:
+					game.onPart(this.m_args[0]);
+					break;
+				case QUIT:
+					game.onQuit(this.m_args[0]);
+					break;
+				case START:
+					game.startGame();
+					break;
+				case END:
+					game.endPhase();
+					break;
+			}
+		}
+
+		/**
+		 * @return The milliseconds between the start of the recording and the
+		 *         event.
+		 */
+		public long getTime()
+		{
+			return this.m_time;
+		}
+
+		@Override
+		public String toString()
+		{
+			StringBuilder out = new StringBuilder();
+			out.append(this.m_time).append(' ').append(EventRecorder.NAMES[this.m_type]);
+			for (int i = 0; i < this.m_args.length; ++i)
+				out.append(' ').append(this.m_args[i]);
+			return out.toString();
+		}
+	}
+
+	/**
+	 * Reads a recording back one event at a time.
+	 */
+	public static class Reader implements Closeable
+	{
+		private DataInputStream	m_in;
+		private long			m_seed;
+		private String			m_channel;
+
+		/**
+		 * Opens a recording and reads its header.
+		 *
+		 * @param file
+		 *            The recording.
+		 * @throws IOException
+		 *             If the file cannot be read or is not a recording.
+		 */
+		public Reader(String file) throws IOException
+		{
+			this.m_in = new DataInputStream(new BufferedInputStream(Files.newInputStream(Paths.get(file)), 1 << 16));
+			if (this.m_in.readInt() != EventRecorder.MAGIC)
+			{
+				this.m_in.close();
+				throw new IOException(file + " is not a game recording.");
+			}
+			this.m_seed = this.m_in.readLong();
+			this.m_channel = this.m_in.readUTF();
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			this.m_in.close();
+		}
+
+		/**
+		 * @return The channel the game was recorded in.
+		 */
+		public String getChannel()
+		{
+			return this.m_channel;
+		}
+
+		/**
+		 * @return The seed the recorded game was played with.
+		 */
+		public long getSeed()
+		{
+			return this.m_seed;
+		}
+
+		/**
+		 * @return The next event, or null at the end of the recording. An
+		 *         event cut off by a crash counts as the end.
+		 */
+		public Event next() throws IOException
+		{
+			try
+			{
+				Event event = new Event();
+				event.m_time = this.m_in.readLong();
+				event.m_type = this.m_in.readUnsignedByte();
+				if (event.m_type >= EventRecorder.ARGS.length)
+					throw new IOException("Unknown event type " + event.m_type + ".");
+				event.m_args = new String[EventRecorder.ARGS[event.m_type]];
+				for (int i = 0; i < event.m_args.length; ++i)
+					event.m_args[i] = this.m_in.readUTF();
+				if (event.m_type == EventRecorder.JOIN || event.m_type == EventRecorder.MESSAGE)
+					event.m_flag = this.m_in.readBoolean();
+				return event;
+			} catch (EOFException e)
+			{
+				return null;
+			}
+		}
+	}
+
+	private static final int		MAGIC		= 0x4A57524B;
+
+	private static final int		JOIN		= 0;
+	private static final int		MESSAGE		= 1;
+	private static final int		NICK		= 2;
+	private static final int		PART		= 3;
+	private static final int		QUIT		= 4;
+	private static final int		START		= 5;
+	private static final int		END			= 6;
+
+	private static final String[]	NAMES		=
+												{ "JOIN", "MESSAGE", "NICK", "PART", "QUIT", "START", "END" };
+	private static final int[]		ARGS		=
+												{ 3, 2, 2, 1, 1, 0, 0 };
+
+	private DataOutputStream		m_out		= null;
+	private long					m_start;
+
+	/**
+	 * Creates a recorder that records nothing.
+	 */
+	public EventRecorder()
+	{
+	}
+
+	/**
+	 * Starts a new recording.
+	 *
+	 * @param file
+	 *            The file to record to. Any existing file is replaced.
+	 * @param seed
+	 *            The seed the game is played with.
+	 * @param channel
+	 *            The game's channel.
+	 */
+	public EventRecorder(String file, long seed, String channel)
+	{
+		try
+		{
+			Path path = Paths.get(file);
+			if (path.getParent() != null)
+				Files.createDirectories(path.getParent());
+			this.m_out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+			this.m_out.writeInt(EventRecorder.MAGIC);
+			this.m_out.writeLong(seed);
+			this.m_out.writeUTF(channel);
+			this.m_start = System.nanoTime();
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> this.flush()));
+		} catch (IOException e)
+		{
+			System.err.println("Error starting game recording, not recording.");
+			e.printStackTrace();
+			this.m_out = null;
+		}
+	}
+
+	/**
+	 * Records a phase ending.
+	 */
+	public void end()
+	{
+		this.record(EventRecorder.END, false);
+		this.flush();
+	}
+
+	/**
+	 * Writes out everything recorded so far.
+	 */
+	public synchronized void flush()
+	{
+		if (this.m_out == null)
+			return;
+		try
+		{
+			this.m_out.flush();
+		} catch (IOException e)
+		{
+			this.stop(e);
+		}
+	}
+
+	/**
+	 * Records a user joining the channel.
+	 *
+	 * @param chanList
+	 *            True if the user was found in the channel's user list.
+	 */
+	public void join(IrcUser user, boolean chanList)
+	{
+		this.record(EventRecorder.JOIN, chanList, user.getNick(), user.getUser(), user.getHost());
+	}
+
+	/**
+	 * Records a chat line reaching the game.
+	 */
+	public void message(IrcUser user, String message, boolean isChannel)
+	{
+		this.record(EventRecorder.MESSAGE, isChannel, user.getNick(), message);
+	}
+
+	/**
+	 * Records a nick change.
+	 */
+	public void nick(String oldNick, String newNick)
+	{
+		this.record(EventRecorder.NICK, false, oldNick, newNick);
+	}
+
+	/**
+	 * Records a user being kicked or otherwise removed from the channel.
+	 */
+	public void part(String nick)
+	{
+		this.record(EventRecorder.PART, false, nick);
+	}
+
+	/**
+	 * Records a user leaving the channel.
+	 */
+	public void quit(String nick)
+	{
+		this.record(EventRecorder.QUIT, false, nick);
+	}
+
+	private synchronized void record(int type, boolean flag, String... args)
+	{
+		if (this.m_out == null)
+			return;
+		try
+		{
+			this.m_out.writeLong(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.m_start));
+			this.m_out.writeByte(type);
+			for (int i = 0; i < args.length; ++i)
+				this.m_out.writeUTF(args[i] == null ? "" : args[i]);
+			if (type == EventRecorder.JOIN || type == EventRecorder.MESSAGE)
+				this.m_out.writeBoolean(flag);
+		} catch (IOException e)
+		{
+			this.stop(e);
+		}
+	}
+
+	/**
+	 * Records the game starting.
+	 */
+	public void start()
+	{
+		this.record(EventRecorder.START, false);
+	}
+
+	private void stop(IOException e)
+	{
+		System.err.println("Error writing game recording, recording stopped.");
+		e.printStackTrace();
+		try
+		{
+			this.m_out.close();
+		} catch (IOException ignored)
+		{
+		}
+		this.m_out = null;
+	}
+}
@@ -0,0 +1,638 @@
+package werewolf.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+import backend.U;
+import backend.lib.lzmastreams.LzmaInputStream;
+import backend.lib.lzmastreams.LzmaOutputStream;
+import werewolf.Game;
+import werewolf.IrcUser;
+import werewolf.define.interactable.Item;
+import werewolf.define.interactable.Role;
+import werewolf.define.interactable.Status;
+
+/**
+ * Records every change to a game's state so that the game can be rebuilt after
+ * the bot is restarted.
+ * <P>
+ * Each event is applied to an in-memory copy of the state and queued for a
+ * background thread. The thread compresses whole batches with LZMA and appends
+ * each as a checksummed frame to the segment file, then forces it to disk. Once
+ * enough events have been journaled, and at every phase change, the state is
+ * written out with {@link U#objWriteToFile} and the segment is emptied.
+ * <P>
+ * On start-up the last snapshot is read and the segment replayed over it.
+ * Every event carries a sequence number, so events already in the snapshot are
+ * skipped, and a frame torn by a crash fails its checksum and ends the replay.
+ */
+public class GameJournal implements Runnable
+{
+	/**
+	 * Everything the journal knows about a game. Kept as plain names so it can
+	 * be serialized without the game's objects.
+	 */
+	public static class State implements Serializable
+	{
+		private static final long					serialVersionUID	= 1L;
+
+		private long								m_seq				= 0;
+		private int									m_phase				= 0;
+		private String								m_roleset			= null;
+		private LinkedHashMap<String, UserState>	m_users				= new LinkedHashMap<String, UserState>();
+		private LinkedHashMap<String, String>		m_votes				= new LinkedHashMap<String, String>();
+
+		private State()
+		{
+		}
+
+		private State(State other)
+		{
+			this.m_seq = other.m_seq;
+			this.m_phase = other.m_phase;
+			this.m_roleset = other.m_roleset;
+			for (Map.Entry<String, UserState> entry : other.m_users.entrySet())
+				this.m_users.put(entry.getKey(), new UserState(entry.getValue()));
+			this.m_votes.putAll(other.m_votes);
+		}
+
+		private void apply(int type, String[] args)
+		{
+			UserState user = args.length > 0 ? this.m_users.get(args[0].toLowerCase()) : null;
+			switch (type)
+			{
+				case JOIN:
+					if (user == null)
+						this.m_users.put(args[0].toLowerCase(), new UserState(args[0], args[1], args[2]));
+					break;
+				case PART:
+					this.m_users.remove(args[0].toLowerCase());
+					this.unvote(args[0]);
+					break;
+				case NICK:
+					if (user == null)
+						break;
+					this.m_users.remove(args[0].toLowerCase());
+					user.m_nick = args[1];
+					this.m_users.put(args[1].toLowerCase(), user);
+					this.renameVotes(args[0], args[1]);
+					break;
+				case PLAYER:
+				case UNPLAYER:
+					if (user != null)
+						user.m_player = type == GameJournal.PLAYER;
+					break;
+				case ROLE:
+					if (user != null)
+						user.m_role = args[1];
+					break;
+				case ITEM:
+				case STATUS:
+					if (user != null)
+						(type == GameJournal.ITEM ? user.m_items : user.m_statuses).add(args[1]);
+					break;
+				case UNITEM:
+				case UNSTATUS:
+					if (user != null)
+						(type == GameJournal.UNITEM ? user.m_items : user.m_statuses).remove(args[1]);
+					break;
+				case VOTE:
+					if (args[1].length() == 0)
+						this.m_votes.remove(args[0].toLowerCase());
+					else
+						this.m_votes.put(args[0].toLowerCase(), args[1]);
+					break;
+				case PHASE:
+					this.m_phase = Integer.parseInt(args[0]);
+					this.m_votes.clear();
+					break;
+				case ROLESET:
+					this.m_roleset = args[0];
+					break;
+			}
+		}
+
+		private void renameVotes(String oldNick, String newNick)
+		{
+			String vote = this.m_votes.remove(oldNick.toLowerCase());
+			if (vote != null)
+				this.m_votes.put(newNick.toLowerCase(), vote);
+			for (Map.Entry<String, String> entry : this.m_votes.entrySet())
+				if (entry.getValue().equalsIgnoreCase(oldNick))
+					entry.setValue(newNick);
+		}
+
+		private void unvote(String nick)
+		{
+			this.m_votes.remove(nick.toLowerCase());
+			Iterator<String> targets = this.m_votes.values().iterator();
+			while (targets.hasNext())
+				if (targets.next().equalsIgnoreCase(nick))
+					targets.remove();
+		}
+	}
+
+	private static class UserState implements Serializable
+	{
+		private static final long	serialVersionUID	= 1L;
+
+		private String				m_nick;
+		private String				m_user;
+		private String				m_host;
+		private boolean				m_player			= false;
+		private String				m_role				= null;
+		private ArrayList<String>	m_items				= new ArrayList<String>();
+		private ArrayList<String>	m_statuses			= new ArrayList<String>();
+
+		private UserState(String nick, String user, String host)
+		{
+			this.m_nick = nick;
+			this.m_user = user;
+			this.m_host = host;
+		}
+
+		private UserState(UserState other)
+		{
+			this.m_nick = other.m_nick;
+			this.m_user = other.m_user;
+			this.m_host = other.m_host;
+			this.m_player = other.m_player;
+			this.m_role = other.m_role;
+			this.m_items.addAll(other.m_items);
+			this.m_statuses.addAll(other.m_statuses);
+		}
+	}
+
+	private static final int	JOIN		= 1;
+	private static final int	PART		= 2;
+	private static final int	NICK		= 3;
+	private static final int	PLAYER		= 4;
+	private static final int	UNPLAYER	= 5;
+	private static final int	ROLE		= 6;
+	private static final int	ITEM		= 7;
+	private static final int	UNITEM		= 8;
+	private static final int	STATUS		= 9;
+	private static final int	UNSTATUS	= 10;
+	private static final int	VOTE		= 11;
+	private static final int	PHASE		= 12;
+	private static final int	ROLESET		= 13;
+
+	/**
+	 * Dictionary size for each frame, as a power of two. Frames hold a few
+	 * hundred bytes, so the default of a megabyte would only cost memory.
+	 */
+	private static final int	DICTIONARY	= 16;
+
+	/**
+	 * Longest time an event waits before being forced to disk.
+	 */
+	private static final long	INTERVAL	= TimeUnit.MILLISECONDS.toNanos(100);
+
+	/**
+	 * Creates an instance of a journaled role, item or status. Classes taking
+	 * the game and owner are preferred, as the built-in ones do.
+	 */
+	private static <T> T create(String name, Game game, IrcUser owner) throws ReflectiveOperationException
+	{
+		Class<?> type = Class.forName(name);
+		try
+		{
+			Constructor<?> constructor = type.getConstructor(Game.class, IrcUser.class);
+			return U.cleanCast(constructor.newInstance(game, owner));
+		} catch (NoSuchMethodException e)
+		{
+			return U.cleanCast(type.newInstance());
+		}
+	}
+
+	private Path							m_file;
+	private Path							m_segmentFile;
+	private int								m_snapshotAfter;
+	private State							m_state			= new State();
+	private ConcurrentLinkedQueue<byte[]>	m_queue			= new ConcurrentLinkedQueue<byte[]>();
+	private FileChannel						m_segment;
+	private int								m_sinceSnapshot	= 0;
+	private volatile boolean				m_snapshotDue	= false;
+	private Thread							m_writer;
+
+	/**
+	 * Creates a journal that records nothing. Games start with one of these
+	 * until the host gives them a real journal.
+	 */
+	public GameJournal()
+	{
+	}
+
+	/**
+	 * Opens a journal. Nothing is read until {@link #restore(Game)} is called.
+	 *
+	 * @param file
+	 *            The file snapshots are written to. The segment is kept next
+	 *            to it with {@code .seg} appended.
+	 * @param snapshotAfter
+	 *            The number of events after which a snapshot is written.
+	 */
+	public GameJournal(String file, int snapshotAfter)
+	{
+		this.m_file = Paths.get(file);
+		this.m_segmentFile = Paths.get(file + ".seg");
+		this.m_snapshotAfter = Math.max(1, snapshotAfter);
+	}
+
+	/**
+	 * Appends every queued event to the segment as one compressed frame,
+	 * without forcing it.
+	 *
+	 * @return The number of events written.
+	 */
+	private int drain()
+	{
+		ByteArrayOutputStream batch = null;
+		int written = 0;
+		byte[] event;
+		while ((event = this.m_queue.poll()) != null)
+		{
+			if (batch == null)
+				batch = new ByteArrayOutputStream();
+			batch.write(event, 0, event.length);
+			++written;
+		}
+		if (batch == null)
+			return 0;
+		try
+		{
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			try (OutputStream out = new LzmaOutputStream(compressed, GameJournal.DICTIONARY, null))
+			{
+				batch.writeTo(out);
+			}
+			byte[] frame = compressed.toByteArray();
+			CRC32 crc = new CRC32();
+			crc.update(frame, 0, frame.length);
+			ByteBuffer bytes = ByteBuffer.allocate(12 + frame.length);
+			bytes.putInt(frame.length).putLong(crc.getValue()).put(frame).flip();
+			this.open();
+			while (bytes.hasRemaining())
+				this.m_segment.write(bytes);
+		} catch (IOException e)
+		{
+			System.err.println("Error writing game journal.");
+			e.printStackTrace();
+		}
+		return written;
+	}
+
+	/**
+	 * Forces every queued event to disk, and writes a snapshot if one is due.
+	 */
+	public synchronized void flush()
+	{
+		if (this.m_file == null)
+			return;
+		if (this.drain() > 0)
+			try
+			{
+				this.m_segment.force(false);
+			} catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+		if (this.m_snapshotDue)
+			this.snapshot();
+	}
+
+	/**
+	 * @return The votes cast this phase, by lowercased voter nick. Empty if
+	 *         the journal records nothing.
+	 */
+	public Map<String, String> getVotes()
+	{
+		synchronized (this.m_state)
+		{
+			return new LinkedHashMap<String, String>(this.m_state.m_votes);
+		}
+	}
+
+	/**
+	 * Records an item being given to or taken from a user.
+	 */
+	public void item(IrcUser user, Item item, boolean added)
+	{
+		this.record(added ? GameJournal.ITEM : GameJournal.UNITEM, user.getNick(), item.getClass().getName());
+	}
+
+	/**
+	 * Records a user joining the channel.
+	 */
+	public void join(IrcUser user)
+	{
+		this.record(GameJournal.JOIN, user.getNick(), user.getUser(), user.getHost());
+	}
+
+	/**
+	 * Records a user changing nick.
+	 */
+	public void nick(String oldNick, String newNick)
+	{
+		this.record(GameJournal.NICK, oldNick, newNick);
+	}
+
+	private void open() throws IOException
+	{
+		if (this.m_segment == null)
+			this.m_segment = FileChannel.open(this.m_segmentFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * Records a user leaving the channel, along with any votes for or by them.
+	 */
+	public void part(String nick)
+	{
+		this.record(GameJournal.PART, nick);
+	}
+
+	/**
+	 * Records the game moving to a new phase. Votes are cleared, and a
+	 * snapshot is written soon after.
+	 */
+	public void phase(int phase)
+	{
+		this.record(GameJournal.PHASE, Integer.toString(phase));
+		this.m_snapshotDue = this.m_file != null;
+	}
+
+	/**
+	 * Records a user becoming a player, or going back to being a user.
+	 */
+	public void player(String nick, boolean isPlayer)
+	{
+		this.record(isPlayer ? GameJournal.PLAYER : GameJournal.UNPLAYER, nick);
+	}
+
+	private void record(int type, String... args)
+	{
+		if (this.m_file == null)
+			return;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+		DataOutputStream out = new DataOutputStream(bytes);
+		synchronized (this.m_state)
+		{ // Queue order must match sequence order.
+			try
+			{
+				out.writeLong(++this.m_state.m_seq);
+				out.writeByte(type);
+				out.writeByte(args.length);
+				for (int i = 0; i < args.length; ++i)
+					out.writeUTF(args[i] == null ? "" : args[i]);
+			} catch (IOException e)
+			{ // ByteArrayOutputStream never throws.
+			}
+			this.m_state.apply(type, args);
+			this.m_queue.add(bytes.toByteArray());
+			if (++this.m_sinceSnapshot >= this.m_snapshotAfter)
+				this.m_snapshotDue = true;
+		}
+	}
+
+	/**
+	 * Reads the segment, applying every whole frame's events that are newer
+	 * than the snapshot. Stops at the first frame that is cut short, claims to
+	 * be longer than what is left of the segment, or fails its checksum.
+	 */
+	private void replay() throws IOException
+	{
+		if (!Files.exists(this.m_segmentFile))
+			return;
+		long left = Files.size(this.m_segmentFile);
+		try (DataInputStream in = new DataInputStream(Files.newInputStream(this.m_segmentFile)))
+		{
+			while (true)
+			{
+				byte[] frame;
+				long checksum;
+				try
+				{
+					int length = in.readInt();
+					checksum = in.readLong();
+					left -= 12;
+					if (length < 0 || length > left)
+						return; // A corrupt length. Checked before allocating.
+					left -= length;
+					frame = new byte[length];
+					in.readFully(frame);
+				} catch (EOFException e)
+				{
+					return; // End of the segment, or a frame torn by a crash.
+				}
+				CRC32 crc = new CRC32();
+				crc.update(frame, 0, frame.length);
+				if (crc.getValue() != checksum)
+					return;
+				try (InputStream lzma = new LzmaInputStream(new ByteArrayInputStream(frame)))
+				{
+					DataInputStream events = new DataInputStream(lzma);
+					while (true)
+					{
+						long seq;
+						try
+						{
+							seq = events.readLong();
+						} catch (EOFException e)
+						{
+							break;
+						}
+						int type = events.readByte();
+						String[] args = new String[events.readByte()];
+						for (int i = 0; i < args.length; ++i)
+							args[i] = events.readUTF();
+						if (seq <= this.m_state.m_seq)
+							continue;
+						this.m_state.m_seq = seq;
+						this.m_state.apply(type, args);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Loads the last snapshot and replays the segment over it, then rebuilds
+	 * the game from the result and starts journaling. Users, players, roles,
+	 * items, statuses and the roleset are restored exactly. A game that was
+	 * running carries on in the phase it was in, with the phase's timer
+	 * started afresh.
+	 * <P>
+	 * Call this before the game is given the journal, so rebuilding it is not
+	 * journaled a second time.
+	 *
+	 * @param game
+	 *            A newly created game for the journal's channel.
+	 */
+	public synchronized void restore(Game game)
+	{
+		if (this.m_file == null)
+			return;
+		long start = System.nanoTime();
+		if (this.m_file.getParent() != null)
+			this.m_file.getParent().toFile().mkdirs();
+		if (Files.exists(this.m_file))
+			try
+			{
+				this.m_state = U.objReadFromFile(this.m_file.toString());
+			} catch (IOException | ClassNotFoundException | ClassCastException e)
+			{
+				System.err.println("Error reading game snapshot, replaying journal from scratch.");
+				this.m_state = new State();
+			}
+		try
+		{
+			this.replay();
+		} catch (IOException e)
+		{
+			System.err.println("Error replaying game journal.");
+			e.printStackTrace();
+		}
+
+		State state = this.m_state;
+		if (state.m_roleset != null)
+			game.setRoleset(state.m_roleset);
+		for (UserState saved : state.m_users.values())
+		{
+			IrcUser user = game.getUser(saved.m_nick);
+			if (user == null)
+			{
+				user = new IrcUser(game, saved.m_nick, saved.m_user, saved.m_host);
+				game.onJoin(user);
+			}
+			try
+			{
+				if (saved.m_role != null)
+					user.setRole(GameJournal.<Role> create(saved.m_role, game, user));
+				for (String item : saved.m_items)
+					user.addItem(GameJournal.<Item> create(item, game, user));
+				for (String status : saved.m_statuses)
+					user.addStatus(GameJournal.<Status> create(status, game, user));
+			} catch (ReflectiveOperationException | ClassCastException e)
+			{
+				System.err.println("Error restoring " + saved.m_nick + ": " + e);
+				game.errorLog("Could not restore " + saved.m_nick + ": " + e);
+			}
+			if (saved.m_player)
+				user.makePlayer();
+		}
+		if (state.m_phase != 0)
+			game.resumePhase(state.m_phase);
+		for (Map.Entry<String, String> vote : state.m_votes.entrySet())
+			game.vote(game.getPlayer(vote.getKey()), game.getPlayer(vote.getValue()));
+		if (!state.m_users.isEmpty())
+			System.out.println("Restored " + game.getChannel() + " (" + state.m_users.size() + " users, phase " + state.m_phase + ") in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms.");
+
+		this.snapshot();
+		this.m_writer = new Thread(this, "GameJournal-" + this.m_file.getFileName());
+		this.m_writer.setDaemon(true);
+		this.m_writer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> this.flush()));
+	}
+
+	/**
+	 * Records a user's role being replaced.
+	 */
+	public void role(IrcUser user, Role role)
+	{
+		this.record(GameJournal.ROLE, user.getNick(), role.getClass().getName());
+	}
+
+	/**
+	 * Records the roleset chosen for the next game.
+	 */
+	public void roleset(String name)
+	{
+		this.record(GameJournal.ROLESET, name);
+	}
+
+	@Override
+	public void run()
+	{
+		while (true)
+		{
+			this.flush();
+			LockSupport.parkNanos(this, GameJournal.INTERVAL);
+		}
+	}
+
+	/**
+	 * Writes the state to the snapshot file and empties the segment. The
+	 * snapshot is written to a temporary file and moved into place, so a
+	 * crash part way through leaves the previous snapshot and the full
+	 * segment behind.
+	 */
+	private synchronized void snapshot()
+	{
+		this.drain();
+		State copy;
+		synchronized (this.m_state)
+		{
+			copy = new State(this.m_state);
+			this.m_sinceSnapshot = 0;
+			this.m_snapshotDue = false;
+		}
+		File temp = new File(this.m_file + ".tmp");
+		try
+		{
+			U.objWriteToFile(copy, temp.getPath());
+			Files.move(temp.toPath(), this.m_file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			this.open();
+			this.m_segment.truncate(0);
+			this.m_segment.force(true);
+		} catch (IOException e)
+		{
+			System.err.println("Error writing game snapshot.");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Records a status being given to or taken from a user.
+	 */
+	public void status(IrcUser user, Status status, boolean added)
+	{
+		this.record(added ? GameJournal.STATUS : GameJournal.UNSTATUS, user.getNick(), status.getClass().getName());
+	}
+
+	/**
+	 * Records a vote. Votes are cleared at each phase change.
+	 *
+	 * @param voter
+	 *            The nick of the player voting.
+	 * @param target
+	 *            The nick voted for, or the empty string to withdraw a vote.
+	 */
+	public void vote(String voter, String target)
+	{
+		this.record(GameJournal.VOTE, voter, target);
+	}
+}
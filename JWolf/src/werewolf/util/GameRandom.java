@@ -0,0 +1,80 @@
+package werewolf.util;
+
+import java.util.Random;
+
+/**
+ * A seeded random number generator for one game. Numbers come from the
+ * SplitMix64 sequence, which needs a single add and a few multiplies per draw
+ * and no locking, so a game can draw as often as it likes.
+ * <P>
+ * Each part of the game draws from its own named stream, made with
+ * {@link #split(String)}. A stream depends only on the game's seed and its
+ * name, so extra draws in one part of the game never shift the numbers another
+ * part sees, and the same seed always plays the same game. Streams are not
+ * safe to share between threads; give each thread its own.
+ */
+public class GameRandom extends Random
+{
+	private static final long	GAMMA				= 0x9E3779B97F4A7C15L;
+	private static final long	serialVersionUID	= 1L;
+
+	private static long mix(long z)
+	{
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	private long	m_seed;
+	private long	m_state;
+
+	/**
+	 * @param seed
+	 *            The seed. The same seed always gives the same numbers.
+	 */
+	public GameRandom(long seed)
+	{
+		super(0);
+		this.setSeed(seed);
+	}
+
+	/**
+	 * @return The seed this generator started from.
+	 */
+	public long getSeed()
+	{
+		return this.m_seed;
+	}
+
+	@Override
+	protected int next(int bits)
+	{
+		return (int) (this.nextLong() >>> (64 - bits));
+	}
+
+	@Override
+	public long nextLong()
+	{
+		return GameRandom.mix(this.m_state += GameRandom.GAMMA);
+	}
+
+	@Override
+	public void setSeed(long seed)
+	{
+		this.m_seed = seed;
+		this.m_state = seed;
+	}
+
+	/**
+	 * Makes a stream whose numbers depend only on this generator's seed and
+	 * the stream's name, not on how much this generator has been used.
+	 *
+	 * @param stream
+	 *            The name of the stream.
+	 * @return The new generator.
+	 */
+	public GameRandom split(String stream)
+	{
+		return new GameRandom(GameRandom.mix(this.m_seed ^ GameRandom.mix(stream.hashCode() * GameRandom.GAMMA)));
+	}
+}
@@ -14,6 +14,7 @@ public class Infection
 	private IrcUser		m_user;
 	private boolean		m_isRecruit;
 	private Reactable	m_callback	= null;
+	private boolean		m_active	= false;
 
 	/**
 	 * Initializes this infection. By general convention, an infection is
@@ -52,28 +53,27 @@ public class Infection
 
 	/**
 	 * Checks to see if the infection blossomed. Called once per round during
-	 * the infection calculation phase.
+	 * the infection calculation phase. The infection's {@link EffectWheel}
+	 * starts it once its delay has passed and takes it away once its duration
+	 * is up, so this only rolls the chance.
 	 * 
 	 * @return 2 if the infection was successful and should override other
 	 *         infections.<BR>
 	 *         1 if the infection was successful but should not override other
 	 *         infections.<BR>
-	 *         0 if the infection was unsuccessful but continues.<BR>
-	 *         -1 if the infection has finished unsucessfully.<BR>
+	 *         0 if the infection was unsuccessful or has not started yet.<BR>
 	 */
 	public int checkBlossom()
 	{
-		if (this.m_delay-- > 0)
+		if (!this.m_active)
 			return 0;
-		if (Math.floor(Math.random() * 100) > this.m_chance)
+		if (this.m_user.getGame().getNightRandom().nextInt(100) > this.m_chance)
 		{
 
 			if (this.m_override)
 				return 2;
 			return 1;
 		}
-		if (this.m_duration-- == 0)
-			return -1;
 		return 0;
 	}
 
@@ -87,6 +87,32 @@ public class Infection
 		return this.m_conversion;
 	}
 
+	/**
+	 * @return The number of rounds before this infection's chance is first
+	 *         run.
+	 */
+	public int getDelay()
+	{
+		return this.m_delay;
+	}
+
+	/**
+	 * @return The number of rounds this infection lasts once it has started,
+	 *         or a negative number if it lasts indefinitely.
+	 */
+	public int getDuration()
+	{
+		return this.m_duration;
+	}
+
+	/**
+	 * @return The player who inflicted this infection.
+	 */
+	public IrcUser getUser()
+	{
+		return this.m_user;
+	}
+
 	/**
 	 *
 	 * @return True if this infection was initialized with a duration of zero.
@@ -95,4 +121,12 @@ public class Infection
 	{
 		return this.m_isRecruit;
 	}
+
+	/**
+	 * Starts this infection. Called by {@link EffectWheel}.
+	 */
+	void start()
+	{
+		this.m_active = true;
+	}
 }
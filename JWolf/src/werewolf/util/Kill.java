@@ -73,11 +73,27 @@ public class Kill
 		this.m_callback.onKill(successful);
 	}
 
+	/**
+	 * @return The player being attacked.
+	 */
+	public IrcUser getTarget()
+	{
+		return this.m_target;
+	}
+
 	public int getType()
 	{
 		return this.m_type;
 	}
 
+	/**
+	 * @return The player making the kill.
+	 */
+	public IrcUser getUser()
+	{
+		return this.m_user;
+	}
+
 	public boolean isLethal()
 	{
 		return this.m_power > 0;
@@ -0,0 +1,264 @@
+package werewolf.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import backend.lib.lzmastreams.LzmaOutputStream;
+import werewolf.Settings;
+
+/**
+ * Appends lines to a log file from a background thread. Callers only ever add
+ * to a bounded, lock-free queue, and the writer drains it in batches through a
+ * single open {@link FileChannel}. When the file grows past its size limit or
+ * age limit it is rotated out and compressed with LZMA.
+ * <P>
+ * If the queue is full, lines are dropped rather than blocking the caller, and
+ * a note of how many were lost is written with the next batch.
+ */
+public class LogAppender implements Runnable
+{
+	private static final ConcurrentHashMap<String, LogAppender>	APPENDERS	= new ConcurrentHashMap<String, LogAppender>();
+
+	/**
+	 * Number of queued lines that wakes the writer before its next interval.
+	 */
+	private static final int									BATCH		= 64;
+
+	/**
+	 * Longest time a line waits in the queue before being written.
+	 */
+	private static final long									INTERVAL	= TimeUnit.MILLISECONDS.toNanos(250);
+
+	/**
+	 * Gets the appender for a log file, starting it on first use. Every game
+	 * writing to the same file shares one appender.
+	 *
+	 * @param location
+	 *            The log file to append to.
+	 * @param config
+	 *            Settings to read the queue capacity and rotation limits from
+	 *            if the appender has not been started yet.
+	 * @return The appender for the file.
+	 */
+	public static LogAppender get(String location, Settings config)
+	{
+		LogAppender appender = LogAppender.APPENDERS.get(location);
+		if (appender != null)
+			return appender;
+		appender = new LogAppender(location, config.getSnapshot().logCapacity, config.getSnapshot().logSize * 1024L, config.getSnapshot().logAge * 1000L);
+		LogAppender existing = LogAppender.APPENDERS.putIfAbsent(location, appender);
+		if (existing != null)
+			return existing;
+		appender.start();
+		return appender;
+	}
+
+	private String							m_location;
+	private int								m_capacity;
+	private long							m_maxSize;
+	private long							m_maxAge;
+
+	private ConcurrentLinkedQueue<String>	m_queue		= new ConcurrentLinkedQueue<String>();
+	private AtomicInteger					m_size		= new AtomicInteger(0);
+	private AtomicLong						m_dropped	= new AtomicLong(0);
+	private Thread							m_writer;
+
+	private FileChannel						m_channel;
+	private long							m_opened;
+	private ByteBuffer						m_buffer	= ByteBuffer.allocateDirect(1 << 16);
+	private Charset							m_charset	= Charset.defaultCharset();
+
+	/**
+	 * @param location
+	 *            The log file to append to.
+	 * @param capacity
+	 *            The most lines that may wait in the queue.
+	 * @param maxSize
+	 *            The size in bytes at which the file is rotated. Zero or less
+	 *            to never rotate by size.
+	 * @param maxAge
+	 *            The age in milliseconds at which the file is rotated. Zero or
+	 *            less to never rotate by age.
+	 */
+	public LogAppender(String location, int capacity, long maxSize, long maxAge)
+	{
+		this.m_location = location;
+		this.m_capacity = capacity;
+		this.m_maxSize = maxSize;
+		this.m_maxAge = maxAge;
+	}
+
+	/**
+	 * Queues text to be appended to the file. Never blocks.
+	 *
+	 * @param text
+	 *            The text to append, including any line break.
+	 * @return False if the queue was full and the text was dropped.
+	 */
+	public boolean append(String text)
+	{
+		if (this.m_size.incrementAndGet() > this.m_capacity)
+		{
+			this.m_size.decrementAndGet();
+			this.m_dropped.incrementAndGet();
+			return false;
+		}
+		this.m_queue.add(text);
+		if (this.m_size.get() == LogAppender.BATCH)
+			LockSupport.unpark(this.m_writer);
+		return true;
+	}
+
+	private void compress(final File segment)
+	{
+		Thread compressor = new Thread(() -> {
+			try (InputStream in = new BufferedInputStream(new FileInputStream(segment)); OutputStream out = new LzmaOutputStream(new BufferedOutputStream(new FileOutputStream(segment.getPath() + ".lzma"))))
+			{
+				byte[] buffer = new byte[1 << 16];
+				int read;
+				while ((read = in.read(buffer)) > 0)
+					out.write(buffer, 0, read);
+			} catch (IOException e)
+			{
+				e.printStackTrace();
+				return;
+			}
+			segment.delete();
+		}, "LogCompressor-" + segment.getName());
+		compressor.setDaemon(false);
+		compressor.start();
+	}
+
+	/**
+	 * Writes everything currently queued to the file. Rotation is checked after
+	 * each batch, so an idle log is only rotated once it is next written to.
+	 */
+	public synchronized void flush()
+	{
+		if (this.m_queue.isEmpty() && this.m_dropped.get() == 0)
+			return;
+		try
+		{
+			this.open();
+			long dropped = this.m_dropped.getAndSet(0);
+			if (dropped > 0)
+				this.write("[" + dropped + " log lines dropped]\n");
+			String text;
+			while ((text = this.m_queue.poll()) != null)
+			{
+				this.m_size.decrementAndGet();
+				this.write(text);
+			}
+			this.m_buffer.flip();
+			while (this.m_buffer.hasRemaining())
+				this.m_channel.write(this.m_buffer);
+			this.m_buffer.clear();
+			this.rotate();
+		} catch (IOException e)
+		{
+			e.printStackTrace();
+			this.m_buffer.clear();
+			this.close();
+			if (!this.m_location.equals("Error.log"))
+			{
+				LogAppender errors = LogAppender.APPENDERS.get("Error.log");
+				if (errors != null)
+					errors.append(e.getMessage() + "\n");
+			}
+		}
+	}
+
+	private void close()
+	{
+		if (this.m_channel == null)
+			return;
+		try
+		{
+			this.m_channel.close();
+		} catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+		this.m_channel = null;
+	}
+
+	private void open() throws IOException
+	{
+		if (this.m_channel != null)
+			return;
+		this.m_channel = FileChannel.open(Paths.get(this.m_location), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		this.m_opened = System.currentTimeMillis();
+	}
+
+	private void rotate() throws IOException
+	{
+		boolean tooBig = this.m_maxSize > 0 && this.m_channel.size() >= this.m_maxSize;
+		boolean tooOld = this.m_maxAge > 0 && System.currentTimeMillis() - this.m_opened >= this.m_maxAge && this.m_channel.size() > 0;
+		if (!tooBig && !tooOld)
+			return;
+		this.close();
+		String name = this.m_location + "." + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+		File segment = new File(name);
+		for (int i = 1; segment.exists() || new File(segment.getPath() + ".lzma").exists(); ++i)
+			segment = new File(name + "-" + i);
+		if (new File(this.m_location).renameTo(segment))
+			this.compress(segment);
+	}
+
+	@Override
+	public void run()
+	{
+		while (true)
+		{
+			this.flush();
+			if (this.m_queue.isEmpty())
+				LockSupport.parkNanos(this, LogAppender.INTERVAL);
+		}
+	}
+
+	private void start()
+	{
+		this.m_writer = new Thread(this, "LogAppender-" + this.m_location);
+		this.m_writer.setDaemon(true);
+		this.m_writer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> this.flush()));
+	}
+
+	private void write(String text) throws IOException
+	{
+		byte[] bytes = text.getBytes(this.m_charset);
+		if (bytes.length > this.m_buffer.remaining())
+		{
+			this.m_buffer.flip();
+			while (this.m_buffer.hasRemaining())
+				this.m_channel.write(this.m_buffer);
+			this.m_buffer.clear();
+		}
+		if (bytes.length > this.m_buffer.capacity())
+		{
+			ByteBuffer large = ByteBuffer.wrap(bytes);
+			while (large.hasRemaining())
+				this.m_channel.write(large);
+		} else
+			this.m_buffer.put(bytes);
+	}
+}
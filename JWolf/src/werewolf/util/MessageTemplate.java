@@ -0,0 +1,125 @@
+package werewolf.util;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A message with numbered placeholders, parsed once into its literal text and
+ * the slots between it. Placeholders are written [1] to [9] and are replaced by
+ * the matching argument when the message is rendered. A placeholder with no
+ * matching argument is left as it is.
+ * <P>
+ * The arrays in {@link werewolf.define.Messages} are compiled on first use and
+ * kept, so choosing and rendering a message never parses it again.
+ */
+public final class MessageTemplate
+{
+	private static final ConcurrentHashMap<String[], MessageTemplate[]>	COMPILED	= new ConcurrentHashMap<String[], MessageTemplate[]>();
+	private static final ThreadLocal<StringBuilder>						BUFFER		= ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+	/**
+	 * Gets the templates for an array of message choices, parsing them the
+	 * first time the array is seen. Arrays are told apart by identity, so this
+	 * is meant for the constant arrays messages are declared in.
+	 *
+	 * @param choices
+	 *            The messages to compile.
+	 * @return One template for each message, in the same order.
+	 */
+	public static MessageTemplate[] compile(String[] choices)
+	{
+		MessageTemplate[] templates = MessageTemplate.COMPILED.get(choices);
+		if (templates != null)
+			return templates;
+		templates = new MessageTemplate[choices.length];
+		for (int i = 0; i < choices.length; ++i)
+			templates[i] = MessageTemplate.parse(choices[i]);
+		MessageTemplate[] existing = MessageTemplate.COMPILED.putIfAbsent(choices, templates);
+		return existing == null ? templates : existing;
+	}
+
+	/**
+	 * Parses a single message.
+	 *
+	 * @param text
+	 *            The message, with placeholders [1] to [9].
+	 * @return The template.
+	 */
+	public static MessageTemplate parse(String text)
+	{
+		ArrayList<String> literals = new ArrayList<String>();
+		ArrayList<Integer> slots = new ArrayList<Integer>();
+		int start = 0;
+		for (int i = 0; i + 2 < text.length(); ++i)
+		{
+			char digit = text.charAt(i + 1);
+			if (text.charAt(i) != '[' || digit < '1' || digit > '9' || text.charAt(i + 2) != ']')
+				continue;
+			literals.add(text.substring(start, i));
+			slots.add(digit - '1');
+			start = i + 3;
+			i += 2;
+		}
+		literals.add(text.substring(start));
+
+		MessageTemplate template = new MessageTemplate();
+		template.m_literals = literals.toArray(new String[literals.size()]);
+		template.m_slots = new int[slots.size()];
+		for (int i = 0; i < template.m_slots.length; ++i)
+			template.m_slots[i] = slots.get(i);
+		template.m_length = text.length();
+		return template;
+	}
+
+	private String[]	m_literals;
+	private int[]		m_slots;
+	private int			m_length;
+
+	private MessageTemplate()
+	{
+	}
+
+	/**
+	 * Renders the message into a buffer kept for the calling thread.
+	 *
+	 * @param args
+	 *            The replacements for [1], [2] and so on.
+	 * @return The finished message.
+	 */
+	public String render(String... args)
+	{
+		StringBuilder out = MessageTemplate.BUFFER.get();
+		out.setLength(0);
+		this.render(out, args);
+		return out.toString();
+	}
+
+	/**
+	 * Appends the rendered message to a buffer.
+	 *
+	 * @param out
+	 *            The buffer to append to.
+	 * @param args
+	 *            The replacements for [1], [2] and so on.
+	 */
+	public void render(StringBuilder out, String... args)
+	{
+		out.ensureCapacity(out.length() + this.m_length + 16 * this.m_slots.length);
+		out.append(this.m_literals[0]);
+		for (int i = 0; i < this.m_slots.length; ++i)
+		{
+			int slot = this.m_slots[i];
+			if (slot < args.length)
+				out.append(args[slot]);
+			else
+				out.append('[').append((char) ('1' + slot)).append(']');
+			out.append(this.m_literals[i + 1]);
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return this.render();
+	}
+}
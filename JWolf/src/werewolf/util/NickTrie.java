@@ -0,0 +1,213 @@
+package werewolf.util;
+
+/**
+ * A suffix trie over lowercased nicks. Every node counts the number of distinct
+ * entries whose nick starts with (prefix) or contains (infix) the path leading
+ * to it, along with the sum of their ids. When a count is exactly one, the sum
+ * is the id of the only matching entry, so partial lookups never need to visit
+ * more than the characters of the query.
+ */
+public class NickTrie
+{
+	private static class Node
+	{
+		private char[]	m_keys			= new char[0];
+		private Node[]	m_children		= new Node[0];
+		private int		m_prefixCount	= 0;
+		private long	m_prefixSum		= 0;
+		private int		m_infixCount	= 0;
+		private long	m_infixSum		= 0;
+		private long	m_stamp			= 0;
+
+		private Node add(char key)
+		{
+			int index = this.indexOf(key);
+			if (index >= 0)
+				return this.m_children[index];
+			index = -index - 1;
+			char[] keys = new char[this.m_keys.length + 1];
+			Node[] children = new Node[keys.length];
+			System.arraycopy(this.m_keys, 0, keys, 0, index);
+			System.arraycopy(this.m_children, 0, children, 0, index);
+			System.arraycopy(this.m_keys, index, keys, index + 1, this.m_keys.length - index);
+			System.arraycopy(this.m_children, index, children, index + 1, this.m_children.length - index);
+			keys[index] = key;
+			children[index] = new Node();
+			this.m_keys = keys;
+			this.m_children = children;
+			return children[index];
+		}
+
+		private Node get(char key)
+		{
+			int index = this.indexOf(key);
+			if (index < 0)
+				return null;
+			return this.m_children[index];
+		}
+
+		private int indexOf(char key)
+		{
+			int low = 0;
+			int high = this.m_keys.length - 1;
+			while (low <= high)
+			{
+				int mid = (low + high) >>> 1;
+				if (this.m_keys[mid] < key)
+					low = mid + 1;
+				else if (this.m_keys[mid] > key)
+					high = mid - 1;
+				else
+					return mid;
+			}
+			return -(low + 1);
+		}
+
+		private void remove(char key)
+		{
+			int index = this.indexOf(key);
+			if (index < 0)
+				return;
+			char[] keys = new char[this.m_keys.length - 1];
+			Node[] children = new Node[keys.length];
+			System.arraycopy(this.m_keys, 0, keys, 0, index);
+			System.arraycopy(this.m_children, 0, children, 0, index);
+			System.arraycopy(this.m_keys, index + 1, keys, index, keys.length - index);
+			System.arraycopy(this.m_children, index + 1, children, index, children.length - index);
+			this.m_keys = keys;
+			this.m_children = children;
+		}
+	}
+
+	/**
+	 * Returned by the find methods when no entry matches.
+	 */
+	public static final long	NOT_FOUND	= -1;
+
+	/**
+	 * Returned by the find methods when more than one entry matches.
+	 */
+	public static final long	AMBIGUOUS	= -2;
+
+	private Node				m_root		= new Node();
+	private long				m_stamp		= 0;
+
+	private static long result(int count, long sum)
+	{
+		if (count == 0)
+			return NickTrie.NOT_FOUND;
+		if (count > 1)
+			return NickTrie.AMBIGUOUS;
+		return sum;
+	}
+
+	/**
+	 * Finds the single entry whose key contains the given string.
+	 *
+	 * @param key
+	 *            The lowercased string to search for.
+	 * @return The id of the matching entry, {@link #NOT_FOUND} or
+	 *         {@link #AMBIGUOUS}.
+	 */
+	public long findInfix(String key)
+	{
+		Node node = this.walk(key);
+		if (node == null)
+			return NickTrie.NOT_FOUND;
+		return NickTrie.result(node.m_infixCount, node.m_infixSum);
+	}
+
+	/**
+	 * Finds the single entry whose key starts with the given string.
+	 *
+	 * @param key
+	 *            The lowercased string to search for.
+	 * @return The id of the matching entry, {@link #NOT_FOUND} or
+	 *         {@link #AMBIGUOUS}.
+	 */
+	public long findPrefix(String key)
+	{
+		Node node = this.walk(key);
+		if (node == null)
+			return NickTrie.NOT_FOUND;
+		return NickTrie.result(node.m_prefixCount, node.m_prefixSum);
+	}
+
+	/**
+	 * Adds an entry to the trie. Ids must be non-negative and unique among the
+	 * entries currently stored.
+	 *
+	 * @param key
+	 *            The lowercased nick of the entry.
+	 * @param id
+	 *            The id of the entry.
+	 */
+	public void insert(String key, long id)
+	{
+		long stamp = ++this.m_stamp;
+		for (int start = 0; start <= key.length(); ++start)
+		{
+			Node node = this.m_root;
+			this.mark(node, stamp, id, 1, start == 0);
+			for (int i = start; i < key.length(); ++i)
+			{
+				node = node.add(key.charAt(i));
+				this.mark(node, stamp, id, 1, start == 0);
+			}
+		}
+	}
+
+	private void mark(Node node, long stamp, long id, int delta, boolean prefix)
+	{
+		if (prefix)
+		{
+			node.m_prefixCount += delta;
+			node.m_prefixSum += delta * id;
+		}
+		if (node.m_stamp == stamp)
+			return;
+		node.m_stamp = stamp;
+		node.m_infixCount += delta;
+		node.m_infixSum += delta * id;
+	}
+
+	/**
+	 * Removes an entry previously added with {@link #insert}. Branches that no
+	 * longer lead to any entry are pruned.
+	 *
+	 * @param key
+	 *            The lowercased nick the entry was inserted with.
+	 * @param id
+	 *            The id the entry was inserted with.
+	 */
+	public void remove(String key, long id)
+	{
+		long stamp = ++this.m_stamp;
+		for (int start = 0; start <= key.length(); ++start)
+		{
+			Node node = this.m_root;
+			this.mark(node, stamp, id, -1, start == 0);
+			for (int i = start; i < key.length(); ++i)
+			{
+				Node child = node.get(key.charAt(i));
+				if (child == null)
+					break;
+				this.mark(child, stamp, id, -1, start == 0);
+				if (child.m_infixCount == 0)
+				{
+					node.remove(key.charAt(i));
+					break;
+				}
+				node = child;
+			}
+		}
+	}
+
+	private Node walk(String key)
+	{
+		Node node = this.m_root;
+		for (int i = 0; i < key.length() && node != null; ++i)
+			node = node.get(key.charAt(i));
+		return node;
+	}
+}
@@ -0,0 +1,250 @@
+package werewolf.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+
+import werewolf.Game;
+import werewolf.IrcUser;
+import werewolf.define.Reactable;
+
+/**
+ * Collects the actions players submit during a night and resolves them in one
+ * pass. Actions are queued by stage and indexed by target, so resolving a
+ * night costs time in proportion to the actions taken rather than to the
+ * number of players and everything they hold.
+ * <P>
+ * Stages run in a fixed order: blocks, protections, kills, peeks and then,
+ * unless the game has been won, infections. Within a stage actions resolve in
+ * the order they were submitted, so the same submissions always give the same
+ * outcome. Any action from a player who was blocked earlier in the pass is
+ * dropped, except for recruit infections, which cannot be blocked.
+ * <P>
+ * A player is taken out of the game as soon as a lethal kill on them resolves,
+ * which keeps the game's win counters current for the check before
+ * infections.
+ */
+public class NightResolver
+{
+	/**
+	 * Carries out a peek once it is known not to be blocked.
+	 */
+	public interface PeekAction
+	{
+		/**
+		 * @param additions
+		 *            The peek modifiers the peeker's role, items and statuses
+		 *            set up.
+		 * @param target
+		 *            The player being peeked.
+		 */
+		public void peek(PeekMod additions, IrcUser target);
+	}
+
+	public static final int	BLOCK	= 0x01;
+	public static final int	PROTECT	= 0x02;
+	public static final int	KILL	= 0x04;
+	public static final int	PEEK	= 0x08;
+	public static final int	INFECT	= 0x10;
+
+	private static class Action
+	{
+		private IrcUser		m_actor;
+		private IrcUser		m_target;
+		private Object		m_payload;
+		private Reactable	m_source;
+
+		private Action(IrcUser actor, IrcUser target, Object payload, Reactable source)
+		{
+			this.m_actor = actor;
+			this.m_target = target;
+			this.m_payload = payload;
+			this.m_source = source;
+		}
+	}
+
+	private ArrayList<Action>						m_blocks		= new ArrayList<Action>();
+	private ArrayList<Action>						m_protections	= new ArrayList<Action>();
+	private LinkedHashMap<IrcUser, ArrayList<Kill>>	m_kills			= new LinkedHashMap<IrcUser, ArrayList<Kill>>();
+	private ArrayList<Action>						m_peeks			= new ArrayList<Action>();
+	private ArrayList<Action>						m_infections	= new ArrayList<Action>();
+	private HashMap<IrcUser, Integer>				m_targeted		= new HashMap<IrcUser, Integer>();
+
+	private HashSet<IrcUser>						m_blocked		= new HashSet<IrcUser>();
+	private ArrayList<IrcUser>						m_deaths		= new ArrayList<IrcUser>();
+	private boolean									m_resolved		= false;
+
+	/**
+	 * Queues a block. The target's {@link IrcUser#onBlocked()} is called once
+	 * no matter how many players block them.
+	 *
+	 * @param actor
+	 *            The player blocking.
+	 * @param target
+	 *            The player being blocked.
+	 * @param source
+	 *            Told through {@link Reactable#onBlock} whether the block
+	 *            changed anything.
+	 */
+	public void block(IrcUser actor, IrcUser target, Reactable source)
+	{
+		this.m_blocks.add(new Action(actor, target, null, source));
+		this.mark(target, NightResolver.BLOCK);
+	}
+
+	/**
+	 * @return The players who died this night in the order their first lethal
+	 *         kill resolved. Empty until {@link #resolve} has run.
+	 */
+	public IrcUser[] getDeaths()
+	{
+		return this.m_deaths.toArray(new IrcUser[this.m_deaths.size()]);
+	}
+
+	/**
+	 * @param target
+	 *            A player.
+	 * @return The stages that have actions aimed at the player, ORed together.
+	 */
+	public int getTargeted(IrcUser target)
+	{
+		Integer mask = this.m_targeted.get(target);
+		return mask == null ? 0 : mask;
+	}
+
+	/**
+	 * Queues an infection. It is added to the target's infections when it
+	 * resolves.
+	 */
+	public void infect(IrcUser target, Infection infection)
+	{
+		this.m_infections.add(new Action(infection.getUser(), target, infection, null));
+		this.mark(target, NightResolver.INFECT);
+	}
+
+	/**
+	 * @param user
+	 *            A player.
+	 * @return True if the player has been blocked so far in the pass.
+	 */
+	public boolean isBlocked(IrcUser user)
+	{
+		return this.m_blocked.contains(user);
+	}
+
+	private boolean isBlocked(Action action)
+	{
+		return action.m_actor != null && this.m_blocked.contains(action.m_actor);
+	}
+
+	/**
+	 * Queues a kill. Kills on the same target resolve together.
+	 */
+	public void kill(Kill kill)
+	{
+		ArrayList<Kill> kills = this.m_kills.get(kill.getTarget());
+		if (kills == null)
+		{
+			kills = new ArrayList<Kill>(2);
+			this.m_kills.put(kill.getTarget(), kills);
+		}
+		kills.add(kill);
+		this.mark(kill.getTarget(), NightResolver.KILL);
+	}
+
+	private void mark(IrcUser target, int type)
+	{
+		Integer mask = this.m_targeted.get(target);
+		this.m_targeted.put(target, mask == null ? type : mask | type);
+	}
+
+	/**
+	 * Queues a peek.
+	 *
+	 * @param actor
+	 *            The player peeking.
+	 * @param target
+	 *            The player being peeked.
+	 * @param action
+	 *            Reports the result to the peeker.
+	 */
+	public void peek(IrcUser actor, IrcUser target, PeekAction action)
+	{
+		this.m_peeks.add(new Action(actor, target, action, null));
+		this.mark(target, NightResolver.PEEK);
+	}
+
+	/**
+	 * Queues a protection. It is added to the target's protections when it
+	 * resolves, and then lasts as long as its duration allows.
+	 */
+	public void protect(IrcUser target, Protection protection)
+	{
+		this.m_protections.add(new Action(protection.getUser(), target, protection, null));
+		this.mark(target, NightResolver.PROTECT);
+	}
+
+	/**
+	 * Resolves every queued action. Does nothing if called more than once.
+	 *
+	 * @param game
+	 *            The game, which loses each player as they are killed and is
+	 *            checked for a win before infections resolve.
+	 */
+	public void resolve(Game game)
+	{
+		if (this.m_resolved)
+			return;
+		this.m_resolved = true;
+
+		for (Action block : this.m_blocks)
+		{
+			if (this.isBlocked(block))
+				continue;
+			boolean changed = false;
+			if (this.m_blocked.add(block.m_target))
+				changed = block.m_target.onBlocked();
+			if (block.m_source != null)
+				block.m_source.onBlock(changed);
+		}
+
+		for (Action protection : this.m_protections)
+			if (!this.isBlocked(protection))
+				protection.m_target.addProtection((Protection) protection.m_payload);
+
+		for (ArrayList<Kill> kills : this.m_kills.values())
+			for (Kill kill : kills)
+			{
+				if (kill.getUser() != null && this.m_blocked.contains(kill.getUser()))
+					continue;
+				kill.execute();
+				if (kill.isLethal() && !this.m_deaths.contains(kill.getTarget()))
+				{
+					this.m_deaths.add(kill.getTarget());
+					game.removePlayer(kill.getTarget());
+				}
+			}
+
+		for (Action peek : this.m_peeks)
+		{
+			if (this.isBlocked(peek))
+				continue;
+			PeekMod additions = new PeekMod();
+			peek.m_actor.peekSetup(additions);
+			peek.m_target.onPeek(peek.m_actor);
+			((PeekAction) peek.m_payload).peek(additions, peek.m_target);
+		}
+
+		if (game.calcWin())
+			return;
+
+		for (Action infection : this.m_infections)
+		{
+			Infection payload = (Infection) infection.m_payload;
+			if (!payload.isRecruit() && this.isBlocked(infection))
+				continue;
+			infection.m_target.addInfection(payload);
+		}
+	}
+}
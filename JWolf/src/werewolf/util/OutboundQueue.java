@@ -0,0 +1,450 @@
+package werewolf.util;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+/**
+ * Schedules outgoing IRC messages. Messages wait in one of three priority
+ * lanes and are sent to a line sink (normally
+ * {@link werewolf.net.IrcClient#sendRawLine}) by a background thread.
+ * <P>
+ * To drain bursts quickly, consecutive messages of the same kind to the same
+ * target are joined into as few lines as fit under the IRC length limit, and a
+ * message sent word for word to several targets goes out as one multi-target
+ * PRIVMSG or NOTICE when the server allows it. Sending is paced by a token
+ * bucket for the whole connection, and any target that receives a long run of
+ * lines is slowed down so other targets get a turn.
+ */
+public class OutboundQueue implements Runnable
+{
+	/**
+	 * Lane for messages the game cannot continue without, such as phase
+	 * announcements in the game channel.
+	 */
+	public static final int	GAME		= 0;
+
+	/**
+	 * Lane for private information sent to a single player.
+	 */
+	public static final int	PRIVATE		= 1;
+
+	/**
+	 * Lane for everything else, such as relayed team chat.
+	 */
+	public static final int	CHATTER		= 2;
+
+	private static final int	LANES		= 3;
+
+	private static final int	PRIVMSG		= 0;
+	private static final int	NOTICE		= 1;
+	private static final int	ACTION		= 2;
+
+	/**
+	 * Room left for the sender prefix the server adds when relaying a line.
+	 */
+	private static final int	PREFIX		= 100;
+
+	/**
+	 * Maximum length of a line, excluding the trailing CR-LF.
+	 */
+	private static final int	MAX_LINE	= 510;
+
+	/**
+	 * Text placed between messages that were joined into one line.
+	 */
+	private static final String	SEPARATOR	= " | ";
+
+	private static class Message
+	{
+		private String	m_target;
+		private String	m_text;
+		private int		m_type;
+
+		private Message(String target, String text, int type)
+		{
+			this.m_target = target;
+			this.m_text = text;
+			this.m_type = type;
+		}
+	}
+
+	private static class Target
+	{
+		private long	m_nextAllowed	= 0;
+		private long	m_lastSent		= 0;
+		private int		m_penalty		= 0;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private ArrayDeque<Message>[]	m_lanes			= new ArrayDeque[OutboundQueue.LANES];
+	private HashMap<String, Target>	m_targets		= new HashMap<String, Target>();
+	private Consumer<String>		m_sink;
+	private Thread					m_sender;
+
+	private long					m_delay;
+	private int						m_burst;
+	private double					m_tokens;
+	private long					m_refilled		= System.currentTimeMillis();
+	private int						m_maxTargets	= 1;
+
+	private long					m_linesSent		= 0;
+	private long					m_messagesSent	= 0;
+	private long					m_coalesced		= 0;
+
+	/**
+	 * @param sink
+	 *            Receives each raw line when it is time to send it.
+	 * @param delay
+	 *            Milliseconds between lines once the burst allowance is used
+	 *            up.
+	 * @param burst
+	 *            Number of lines that may be sent back to back after a quiet
+	 *            period.
+	 */
+	public OutboundQueue(Consumer<String> sink, long delay, int burst)
+	{
+		for (int i = 0; i < OutboundQueue.LANES; ++i)
+			this.m_lanes[i] = new ArrayDeque<Message>();
+		this.m_sink = sink;
+		this.m_delay = Math.max(1, delay);
+		this.m_burst = Math.max(1, burst);
+		this.m_tokens = this.m_burst;
+	}
+
+	private synchronized void add(String target, String text, int type, int priority)
+	{
+		this.m_lanes[Math.max(0, Math.min(OutboundQueue.LANES - 1, priority))].add(new Message(target, text, type));
+		this.notifyAll();
+	}
+
+	private synchronized void add(String[] targets, String text, int type, int priority)
+	{
+		ArrayDeque<Message> lane = this.m_lanes[Math.max(0, Math.min(OutboundQueue.LANES - 1, priority))];
+		for (int i = 0; i < targets.length; ++i)
+			lane.add(new Message(targets[i], text, type));
+		this.notifyAll();
+	}
+
+	/**
+	 * Queues a CTCP ACTION. Actions are never joined with other messages.
+	 */
+	public void addAction(String target, String text, int priority)
+	{
+		this.add(target, text, OutboundQueue.ACTION, priority);
+	}
+
+	/**
+	 * Queues a PRIVMSG.
+	 *
+	 * @param target
+	 *            The channel or nick to send to.
+	 * @param text
+	 *            The message.
+	 * @param priority
+	 *            {@link #GAME}, {@link #PRIVATE} or {@link #CHATTER}.
+	 */
+	public void addMessage(String target, String text, int priority)
+	{
+		this.add(target, text, OutboundQueue.PRIVMSG, priority);
+	}
+
+	/**
+	 * Queues the same PRIVMSG for several targets in one step. The copies sit
+	 * next to each other in the lane, so they are sent as multi-target lines
+	 * when the server allows it.
+	 */
+	public void addMessage(String[] targets, String text, int priority)
+	{
+		this.add(targets, text, OutboundQueue.PRIVMSG, priority);
+	}
+
+	/**
+	 * Queues a NOTICE.
+	 */
+	public void addNotice(String target, String text, int priority)
+	{
+		this.add(target, text, OutboundQueue.NOTICE, priority);
+	}
+
+	/**
+	 * Queues the same NOTICE for several targets in one step.
+	 */
+	public void addNotice(String[] targets, String text, int priority)
+	{
+		this.add(targets, text, OutboundQueue.NOTICE, priority);
+	}
+
+	private String command(int type)
+	{
+		return type == OutboundQueue.NOTICE ? "NOTICE " : "PRIVMSG ";
+	}
+
+	/**
+	 * @return The number of messages waiting in every lane.
+	 */
+	public synchronized int getDepth()
+	{
+		int depth = 0;
+		for (int i = 0; i < OutboundQueue.LANES; ++i)
+			depth += this.m_lanes[i].size();
+		return depth;
+	}
+
+	/**
+	 * @param priority
+	 *            The lane to check.
+	 * @return The number of messages waiting in the lane.
+	 */
+	public synchronized int getDepth(int priority)
+	{
+		return this.m_lanes[priority].size();
+	}
+
+	/**
+	 * @return The number of messages that were sent as part of another line
+	 *         rather than on a line of their own.
+	 */
+	public synchronized long getCoalesced()
+	{
+		return this.m_coalesced;
+	}
+
+	/**
+	 * @return The number of raw lines sent.
+	 */
+	public synchronized long getLinesSent()
+	{
+		return this.m_linesSent;
+	}
+
+	/**
+	 * @return The number of queued messages sent.
+	 */
+	public synchronized long getMessagesSent()
+	{
+		return this.m_messagesSent;
+	}
+
+	private boolean isFirstFor(ArrayDeque<Message> lane, Message message)
+	{
+		for (Message check : lane)
+			if (check == message)
+				return true;
+			else if (check.m_target.equalsIgnoreCase(message.m_target))
+				return false;
+		return false;
+	}
+
+	/**
+	 * Forgets targets whose penalty has worn off, so the table does not grow
+	 * with every nick the bot has ever messaged.
+	 */
+	private void prune(long now)
+	{
+		if (this.m_targets.size() < 1024)
+			return;
+		for (Iterator<Target> it = this.m_targets.values().iterator(); it.hasNext();)
+			if (now - it.next().m_lastSent > this.m_delay * 4 * 8)
+				it.remove();
+	}
+
+	private Target target(String name)
+	{
+		String key = name.toLowerCase();
+		Target target = this.m_targets.get(key);
+		if (target == null)
+		{
+			target = new Target();
+			this.m_targets.put(key, target);
+		}
+		return target;
+	}
+
+	/**
+	 * Takes the next line to send, joining messages where possible.
+	 *
+	 * @param now
+	 *            The current time.
+	 * @return The line, or null if nothing may be sent yet.
+	 */
+	private String next(long now)
+	{
+		for (int i = 0; i < OutboundQueue.LANES; ++i)
+		{
+			ArrayDeque<Message> lane = this.m_lanes[i];
+			for (Iterator<Message> it = lane.iterator(); it.hasNext();)
+			{
+				Message head = it.next();
+				if (this.target(head.m_target).m_nextAllowed > now)
+					continue;
+				it.remove();
+				String line = this.coalesce(lane, head);
+				if (line == null)
+					line = this.multiTarget(lane, head);
+				this.sent(head.m_target, now);
+				return line;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Appends the following messages of the same kind for the same target to
+	 * the head, stopping at the first one that does not fit.
+	 *
+	 * @return The joined line, or null if nothing could be joined.
+	 */
+	private String coalesce(ArrayDeque<Message> lane, Message head)
+	{
+		if (head.m_type == OutboundQueue.ACTION)
+			return null;
+		String prefix = this.command(head.m_type) + head.m_target + " :";
+		int limit = OutboundQueue.MAX_LINE - OutboundQueue.PREFIX - prefix.length();
+		StringBuilder text = null;
+		for (Iterator<Message> it = lane.iterator(); it.hasNext();)
+		{
+			Message next = it.next();
+			if (!next.m_target.equalsIgnoreCase(head.m_target))
+				continue;
+			int length = (text == null ? head.m_text.length() : text.length()) + OutboundQueue.SEPARATOR.length() + next.m_text.length();
+			if (next.m_type != head.m_type || length > limit)
+				break;
+			if (text == null)
+				text = new StringBuilder(head.m_text);
+			text.append(OutboundQueue.SEPARATOR).append(next.m_text);
+			it.remove();
+			++this.m_coalesced;
+			++this.m_messagesSent;
+		}
+		if (text == null)
+			return null;
+		++this.m_messagesSent;
+		return prefix + text;
+	}
+
+	/**
+	 * Sends the head to every other target waiting on the same text, up to the
+	 * server's target limit.
+	 *
+	 * @return The line for the head and any extra targets.
+	 */
+	private String multiTarget(ArrayDeque<Message> lane, Message head)
+	{
+		++this.m_messagesSent;
+		if (head.m_type == OutboundQueue.ACTION)
+			return "PRIVMSG " + head.m_target + " :\u0001ACTION " + head.m_text + "\u0001";
+		StringBuilder targets = new StringBuilder(head.m_target);
+		int count = 1;
+		long now = System.currentTimeMillis();
+		for (Iterator<Message> it = lane.iterator(); it.hasNext() && count < this.m_maxTargets;)
+		{
+			Message next = it.next();
+			if (next.m_type != head.m_type || !next.m_text.equals(head.m_text) || next.m_target.equalsIgnoreCase(head.m_target))
+				continue;
+			if (this.target(next.m_target).m_nextAllowed > now || !this.isFirstFor(lane, next))
+				continue;
+			if (this.command(head.m_type).length() + targets.length() + next.m_target.length() + 3 + head.m_text.length() > OutboundQueue.MAX_LINE - OutboundQueue.PREFIX)
+				break;
+			targets.append(',').append(next.m_target);
+			it.remove();
+			this.sent(next.m_target, now);
+			++this.m_coalesced;
+			++this.m_messagesSent;
+			++count;
+		}
+		return this.command(head.m_type) + targets + " :" + head.m_text;
+	}
+
+	@Override
+	public void run()
+	{
+		while (true)
+			try
+			{
+				String line;
+				synchronized (this)
+				{
+					line = this.take();
+				}
+				this.m_sink.accept(line);
+			} catch (InterruptedException e)
+			{
+				return;
+			} catch (Throwable e)
+			{
+				e.printStackTrace();
+			}
+	}
+
+	/**
+	 * Records a line sent to a target. A target that keeps receiving lines
+	 * builds up a penalty that delays its next line, and the penalty wears off
+	 * while the target is left alone.
+	 */
+	private void sent(String name, long now)
+	{
+		Target target = this.target(name);
+		int idle = (int) ((now - target.m_lastSent) / (this.m_delay * 4));
+		target.m_penalty = Math.max(0, target.m_penalty - idle) + 1;
+		target.m_lastSent = now;
+		target.m_nextAllowed = now + this.m_delay * Math.max(0, Math.min(target.m_penalty, 8) - 2);
+	}
+
+	/**
+	 * Sets how many targets a single PRIVMSG or NOTICE may name, as advertised
+	 * by the server.
+	 *
+	 * @param maxTargets
+	 *            The limit. One disables multi-target messages.
+	 */
+	public synchronized void setMaxTargets(int maxTargets)
+	{
+		this.m_maxTargets = Math.max(1, maxTargets);
+	}
+
+	/**
+	 * Starts the sending thread.
+	 */
+	public void start()
+	{
+		this.m_sender = new Thread(this, "OutboundQueue");
+		this.m_sender.setDaemon(true);
+		this.m_sender.start();
+	}
+
+	/**
+	 * Waits until a line may be sent and takes it. Must hold the monitor.
+	 */
+	private String take() throws InterruptedException
+	{
+		while (true)
+		{
+			long now = System.currentTimeMillis();
+			this.m_tokens = Math.min(this.m_burst, this.m_tokens + (now - this.m_refilled) / (double) this.m_delay);
+			this.m_refilled = now;
+			long wait = 0;
+			if (this.m_tokens >= 1)
+			{
+				String line = this.next(now);
+				if (line != null)
+				{
+					this.m_tokens -= 1;
+					++this.m_linesSent;
+					this.prune(now);
+					return line;
+				}
+				for (int i = 0; i < OutboundQueue.LANES; ++i)
+					for (Message message : this.m_lanes[i])
+					{
+						long ready = this.target(message.m_target).m_nextAllowed - now;
+						if (wait == 0 || ready < wait)
+							wait = Math.max(1, ready);
+					}
+			} else
+				wait = (long) Math.ceil((1 - this.m_tokens) * this.m_delay);
+			this.wait(wait);
+		}
+	}
+}
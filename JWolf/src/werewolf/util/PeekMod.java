@@ -36,7 +36,7 @@ public class PeekMod
 		if (!ignorant)
 		{
 			if (this.isConfused)
-				return Math.random() > .5;
+				return target.getGame().getNightRandom().nextBoolean();
 			if (this.isNaive)
 				return false;
 			if (this.isParanoid)
@@ -0,0 +1,340 @@
+package werewolf.util;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Holds user preferences in memory, indexed by lowercased nick and then by
+ * interned key. Reads never touch the disk.
+ * <P>
+ * Every change is queued as a record for a background thread, which appends
+ * whole batches to a journal and forces them to disk together. Once the
+ * journal grows long enough it is compacted: the full set of preferences is
+ * written to the properties file and the journal is emptied. On start-up the
+ * properties file is loaded and the journal replayed over it, so changes that
+ * reached the journal survive a crash.
+ * <P>
+ * The properties file keeps the flat {@code nick-key} format earlier versions
+ * used. Preferences that do not belong to a user are stored under the empty
+ * nick.
+ */
+public class PreferenceStore implements Runnable
+{
+	/**
+	 * The preferences of one user. A handle stays valid for as long as the
+	 * store does, so callers may keep it rather than looking it up again.
+	 */
+	public static class User
+	{
+		private PreferenceStore						m_store;
+		private String								m_nick;
+		private ConcurrentHashMap<String, String>	m_values	= new ConcurrentHashMap<String, String>();
+
+		private User(PreferenceStore store, String nick)
+		{
+			this.m_store = store;
+			this.m_nick = nick;
+		}
+
+		/**
+		 * @param key
+		 *            The preference to read.
+		 * @return The value, or null if the user has not set it.
+		 */
+		public String get(String key)
+		{
+			return this.m_values.get(key);
+		}
+
+		/**
+		 * Changes a preference and queues the change to be journaled.
+		 *
+		 * @param key
+		 *            The preference to set.
+		 * @param value
+		 *            The new value.
+		 */
+		public void set(String key, String value)
+		{
+			key = key.intern();
+			synchronized (this)
+			{ // Keep journal order the same as the order values were set in.
+				if (value.equals(this.m_values.put(key, value)))
+					return;
+				this.m_store.journal(this.m_nick, key, value);
+			}
+		}
+	}
+
+	/**
+	 * Number of journal records after which the journal is compacted.
+	 */
+	private static final int							COMPACT_AFTER	= 4096;
+
+	/**
+	 * Longest time a change waits before being forced to disk.
+	 */
+	private static final long							INTERVAL		= TimeUnit.MILLISECONDS.toNanos(100);
+
+	private static final Charset						UTF8			= Charset.forName("UTF-8");
+
+	private static String escape(String text)
+	{
+		return text.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+	}
+
+	private static String unescape(String text)
+	{
+		if (text.indexOf('\\') < 0)
+			return text;
+		StringBuilder result = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); ++i)
+		{
+			char c = text.charAt(i);
+			if (c == '\\' && i + 1 < text.length())
+			{
+				c = text.charAt(++i);
+				if (c == 't')
+					c = '\t';
+				else if (c == 'n')
+					c = '\n';
+				else if (c == 'r')
+					c = '\r';
+			}
+			result.append(c);
+		}
+		return result.toString();
+	}
+
+	private Path										m_file;
+	private Path										m_journalFile;
+	private ConcurrentHashMap<String, User>				m_users			= new ConcurrentHashMap<String, User>();
+	private ConcurrentLinkedQueue<String>				m_queue			= new ConcurrentLinkedQueue<String>();
+	private FileChannel									m_journal;
+	private int											m_records		= 0;
+	private Thread										m_writer;
+
+	/**
+	 * Creates a store that is kept only in memory. Nothing is loaded, journaled
+	 * or saved.
+	 */
+	public PreferenceStore()
+	{
+	}
+
+	/**
+	 * Loads the store and starts its writer.
+	 *
+	 * @param file
+	 *            The properties file preferences are compacted into. The
+	 *            journal is kept next to it with {@code .journal} appended.
+	 */
+	public PreferenceStore(String file)
+	{
+		this.m_file = Paths.get(file);
+		this.m_journalFile = Paths.get(file + ".journal");
+		this.load();
+		this.m_writer = new Thread(this, "PreferenceStore-" + file);
+		this.m_writer.setDaemon(true);
+		this.m_writer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> this.flush()));
+	}
+
+	/**
+	 * Writes every preference to the properties file and empties the journal.
+	 */
+	public synchronized void compact()
+	{
+		if (this.m_file == null)
+			return;
+		this.drain();
+		Properties flat = new Properties();
+		for (User user : this.m_users.values())
+			for (Map.Entry<String, String> entry : user.m_values.entrySet())
+				flat.setProperty(user.m_nick.length() == 0 ? entry.getKey() : user.m_nick + "-" + entry.getKey(), entry.getValue());
+		Path temp = Paths.get(this.m_file + ".tmp");
+		try (OutputStream out = new FileOutputStream(temp.toFile()))
+		{
+			flat.store(out, "User settings for the Java Werewolf Host Bot.");
+			out.flush();
+			Files.move(temp, this.m_file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			this.open();
+			this.m_journal.truncate(0);
+			this.m_journal.force(true);
+			this.m_records = 0;
+		} catch (IOException e)
+		{
+			System.err.println("Error saving user config file.");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Appends every queued record to the journal without forcing it.
+	 *
+	 * @return The number of records written.
+	 */
+	private int drain()
+	{
+		int written = 0;
+		try
+		{
+			StringBuilder batch = null;
+			String record;
+			while ((record = this.m_queue.poll()) != null)
+			{
+				if (batch == null)
+					batch = new StringBuilder();
+				batch.append(record);
+				++written;
+			}
+			if (batch == null)
+				return 0;
+			this.open();
+			ByteBuffer bytes = ByteBuffer.wrap(batch.toString().getBytes(PreferenceStore.UTF8));
+			while (bytes.hasRemaining())
+				this.m_journal.write(bytes);
+			this.m_records += written;
+		} catch (IOException e)
+		{
+			System.err.println("Error writing user config journal.");
+			e.printStackTrace();
+		}
+		return written;
+	}
+
+	/**
+	 * Forces every queued change to disk, compacting the journal if it has
+	 * grown too long.
+	 */
+	public synchronized void flush()
+	{
+		if (this.drain() == 0 || this.m_journal == null)
+			return;
+		try
+		{
+			this.m_journal.force(false);
+		} catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+		if (this.m_records >= PreferenceStore.COMPACT_AFTER)
+			this.compact();
+	}
+
+	/**
+	 * @param nick
+	 *            The user's nick, in any case, or the empty string for
+	 *            preferences that do not belong to a user.
+	 * @return The user's preferences, created empty if they have none yet.
+	 */
+	public User get(String nick)
+	{
+		String key = nick.toLowerCase();
+		User user = this.m_users.get(key);
+		if (user != null)
+			return user;
+		user = new User(this, key);
+		User existing = this.m_users.putIfAbsent(key, user);
+		return existing == null ? user : existing;
+	}
+
+	private void journal(String nick, String key, String value)
+	{
+		if (this.m_file == null)
+			return;
+		this.m_queue.add(PreferenceStore.escape(nick) + "\t" + PreferenceStore.escape(key) + "\t" + PreferenceStore.escape(value) + "\n");
+	}
+
+	/**
+	 * Reads the properties file and replays the journal over it, then compacts
+	 * so the next start has nothing to replay.
+	 */
+	private synchronized void load()
+	{
+		Properties flat = new Properties();
+		try (FileInputStream in = new FileInputStream(this.m_file.toFile()))
+		{
+			flat.load(in);
+		} catch (IOException e)
+		{
+			System.err.println("Error loading user config file.");
+		}
+		for (String name : flat.stringPropertyNames())
+		{
+			int split = name.lastIndexOf('-');
+			this.put(split < 0 ? "" : name.substring(0, split), name.substring(split + 1), flat.getProperty(name));
+		}
+
+		if (Files.exists(this.m_journalFile))
+			try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(this.m_journalFile.toFile()), PreferenceStore.UTF8)))
+			{
+				String line;
+				while ((line = in.readLine()) != null)
+				{
+					String[] fields = line.split("\t", -1);
+					if (fields.length != 3)
+						continue; // Torn write from a crash.
+					this.put(PreferenceStore.unescape(fields[0]), PreferenceStore.unescape(fields[1]), PreferenceStore.unescape(fields[2]));
+				}
+			} catch (IOException e)
+			{
+				System.err.println("Error replaying user config journal.");
+				e.printStackTrace();
+			}
+		this.compact();
+	}
+
+	private void open() throws IOException
+	{
+		if (this.m_journal == null)
+			this.m_journal = FileChannel.open(this.m_journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+	private void put(String nick, String key, String value)
+	{
+		this.get(nick).m_values.put(key.intern(), value);
+	}
+
+	/**
+	 * Loads the preferences again from disk, picking up any edits made to the
+	 * properties file by hand. Handles already given out stay valid.
+	 */
+	public synchronized void reload()
+	{
+		if (this.m_file == null)
+			return;
+		this.flush();
+		for (User user : this.m_users.values())
+			user.m_values.clear();
+		this.load();
+	}
+
+	@Override
+	public void run()
+	{
+		while (true)
+		{
+			this.flush();
+			LockSupport.parkNanos(this, PreferenceStore.INTERVAL);
+		}
+	}
+}
@@ -22,6 +22,7 @@ public class Protection
 	private int			m_chance;
 	private boolean		m_deflect;
 	private Reactable	m_callback;
+	private boolean		m_active	= false;
 
 	/**
 	 * Initializes this protection. If multiple types have differing delay,
@@ -80,20 +81,53 @@ public class Protection
 	}
 
 	/**
-	 * Called at the end of each round to check if this Protection has finished.
-	 * 
-	 * @return True if this protection has finished or False if it is still
-	 *         active.
+	 * @return The number of rounds before this protection starts working.
 	 */
-	public boolean isFinished()
+	public int getDelay()
 	{
-		if (this.m_delay-- > 0)
-			return false;
-		if (this.m_duration-- == 0)
-			return true;
-		if (this.m_charges == 0)
-			return true;
-		return false;
+		return this.m_delay;
+	}
+
+	/**
+	 * @return The number of rounds this protection lasts once it has started,
+	 *         or a negative number if it lasts indefinitely.
+	 */
+	public int getDuration()
+	{
+		return this.m_duration;
+	}
+
+	/**
+	 * @return The kill types this protection guards against.
+	 */
+	public int getType()
+	{
+		return this.m_type;
+	}
+
+	/**
+	 * @return The player who initiated this protection.
+	 */
+	public IrcUser getUser()
+	{
+		return this.m_user;
+	}
+
+	/**
+	 * @return True if this protection has started working. Its
+	 *         {@link EffectWheel} starts it once its delay has passed.
+	 */
+	public boolean isActive()
+	{
+		return this.m_active;
+	}
+
+	/**
+	 * @return True if this protection has no charges left.
+	 */
+	public boolean isSpent()
+	{
+		return this.m_charges == 0;
 	}
 
 	/**
@@ -105,7 +139,11 @@ public class Protection
 	 */
 	public void protect(Kill kill)
 	{
-		if (Math.floor(Math.random() * 100) >= this.m_chance)
+		if (!this.m_active)
+			return;
+		if ((kill.getType() & this.m_type) == 0)
+			return;
+		if (kill.getTarget().getGame().getNightRandom().nextInt(100) >= this.m_chance)
 			return;
 		if (this.m_charges == 0)
 			return;
@@ -115,4 +153,12 @@ public class Protection
 		this.m_callback.onProtect();
 		this.m_charges = result;
 	}
+
+	/**
+	 * Starts this protection working. Called by {@link EffectWheel}.
+	 */
+	void start()
+	{
+		this.m_active = true;
+	}
 }
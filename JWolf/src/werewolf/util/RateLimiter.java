@@ -0,0 +1,89 @@
+package werewolf.util;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+
+/**
+ * A token bucket for each kind of use by each of any number of keys. Each
+ * bucket holds up to a burst of tokens and earns one back every interval, and a
+ * use is allowed only if a token is there to spend.
+ * <P>
+ * A bucket is kept as the single time at which it will be full again, so
+ * checking and spending a token is two map lookups and a little arithmetic.
+ * Buckets are filed by key and then by kind, so a check allocates nothing once
+ * a key has used that kind before. Buckets that have filled up hold nothing
+ * worth keeping, and are swept out whenever the number of keys has doubled
+ * since the last sweep.
+ * <P>
+ * The limits are given on every check rather than up front, so changes to the
+ * settings they come from take effect straight away. A limiter is only used
+ * from the lane of the game that owns it, so it takes no locks.
+ *
+ * @param <K>
+ *            The type of key buckets are kept under.
+ */
+public class RateLimiter<K>
+{
+	private HashMap<K, IdentityHashMap<Class<?>, long[]>>	m_full		= new HashMap<K, IdentityHashMap<Class<?>, long[]>>();
+	private int												m_sweepAt	= 64;
+
+	/**
+	 * Spends a token from a bucket if one is there.
+	 *
+	 * @param key
+	 *            The key, such as the user.
+	 * @param kind
+	 *            The kind of use, such as the class of the command.
+	 * @param burst
+	 *            The most tokens the bucket holds. Zero or less turns limiting
+	 *            off.
+	 * @param interval
+	 *            The number of milliseconds it takes to earn back one token.
+	 * @param now
+	 *            The current time in milliseconds.
+	 * @return True if a token was spent, false if the use should be refused.
+	 */
+	public boolean allow(K key, Class<?> kind, int burst, long interval, long now)
+	{
+		if (burst <= 0 || interval <= 0)
+			return true;
+		IdentityHashMap<Class<?>, long[]> kinds = this.m_full.get(key);
+		if (kinds == null)
+		{
+			if (this.m_full.size() >= this.m_sweepAt)
+				this.sweep(now);
+			this.m_full.put(key, kinds = new IdentityHashMap<Class<?>, long[]>());
+		}
+		long[] full = kinds.get(kind);
+		if (full == null)
+			kinds.put(kind, full = new long[] { now });
+		long from = Math.max(full[0], now);
+		if (from + interval - now > burst * interval)
+			return false;
+		full[0] = from + interval;
+		return true;
+	}
+
+	/**
+	 * Forgets every bucket.
+	 */
+	public void clear()
+	{
+		this.m_full.clear();
+	}
+
+	private void sweep(long now)
+	{
+		for (Iterator<IdentityHashMap<Class<?>, long[]>> keys = this.m_full.values().iterator(); keys.hasNext();)
+		{
+			IdentityHashMap<Class<?>, long[]> kinds = keys.next();
+			for (Iterator<long[]> full = kinds.values().iterator(); full.hasNext();)
+				if (full.next()[0] <= now)
+					full.remove();
+			if (kinds.isEmpty())
+				keys.remove();
+		}
+		this.m_sweepAt = Math.max(64, this.m_full.size() * 2);
+	}
+}
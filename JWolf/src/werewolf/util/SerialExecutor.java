@@ -0,0 +1,59 @@
+package werewolf.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs tasks one at a time, in the order they were submitted, on top of a
+ * shared pool. Each game gets its own lane, so work for one game is never run
+ * concurrently with itself while separate games proceed in parallel.
+ */
+public class SerialExecutor implements Executor
+{
+	private ConcurrentLinkedQueue<Runnable>	m_tasks		= new ConcurrentLinkedQueue<Runnable>();
+	private AtomicBoolean					m_running	= new AtomicBoolean(false);
+	private Executor						m_pool;
+
+	/**
+	 * @param pool
+	 *            The pool the lane's tasks are run on.
+	 */
+	public SerialExecutor(Executor pool)
+	{
+		this.m_pool = pool;
+	}
+
+	private void drain()
+	{
+		do
+		{
+			Runnable task;
+			while ((task = this.m_tasks.poll()) != null)
+				try
+				{
+					task.run();
+				} catch (Throwable e)
+				{
+					e.printStackTrace();
+				}
+			this.m_running.set(false);
+		} while (!this.m_tasks.isEmpty() && this.m_running.compareAndSet(false, true));
+	}
+
+	@Override
+	public void execute(Runnable task)
+	{
+		this.m_tasks.add(task);
+		if (this.m_running.compareAndSet(false, true))
+			this.m_pool.execute(() -> this.drain());
+	}
+
+	/**
+	 * @return The number of tasks waiting to run.
+	 */
+	public int pending()
+	{
+		return this.m_tasks.size();
+	}
+}
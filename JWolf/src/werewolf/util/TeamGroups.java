@@ -0,0 +1,100 @@
+package werewolf.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+import werewolf.IrcUser;
+
+/**
+ * Groups the players who know their team by the team they are on, so team
+ * chat can be relayed without checking every player's role. A player's group
+ * is worked out again whenever they join or leave the game or their role is
+ * replaced, which covers role assignment and conversions.
+ * <P>
+ * Each group is kept as an array that is replaced rather than changed, so the
+ * array handed out by {@link #getTeam(IrcUser)} may be read freely.
+ */
+public class TeamGroups
+{
+	private static final IrcUser[]				EMPTY		= new IrcUser[0];
+
+	private IdentityHashMap<IrcUser, Integer>	m_teamOf	= new IdentityHashMap<IrcUser, Integer>();
+	private HashMap<Integer, IrcUser[]>			m_groups	= new HashMap<Integer, IrcUser[]>();
+
+	/**
+	 * Empties every group.
+	 */
+	public void clear()
+	{
+		this.m_teamOf.clear();
+		this.m_groups.clear();
+	}
+
+	/**
+	 * @param user
+	 *            A player.
+	 * @return Every player in the same group, including the given one, or an
+	 *         empty array if they do not know their team.
+	 */
+	public IrcUser[] getTeam(IrcUser user)
+	{
+		Integer team = this.m_teamOf.get(user);
+		return team == null ? TeamGroups.EMPTY : this.m_groups.get(team);
+	}
+
+	/**
+	 * Takes a user out of their group.
+	 *
+	 * @param user
+	 *            The user, who need not be in any group.
+	 */
+	public void remove(IrcUser user)
+	{
+		Integer team = this.m_teamOf.remove(user);
+		if (team == null)
+			return;
+		IrcUser[] group = this.m_groups.get(team);
+		if (group.length == 1)
+		{
+			this.m_groups.remove(team);
+			return;
+		}
+		IrcUser[] smaller = new IrcUser[group.length - 1];
+		for (int i = 0, j = 0; i < group.length; ++i)
+			if (group[i] != user)
+				smaller[j++] = group[i];
+		this.m_groups.put(team, smaller);
+	}
+
+	/**
+	 * Puts a user in the group for their current team, or takes them out of
+	 * every group if they are not a player or do not know their team.
+	 *
+	 * @param user
+	 *            The user whose role or player status changed.
+	 */
+	public void update(IrcUser user)
+	{
+		if (!user.isPlayer() || !user.knowsTeam())
+		{
+			this.remove(user);
+			return;
+		}
+		Integer team = user.checkClass();
+		if (team.equals(this.m_teamOf.get(user)))
+			return;
+		this.remove(user);
+		this.m_teamOf.put(user, team);
+		IrcUser[] group = this.m_groups.get(team);
+		if (group == null)
+			group = new IrcUser[]
+			{ user };
+		else
+		{
+			group = Arrays.copyOf(group, group.length + 1);
+			group[group.length - 1] = user;
+		}
+		this.m_groups.put(team, group);
+	}
+}
@@ -0,0 +1,110 @@
+package werewolf.util;
+
+import java.lang.reflect.Method;
+
+import werewolf.IrcUser;
+import werewolf.define.Interactable;
+import werewolf.define.interactable.Item;
+import werewolf.define.interactable.Role;
+import werewolf.define.interactable.Status;
+
+/**
+ * Works out which triggers an item or status actually responds to. Most items
+ * and statuses only override a few of the methods {@link Interactable} gives
+ * them, and the rest are the empty defaults from {@link Item} and
+ * {@link Status}. Each class is looked over by reflection the first time it is
+ * seen, and the triggers it overrides are kept as a bit mask, so a player only
+ * needs to pass each trigger on to the things they hold that listen for it.
+ * Roles can be looked over the same way, against the fixed answers
+ * {@link Role} gives by default.
+ * <P>
+ * Whether a method is overridden is just the class that declares it, which
+ * {@link Method#getDeclaringClass()} gives directly for a class that is
+ * already loaded. Reading the class files again with javassist would tell us
+ * nothing more.
+ */
+public class Triggers
+{
+	public static final int						ASSIGNED		= 0;
+	public static final int						BLOCK			= 1;
+	public static final int						INFECT_BLOSSOM	= 2;
+	public static final int						INFECT			= 3;
+	public static final int						IS_MASON		= 4;
+	public static final int						KILL_HOLD		= 5;
+	public static final int						KILL			= 6;
+	public static final int						MAFIA_PARITY	= 7;
+	public static final int						NIGHTLY_HOLD	= 8;
+	public static final int						ON_BLOCKED		= 9;
+	public static final int						ON_PEEK			= 10;
+	public static final int						PEEK_CLASS		= 11;
+	public static final int						PEEK_SETUP		= 12;
+	public static final int						PEEK			= 13;
+	public static final int						PROTECT			= 14;
+	public static final int						ROUND_END		= 15;
+	public static final int						STOP_KILL		= 16;
+	public static final int						VOTE_POWER		= 17;
+	public static final int						WOLF_PARITY		= 18;
+
+	/**
+	 * The number of triggers.
+	 */
+	public static final int						COUNT			= 19;
+
+	private static final String[]				NAMES			= { "assigned", "blockTrigger", "infectBlossom", "infectTrigger", "isMason", "killHold", "killTrigger", "mafiaParity", "nightlyHold", "onBlocked", "onPeek", "peekClass", "peekSetup", "peekTrigger", "protectTrigger", "roundEnd", "stopKill", "votePower", "wolfParity" };
+	private static final Class<?>[][]			PARAMETERS		= { {}, {}, { Role.class, IrcUser.class }, {}, {}, {}, {}, {}, {}, {}, { IrcUser.class }, {}, { PeekMod.class }, { PeekMod.class }, {}, {}, { Kill.class }, { IrcUser[][].class, IrcUser[].class }, {} };
+
+	private static final ClassValue<Integer>	MASKS;
+
+	static
+	{
+		MASKS = new ClassValue<Integer>()
+		{
+			@Override
+			protected Integer computeValue(Class<?> type)
+			{
+				return Triggers.scan(type);
+			}
+		};
+	}
+
+	/**
+	 * @param method
+	 *            A trigger method as found on some class.
+	 * @return True if the method is one of the defaults that does nothing.
+	 */
+	private static boolean inert(Method method)
+	{
+		Class<?> owner = method.getDeclaringClass();
+		// A role's defaults give the same answer whatever happens in the game.
+		if (owner == Item.class || owner == Role.class)
+			return true;
+		// Status answers every peek with class 0 rather than staying out of it.
+		return owner == Status.class && !method.getName().equals("peekClass");
+	}
+
+	/**
+	 * @param listener
+	 *            An item, status or role.
+	 * @return The triggers it responds to, as a mask with bit <code>1 &lt;&lt;
+	 *         trigger</code> set for each.
+	 */
+	public static int of(Interactable listener)
+	{
+		return Triggers.MASKS.get(listener.getClass());
+	}
+
+	private static int scan(Class<?> type)
+	{
+		int mask = 0;
+		for (int i = 0; i < Triggers.COUNT; ++i)
+			try
+			{
+				if (!Triggers.inert(type.getMethod(Triggers.NAMES[i], Triggers.PARAMETERS[i])))
+					mask |= 1 << i;
+			} catch (NoSuchMethodException e)
+			{ // Not something a player holds. Treat it as listening for everything.
+				mask |= 1 << i;
+			}
+		return mask;
+	}
+}
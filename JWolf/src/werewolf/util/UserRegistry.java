@@ -0,0 +1,298 @@
+package werewolf.util;
+
+import java.util.HashMap;
+
+import werewolf.IrcUser;
+
+/**
+ * Holds a set of users indexed by nick. Exact lookups are a single hash probe
+ * on the lowercased nick, and partial lookups walk a {@link NickTrie} with the
+ * characters of the query, so neither depends on the number of users held.
+ * Users are kept in the order they were added.
+ * <P>
+ * Each user keeps the slot they were added in, and a Fenwick tree counts the
+ * users still held in each run of slots. A user's position in join order, and
+ * the user at a given position, are therefore found in O(log n) time, and a
+ * removal just empties a slot. Empty slots are squeezed out when the slots run
+ * out, so this costs O(1) per user over time.
+ * <P>
+ * The users are also handed out as a single array, built on first request
+ * after the membership changes and shared by every caller until it changes
+ * again. Reading the whole roster therefore copies nothing, however often it
+ * is done.
+ */
+public class UserRegistry
+{
+	private static class Entry
+	{
+		private IrcUser	m_user;
+		private String	m_key;
+		private long	m_id;
+		private int		m_slot;
+
+		private Entry(IrcUser user, String key, long id)
+		{
+			this.m_user = user;
+			this.m_key = key;
+			this.m_id = id;
+		}
+	}
+
+	/**
+	 * Returned by {@link #indexOf} when no user matches.
+	 */
+	public static final int			NOT_FOUND	= -1;
+
+	/**
+	 * Returned by {@link #indexOf} when a partial nick matches more than one
+	 * user.
+	 */
+	public static final int			AMBIGUOUS	= -2;
+
+	private HashMap<String, Entry>	m_byNick	= new HashMap<String, Entry>();
+	private HashMap<Long, Entry>	m_byId		= new HashMap<Long, Entry>();
+	private Entry[]					m_slots		= new Entry[16];
+	private int[]					m_counts	= new int[17];
+	private int						m_used		= 0;
+	private int						m_size		= 0;
+	private NickTrie				m_trie		= new NickTrie();
+	private long					m_nextId	= 0;
+	private IrcUser[]				m_snapshot	= null;
+
+	/**
+	 * Adds a user to the registry. Does nothing if a user with the same nick is
+	 * already present.
+	 *
+	 * @param user
+	 *            The user to add.
+	 * @return True if the user was added.
+	 */
+	public boolean add(IrcUser user)
+	{
+		String key = user.getNick().toLowerCase();
+		if (this.m_byNick.containsKey(key))
+			return false;
+		Entry entry = new Entry(user, key, this.m_nextId++);
+		this.m_byNick.put(key, entry);
+		this.m_byId.put(entry.m_id, entry);
+		if (this.m_used == this.m_slots.length)
+			this.compact(Math.max(16, (this.m_size + 1) * 2));
+		entry.m_slot = this.m_used++;
+		this.m_slots[entry.m_slot] = entry;
+		this.count(entry.m_slot, 1);
+		++this.m_size;
+		this.m_trie.insert(key, entry.m_id);
+		this.m_snapshot = null;
+		return true;
+	}
+
+	/**
+	 * Moves every user held into the first slots of a new set of slots, in
+	 * order, and counts them again.
+	 */
+	private void compact(int capacity)
+	{
+		Entry[] slots = new Entry[capacity];
+		int[] counts = new int[capacity + 1];
+		int used = 0;
+		for (int i = 0; i < this.m_used; ++i)
+			if (this.m_slots[i] != null)
+			{
+				slots[used] = this.m_slots[i];
+				slots[used].m_slot = used;
+				counts[++used] = 1;
+			}
+		for (int i = 1; i <= capacity; ++i)
+		{
+			int parent = i + (i & -i);
+			if (parent <= capacity)
+				counts[parent] += counts[i];
+		}
+		this.m_slots = slots;
+		this.m_counts = counts;
+		this.m_used = used;
+	}
+
+	/**
+	 * @param user
+	 *            The user to check for.
+	 * @return True if this exact user object is held under its current nick.
+	 */
+	public boolean contains(IrcUser user)
+	{
+		Entry entry = this.m_byNick.get(user.getNick().toLowerCase());
+		return entry != null && entry.m_user == user;
+	}
+
+	private void count(int slot, int change)
+	{
+		for (int i = slot + 1; i < this.m_counts.length; i += i & -i)
+			this.m_counts[i] += change;
+	}
+
+	private Entry find(String nick, boolean partial)
+	{
+		nick = nick.toLowerCase();
+		Entry entry = this.m_byNick.get(nick);
+		if (entry != null || !partial)
+			return entry;
+		long id = this.m_trie.findPrefix(nick);
+		if (id == NickTrie.NOT_FOUND)
+			id = this.m_trie.findInfix(nick);
+		if (id < 0)
+			return null;
+		return this.m_byId.get(id);
+	}
+
+	/**
+	 * Looks up a user by nick.
+	 *
+	 * @param nick
+	 *            The nick to search for, in any case.
+	 * @param partial
+	 *            If true and no nick matches exactly, the single user whose
+	 *            nick starts with, or failing that contains, the given nick is
+	 *            returned.
+	 * @return The matching user, or null if none or more than one matched.
+	 */
+	public IrcUser get(String nick, boolean partial)
+	{
+		Entry entry = this.find(nick, partial);
+		if (entry == null)
+			return null;
+		return entry.m_user;
+	}
+
+	/**
+	 * Looks up the position of a user by nick, following the same matching
+	 * rules as {@link #get}.
+	 *
+	 * @return The position of the user in join order, {@link #NOT_FOUND} or
+	 *         {@link #AMBIGUOUS}.
+	 */
+	public int indexOf(String nick, boolean partial)
+	{
+		Entry entry = this.find(nick, partial);
+		if (entry != null)
+			return this.position(entry.m_slot);
+		if (partial && this.m_trie.findPrefix(nick.toLowerCase()) == NickTrie.AMBIGUOUS)
+			return UserRegistry.AMBIGUOUS;
+		if (partial && this.m_trie.findInfix(nick.toLowerCase()) == NickTrie.AMBIGUOUS)
+			return UserRegistry.AMBIGUOUS;
+		return UserRegistry.NOT_FOUND;
+	}
+
+	/**
+	 * @return The number of users held in the slots before the given one.
+	 */
+	private int position(int slot)
+	{
+		int position = 0;
+		for (int i = slot; i > 0; i -= i & -i)
+			position += this.m_counts[i];
+		return position;
+	}
+
+	/**
+	 * Removes the user at the given position.
+	 *
+	 * @param index
+	 *            The position of the user in join order.
+	 * @return The removed user, or null if the index was out of range.
+	 */
+	public IrcUser remove(int index)
+	{
+		if (index < 0 || index >= this.m_size)
+			return null;
+		IrcUser user = this.m_slots[this.slot(index)].m_user;
+		this.remove(user.getNick());
+		return user;
+	}
+
+	/**
+	 * Removes the user with the given nick.
+	 *
+	 * @param nick
+	 *            The exact nick of the user, in any case.
+	 * @return The removed user, or null if no user had that nick.
+	 */
+	public IrcUser remove(String nick)
+	{
+		Entry entry = this.m_byNick.remove(nick.toLowerCase());
+		if (entry == null)
+			return null;
+		this.m_byId.remove(entry.m_id);
+		this.m_slots[entry.m_slot] = null;
+		this.count(entry.m_slot, -1);
+		--this.m_size;
+		this.m_trie.remove(entry.m_key, entry.m_id);
+		this.m_snapshot = null;
+		return entry.m_user;
+	}
+
+	/**
+	 * Moves a user to a new nick. Must be called before the user object itself
+	 * is renamed.
+	 *
+	 * @param oldNick
+	 *            The nick the user is currently held under.
+	 * @param newNick
+	 *            The nick the user is changing to.
+	 * @return True if a user was held under the old nick.
+	 */
+	public boolean rename(String oldNick, String newNick)
+	{
+		Entry entry = this.m_byNick.remove(oldNick.toLowerCase());
+		if (entry == null)
+			return false;
+		this.m_trie.remove(entry.m_key, entry.m_id);
+		entry.m_key = newNick.toLowerCase();
+		if (this.m_byNick.containsKey(entry.m_key))
+			this.remove(newNick); // Stale user left behind under the new nick.
+		this.m_byNick.put(entry.m_key, entry);
+		this.m_trie.insert(entry.m_key, entry.m_id);
+		return true;
+	}
+
+	/**
+	 * @return The number of users held.
+	 */
+	public int size()
+	{
+		return this.m_size;
+	}
+
+	/**
+	 * @return The slot holding the user at the given position in join order.
+	 */
+	private int slot(int index)
+	{
+		int slot = 0;
+		int left = index + 1;
+		for (int step = Integer.highestOneBit(this.m_counts.length - 1); step > 0; step >>= 1)
+			if (slot + step < this.m_counts.length && this.m_counts[slot + step] < left)
+			{
+				slot += step;
+				left -= this.m_counts[slot];
+			}
+		return slot;
+	}
+
+	/**
+	 * @return An array of all users held, in join order. The array is shared
+	 *         and must not be changed. It is replaced, never updated, when a
+	 *         user is added or removed, so it may be kept as a snapshot.
+	 */
+	public IrcUser[] toArray()
+	{
+		IrcUser[] snapshot = this.m_snapshot;
+		if (snapshot != null)
+			return snapshot;
+		snapshot = new IrcUser[this.m_size];
+		int count = 0;
+		for (int i = 0; i < this.m_used; ++i)
+			if (this.m_slots[i] != null)
+				snapshot[count++] = this.m_slots[i].m_user;
+		return this.m_snapshot = snapshot;
+	}
+}
@@ -0,0 +1,369 @@
+package werewolf.util;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+import werewolf.IrcUser;
+
+/**
+ * Counts the day's votes as they are cast. Each voter's current vote and vote
+ * power are kept, along with a running tally for every target, so casting,
+ * changing and withdrawing a vote only adjust the two tallies involved.
+ * Targets are also indexed by their tally, so the leaders and any majority are
+ * known at all times without counting again.
+ * <P>
+ * Vote power is worked out from each voter's role, items and statuses when the
+ * day starts and again whenever those change. Every vote cast is also appended
+ * to the round's history, kept as a pair of arrays, which is what
+ * {@link werewolf.define.Interactable#votePower} is given. Only voters with
+ * something that works out its own vote power are given the history, and
+ * their power is worked out again after every vote, since it may depend on
+ * it. Everyone else has the default power, so a vote costs them nothing.
+ * <P>
+ * Voters and targets are held by object, so nick changes need no work at all.
+ */
+public class VoteTally
+{
+	private static class Tally
+	{
+		private int						m_power		= 0;
+		private LinkedHashSet<IrcUser>	m_voters	= new LinkedHashSet<IrcUser>();
+	}
+
+	private static class Voter
+	{
+		private int		m_cast		= 0;
+		private int		m_power;
+		private IrcUser	m_target	= null;
+
+		private Voter(int power)
+		{
+			this.m_power = power;
+		}
+	}
+
+	private static final IrcUser[][]	NO_HISTORY	= new IrcUser[0][];
+
+	private static void index(TreeMap<Integer, LinkedHashSet<IrcUser>> index, IrcUser target, int from, int to)
+	{
+		if (from == to)
+			return;
+		if (from > 0)
+		{
+			LinkedHashSet<IrcUser> bucket = index.get(from);
+			bucket.remove(target);
+			if (bucket.isEmpty())
+				index.remove(from);
+		}
+		if (to > 0)
+		{
+			LinkedHashSet<IrcUser> bucket = index.get(to);
+			if (bucket == null)
+			{
+				bucket = new LinkedHashSet<IrcUser>();
+				index.put(to, bucket);
+			}
+			bucket.add(target);
+		}
+	}
+
+	private IdentityHashMap<IrcUser, Voter>				m_voters			= new IdentityHashMap<IrcUser, Voter>();
+	private IdentityHashMap<IrcUser, Tally>				m_tallies			= new IdentityHashMap<IrcUser, Tally>();
+	private TreeMap<Integer, LinkedHashSet<IrcUser>>	m_byPower			= new TreeMap<Integer, LinkedHashSet<IrcUser>>();
+	private TreeMap<Integer, LinkedHashSet<IrcUser>>	m_byVoters			= new TreeMap<Integer, LinkedHashSet<IrcUser>>();
+	private int											m_totalPower		= 0;
+	private IrcUser[]									m_historyVoters		= new IrcUser[16];
+	private IrcUser[]									m_historyTargets	= new IrcUser[16];
+	private int											m_historySize		= 0;
+	private IrcUser[][]									m_history			= null;
+	private IrcUser[]									m_players			= new IrcUser[0];
+	private LinkedHashSet<IrcUser>						m_listening			= new LinkedHashSet<IrcUser>();
+
+	private void cast(IrcUser voter, Voter state, IrcUser target)
+	{
+		if (state.m_target != null)
+		{
+			Tally tally = this.m_tallies.get(state.m_target);
+			int oldPower = tally.m_power;
+			int oldVoters = tally.m_voters.size();
+			tally.m_power -= state.m_power;
+			tally.m_voters.remove(voter);
+			VoteTally.index(this.m_byPower, state.m_target, oldPower, tally.m_power);
+			VoteTally.index(this.m_byVoters, state.m_target, oldVoters, tally.m_voters.size());
+			if (tally.m_voters.isEmpty())
+				this.m_tallies.remove(state.m_target);
+		}
+		state.m_target = target;
+		if (target == null)
+			return;
+		Tally tally = this.m_tallies.get(target);
+		if (tally == null)
+		{
+			tally = new Tally();
+			this.m_tallies.put(target, tally);
+		}
+		int oldPower = tally.m_power;
+		int oldVoters = tally.m_voters.size();
+		tally.m_power += state.m_power;
+		tally.m_voters.add(voter);
+		VoteTally.index(this.m_byPower, target, oldPower, tally.m_power);
+		VoteTally.index(this.m_byVoters, target, oldVoters, tally.m_voters.size());
+	}
+
+	/**
+	 * @return The whole round's history as {voter, target} pairs, with a null
+	 *         target for a withdrawn vote. Built when first asked for after a
+	 *         vote and shared until the next, so it must not be changed.
+	 */
+	public IrcUser[][] getHistory()
+	{
+		if (this.m_history != null)
+			return this.m_history;
+		IrcUser[][] history = new IrcUser[this.m_historySize][];
+		for (int i = 0; i < history.length; ++i)
+			history[i] = new IrcUser[]
+			{ this.m_historyVoters[i], this.m_historyTargets[i] };
+		return this.m_history = history;
+	}
+
+	/**
+	 * @param real
+	 *            True to rank by vote power, false to rank by the number of
+	 *            voters.
+	 * @return The targets with the highest tally, in the order they were
+	 *         first voted for. Empty if nobody has been voted for.
+	 */
+	public IrcUser[] getLeaders(boolean real)
+	{
+		TreeMap<Integer, LinkedHashSet<IrcUser>> index = real ? this.m_byPower : this.m_byVoters;
+		if (index.isEmpty())
+			return new IrcUser[0];
+		LinkedHashSet<IrcUser> leaders = index.lastEntry().getValue();
+		return leaders.toArray(new IrcUser[leaders.size()]);
+	}
+
+	/**
+	 * Checks for a target voted for by more than half of the voters.
+	 *
+	 * @param real
+	 *            True to count vote power against the total power of every
+	 *            voter, false to count voters against the number of voters.
+	 * @return The target with a majority, or null if there is none.
+	 */
+	public IrcUser getMajority(boolean real)
+	{
+		TreeMap<Integer, LinkedHashSet<IrcUser>> index = real ? this.m_byPower : this.m_byVoters;
+		if (index.isEmpty())
+			return null;
+		Map.Entry<Integer, LinkedHashSet<IrcUser>> top = index.lastEntry();
+		int total = real ? this.m_totalPower : this.m_voters.size();
+		if (top.getKey() * 2 <= total || top.getValue().size() != 1)
+			return null;
+		return top.getValue().iterator().next();
+	}
+
+	/**
+	 * @return The position in the history of the latest vote still standing
+	 *         for the target. Lower means the target reached its tally first.
+	 */
+	public int getReached(IrcUser target)
+	{
+		Tally tally = this.m_tallies.get(target);
+		if (tally == null)
+			return Integer.MAX_VALUE;
+		int reached = 0;
+		for (IrcUser voter : tally.m_voters)
+			reached = Math.max(reached, this.m_voters.get(voter).m_cast);
+		return reached;
+	}
+
+	/**
+	 * @param real
+	 *            True to rank by vote power, false to rank by the number of
+	 *            voters.
+	 * @return Every target with at least one vote, from the highest tally to
+	 *         the lowest.
+	 */
+	public IrcUser[] getRanking(boolean real)
+	{
+		TreeMap<Integer, LinkedHashSet<IrcUser>> index = real ? this.m_byPower : this.m_byVoters;
+		IrcUser[] ranking = new IrcUser[this.m_tallies.size()];
+		int count = 0;
+		for (LinkedHashSet<IrcUser> bucket : index.descendingMap().values())
+			for (IrcUser target : bucket)
+				ranking[count++] = target;
+		return count == ranking.length ? ranking : Arrays.copyOf(ranking, count);
+	}
+
+	/**
+	 * @return The total vote power of every voter this round, whether they
+	 *         have voted or not.
+	 */
+	public int getTotalPower()
+	{
+		return this.m_totalPower;
+	}
+
+	/**
+	 * @return The vote this voter currently has in, or null.
+	 */
+	public IrcUser getVote(IrcUser voter)
+	{
+		Voter state = this.m_voters.get(voter);
+		return state == null ? null : state.m_target;
+	}
+
+	/**
+	 * @return How many voters currently vote for a target.
+	 */
+	public int getVoters(IrcUser target)
+	{
+		Tally tally = this.m_tallies.get(target);
+		return tally == null ? 0 : tally.m_voters.size();
+	}
+
+	/**
+	 * @return The weighted tally for a target.
+	 */
+	public int getVotes(IrcUser target)
+	{
+		Tally tally = this.m_tallies.get(target);
+		return tally == null ? 0 : tally.m_power;
+	}
+
+	/**
+	 * @return Every voter this round. Kept from {@link #reset} and only built
+	 *         again after a voter is removed.
+	 */
+	private IrcUser[] getPlayers()
+	{
+		if (this.m_players == null)
+			this.m_players = this.m_voters.keySet().toArray(new IrcUser[this.m_voters.size()]);
+		return this.m_players;
+	}
+
+	private int power(IrcUser voter)
+	{
+		return voter.votePower(voter.listensForVotes() ? this.getHistory() : VoteTally.NO_HISTORY, this.getPlayers());
+	}
+
+	private void record(IrcUser voter, IrcUser target)
+	{
+		if (this.m_historySize == this.m_historyVoters.length)
+		{
+			this.m_historyVoters = Arrays.copyOf(this.m_historyVoters, this.m_historySize * 2);
+			this.m_historyTargets = Arrays.copyOf(this.m_historyTargets, this.m_historySize * 2);
+		}
+		this.m_historyVoters[this.m_historySize] = voter;
+		this.m_historyTargets[this.m_historySize] = target;
+		++this.m_historySize;
+		this.m_history = null;
+	}
+
+	/**
+	 * Works out a voter's power again after their role, items or statuses
+	 * changed. A vote they already have in is moved over to the new power.
+	 *
+	 * @param voter
+	 *            The voter. Ignored if they are not voting this round.
+	 */
+	public void refresh(IrcUser voter)
+	{
+		Voter state = this.m_voters.get(voter);
+		if (state == null)
+			return;
+		if (voter.listensForVotes())
+			this.m_listening.add(voter);
+		else
+			this.m_listening.remove(voter);
+		this.repower(voter, state, this.power(voter));
+	}
+
+	/**
+	 * Takes a player out of the round: their vote is withdrawn and every vote
+	 * for them is dropped.
+	 */
+	public void remove(IrcUser user)
+	{
+		Voter state = this.m_voters.remove(user);
+		if (state != null)
+		{
+			this.cast(user, state, null);
+			this.m_totalPower -= state.m_power;
+			this.m_listening.remove(user);
+			this.m_players = null;
+		}
+		Tally tally = this.m_tallies.get(user);
+		if (tally == null)
+			return;
+		IrcUser[] voters = tally.m_voters.toArray(new IrcUser[tally.m_voters.size()]);
+		for (int i = 0; i < voters.length; ++i)
+			this.cast(voters[i], this.m_voters.get(voters[i]), null);
+	}
+
+	private void repower(IrcUser voter, Voter state, int power)
+	{
+		if (power == state.m_power)
+			return;
+		IrcUser target = state.m_target;
+		this.cast(voter, state, null);
+		this.m_totalPower += power - state.m_power;
+		state.m_power = power;
+		this.cast(voter, state, target);
+	}
+
+	/**
+	 * Starts a new round with no votes, working out every player's power.
+	 *
+	 * @param players
+	 *            The players who may vote this round.
+	 */
+	public void reset(IrcUser[] players)
+	{
+		this.m_voters.clear();
+		this.m_tallies.clear();
+		this.m_byPower.clear();
+		this.m_byVoters.clear();
+		this.m_totalPower = 0;
+		Arrays.fill(this.m_historyVoters, 0, this.m_historySize, null);
+		Arrays.fill(this.m_historyTargets, 0, this.m_historySize, null);
+		this.m_historySize = 0;
+		this.m_history = null;
+		this.m_players = players;
+		this.m_listening.clear();
+		for (int i = 0; i < players.length; ++i)
+		{
+			int power = players[i].votePower(VoteTally.NO_HISTORY, players);
+			this.m_voters.put(players[i], new Voter(power));
+			this.m_totalPower += power;
+			if (players[i].listensForVotes())
+				this.m_listening.add(players[i]);
+		}
+	}
+
+	/**
+	 * Casts, changes or withdraws a vote.
+	 *
+	 * @param voter
+	 *            The player voting. Ignored if they are not voting this round.
+	 * @param target
+	 *            The player voted for, or null to withdraw the vote.
+	 * @return True if the vote changed anything.
+	 */
+	public boolean vote(IrcUser voter, IrcUser target)
+	{
+		Voter state = this.m_voters.get(voter);
+		if (state == null || state.m_target == target)
+			return false;
+		state.m_cast = this.m_historySize;
+		this.record(voter, target);
+		this.cast(voter, state, target);
+		for (IrcUser listener : this.m_listening)
+			this.repower(listener, this.m_voters.get(listener), this.power(listener));
+		return true;
+	}
+
+}
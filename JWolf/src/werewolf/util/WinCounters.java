@@ -0,0 +1,170 @@
+package werewolf.util;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+import werewolf.IrcUser;
+
+/**
+ * Keeps running totals of what each living player adds towards a win: the
+ * number of players on each team and the sums of their wolf and mafia parity.
+ * A player's share is worked out when they join the game and again whenever
+ * their role, items or statuses change, and is taken back out when they die or
+ * leave, so deciding whether anyone has won only reads the totals.
+ * <P>
+ * Teams are numbered as in {@link werewolf.Game#getClass(int, boolean)}.
+ * Neutral players count towards parity but never keep another team from
+ * winning.
+ */
+public class WinCounters
+{
+	/**
+	 * Returned by {@link #getWinner()} while the game is still undecided.
+	 */
+	public static final int						NONE		= -1;
+	/**
+	 * Returned by {@link #getWinner()} once no team is left, either because
+	 * every player is gone or because only neutral players remain.
+	 */
+	public static final int						DRAW		= -2;
+
+	private static final int					NEUTRAL		= 0;
+	private static final int					VILLAGE		= 2;
+	private static final int					WOLF		= 3;
+	private static final int					MAFIA		= 4;
+
+	private static int[] share(IrcUser user)
+	{
+		return new int[]
+		{ Math.max(user.checkClass(), 0), user.wolfParity(), user.mafiaParity() };
+	}
+
+	private IdentityHashMap<IrcUser, int[]>	m_shares		= new IdentityHashMap<IrcUser, int[]>();
+	private int[]							m_teams			= new int[8];
+	private int								m_alive			= 0;
+	private int								m_teamSum		= 0;
+	private int								m_wolfParity	= 0;
+	private int								m_mafiaParity	= 0;
+
+	/**
+	 * Counts a new player.
+	 *
+	 * @param user
+	 *            The player. Ignored if they are already counted.
+	 */
+	public void add(IrcUser user)
+	{
+		if (this.m_shares.containsKey(user))
+			return;
+		int[] share = WinCounters.share(user);
+		this.m_shares.put(user, share);
+		this.apply(share, 1);
+	}
+
+	private void apply(int[] share, int sign)
+	{
+		int team = share[0];
+		if (team >= this.m_teams.length)
+			this.m_teams = Arrays.copyOf(this.m_teams, team + 1);
+		int before = this.m_teams[team];
+		this.m_teams[team] += sign;
+		if (team != WinCounters.NEUTRAL && before == 0 && this.m_teams[team] > 0)
+		{
+			++this.m_alive;
+			this.m_teamSum += team;
+		} else if (team != WinCounters.NEUTRAL && before > 0 && this.m_teams[team] == 0)
+		{
+			--this.m_alive;
+			this.m_teamSum -= team;
+		}
+		this.m_wolfParity += sign * share[1];
+		this.m_mafiaParity += sign * share[2];
+	}
+
+	/**
+	 * @return The sum of every living player's mafia parity.
+	 */
+	public int getMafiaParity()
+	{
+		return this.m_mafiaParity;
+	}
+
+	/**
+	 * @return The number of living players counted.
+	 */
+	public int getPlayers()
+	{
+		return this.m_shares.size();
+	}
+
+	/**
+	 * @return The number of living players on a team.
+	 */
+	public int getTeam(int team)
+	{
+		return team < 0 || team >= this.m_teams.length ? 0 : this.m_teams[team];
+	}
+
+	/**
+	 * Decides the game from the current totals. A team wins once it is the
+	 * only team other than neutrals left alive. Wolves or mafia also win on
+	 * reaching parity, as long as only villagers stand against them.
+	 *
+	 * @return The winning team, {@link #DRAW} if nobody but neutral players is
+	 *         left, or {@link #NONE} if the game goes on.
+	 */
+	public int getWinner()
+	{
+		if (this.m_alive == 0)
+			return WinCounters.DRAW;
+		if (this.m_alive == 1)
+			return this.m_teamSum;
+		int others = this.m_alive - (this.m_teams[WinCounters.VILLAGE] > 0 ? 1 : 0);
+		if (others == 1 && this.m_teams[WinCounters.WOLF] > 0 && this.m_wolfParity >= 0)
+			return WinCounters.WOLF;
+		if (others == 1 && this.m_teams[WinCounters.MAFIA] > 0 && this.m_mafiaParity >= 0)
+			return WinCounters.MAFIA;
+		return WinCounters.NONE;
+	}
+
+	/**
+	 * @return The sum of every living player's wolf parity.
+	 */
+	public int getWolfParity()
+	{
+		return this.m_wolfParity;
+	}
+
+	/**
+	 * Stops counting a player who died or left.
+	 *
+	 * @param user
+	 *            The player, who need not be counted.
+	 */
+	public void remove(IrcUser user)
+	{
+		int[] share = this.m_shares.remove(user);
+		if (share != null)
+			this.apply(share, -1);
+	}
+
+	/**
+	 * Works out a player's share again after their role, items or statuses
+	 * changed, including conversions.
+	 *
+	 * @param user
+	 *            The player. Ignored if they are not counted.
+	 */
+	public void update(IrcUser user)
+	{
+		int[] share = this.m_shares.get(user);
+		if (share == null)
+			return;
+		int[] changed = WinCounters.share(user);
+		if (Arrays.equals(share, changed))
+			return;
+		this.apply(share, -1);
+		this.m_shares.put(user, changed);
+		this.apply(changed, 1);
+	}
+}
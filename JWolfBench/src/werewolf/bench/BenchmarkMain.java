@@ -0,0 +1,34 @@
+package werewolf.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs every JWolf benchmark with the GC profiler attached, so each result
+ * comes with its allocation rate per operation. Any standard JMH arguments
+ * may be given, for example a regular expression to pick benchmarks or
+ * {@code -p users=5000} to narrow a parameter.
+ */
+public class BenchmarkMain
+{
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException
+	{
+		CommandLineOptions parent = new CommandLineOptions(args);
+		OptionsBuilder options = new OptionsBuilder();
+		options.parent(parent);
+		if (parent.getIncludes().isEmpty())
+			options.include("werewolf\\.bench\\..*");
+		options.addProfiler(GCProfiler.class);
+		if (!parent.getForkCount().hasValue())
+			options.forks(1);
+		if (!parent.getWarmupIterations().hasValue())
+			options.warmupIterations(5);
+		if (!parent.getMeasurementIterations().hasValue())
+			options.measurementIterations(5);
+		new Runner(options.build()).run();
+	}
+}
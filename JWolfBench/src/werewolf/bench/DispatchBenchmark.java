@@ -0,0 +1,93 @@
+package werewolf.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import werewolf.Game;
+import werewolf.IrcUser;
+import werewolf.define.interactable.Item;
+import werewolf.define.interactable.Status;
+
+/**
+ * Measures {@link Game#onMessage} for a player holding a realistic spread of
+ * item and status commands, with lines that hit the player's own table, the
+ * game's table, and neither.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DispatchBenchmark
+{
+	private static class Aliased extends Item
+	{
+		private String[]	m_aliases;
+
+		private Aliased(String... aliases)
+		{
+			this.m_aliases = aliases;
+		}
+
+		@Override
+		public String[] getAliases()
+		{
+			return this.m_aliases;
+		}
+	}
+
+	private static class AliasedStatus extends Status
+	{
+		private String[]	m_aliases;
+
+		private AliasedStatus(String... aliases)
+		{
+			this.m_aliases = aliases;
+		}
+
+		@Override
+		public String[] getAliases()
+		{
+			return this.m_aliases;
+		}
+	}
+
+	@Param(
+	{ "own", "game", "miss" })
+	public String	target;
+
+	private Game	m_game;
+	private IrcUser	m_user;
+	private String	m_line;
+
+	@Benchmark
+	public void onMessage()
+	{
+		this.m_game.onMessage(this.m_user, this.m_line, true);
+	}
+
+	@Setup
+	public void setUp()
+	{
+		this.m_game = Fixtures.game();
+		this.m_user = Fixtures.join(this.m_game, 12, 12)[0];
+		this.m_user.addItem(new Aliased("shoot", "s", "fire"));
+		this.m_user.addItem(new Aliased("bless", "b"));
+		this.m_user.addItem(new Aliased("give", "g", "gift"));
+		this.m_user.addStatus(new AliasedStatus("kill", "k", "maul"));
+		this.m_user.addStatus(new AliasedStatus("see", "peek", "p"));
+		this.m_user.addStatus(new AliasedStatus("guard", "protect"));
+		if (this.target.equals("own"))
+			this.m_line = "shoot " + Fixtures.nick(5);
+		else if (this.target.equals("game"))
+			this.m_line = "join";
+		else
+			this.m_line = "lolwut is this game even running";
+	}
+}
@@ -0,0 +1,70 @@
+package werewolf.bench;
+
+import java.util.Properties;
+
+import werewolf.Game;
+import werewolf.IrcUser;
+import werewolf.Settings;
+import werewolf.WerewolfHost;
+import werewolf.sim.StandInBot;
+
+/**
+ * Builds games for the benchmarks. Games run on a {@link StandInBot} with
+ * in-memory settings, so nothing a benchmark does touches the network or the
+ * disk.
+ */
+final class Fixtures
+{
+	private static final Settings	SETTINGS	= new Settings(new Properties());
+
+	/**
+	 * Creates a game with the standard commands and rolesets.
+	 */
+	static Game game()
+	{
+		StandInBot bot = new StandInBot();
+		Game game = WerewolfHost.newGame(bot, Fixtures.SETTINGS);
+		bot.attach(game);
+		game.getPhaseTimer().setManual(true);
+		return game;
+	}
+
+	/**
+	 * Joins users to a game, and makes players of the first of them.
+	 *
+	 * @param game
+	 *            The game to join.
+	 * @param users
+	 *            The number of users to join.
+	 * @param players
+	 *            How many of the users should be players.
+	 * @return The users, in join order.
+	 */
+	static IrcUser[] join(Game game, int users, int players)
+	{
+		IrcUser[] joined = new IrcUser[users];
+		for (int i = 0; i < users; ++i)
+		{
+			joined[i] = new IrcUser(game, Fixtures.nick(i), "bench", "bench.invalid");
+			game.onJoin(joined[i]);
+			if (i < players)
+				joined[i].makePlayer();
+		}
+		return joined;
+	}
+
+	/**
+	 * @return The nick of the user joined at the given position. Nicks share
+	 *         prefixes and infixes the way real channels' nicks do.
+	 */
+	static String nick(int index)
+	{
+		String[] stems =
+		{ "wolf", "Seer", "vIllager", "hunter", "Doc", "cupid" };
+		return stems[index % stems.length] + "_" + Integer.toString(index, 36) + (index % 7 == 0 ? "`" : "");
+	}
+
+	private Fixtures()
+	{
+	}
+}
@@ -0,0 +1,82 @@
+package werewolf.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import werewolf.Game;
+import werewolf.IrcUser;
+
+/**
+ * Measures exact and partial nick lookups against channels of various sizes.
+ * Half the channel are players. Queries cycle through a fixed, shuffled list so
+ * the same work is done on every run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LookupBenchmark
+{
+	private static final int	QUERIES	= 1024;
+
+	@Param(
+	{ "10", "100", "1000", "5000" })
+	public int					users;
+
+	private Game				m_game;
+	private String[]			m_exact	= new String[LookupBenchmark.QUERIES];
+	private String[]			m_partial	= new String[LookupBenchmark.QUERIES];
+	private int					m_next	= 0;
+
+	@Benchmark
+	public IrcUser getPlayerExact()
+	{
+		return this.m_game.getPlayer(this.m_exact[this.next()]);
+	}
+
+	@Benchmark
+	public IrcUser getPlayerPartial()
+	{
+		return this.m_game.getPlayer(this.m_partial[this.next()], true);
+	}
+
+	@Benchmark
+	public IrcUser getUserExact()
+	{
+		return this.m_game.getUser(this.m_exact[this.next()]);
+	}
+
+	@Benchmark
+	public IrcUser getUserPartial()
+	{
+		return this.m_game.getUser(this.m_partial[this.next()], true);
+	}
+
+	private int next()
+	{
+		return this.m_next = (this.m_next + 1) & (LookupBenchmark.QUERIES - 1);
+	}
+
+	@Setup
+	public void setUp()
+	{
+		this.m_game = Fixtures.game();
+		IrcUser[] joined = Fixtures.join(this.m_game, this.users, this.users / 2);
+		Random random = new Random(42);
+		for (int i = 0; i < LookupBenchmark.QUERIES; ++i)
+		{
+			String nick = joined[random.nextInt(joined.length)].getNick();
+			this.m_exact[i] = random.nextBoolean() ? nick : nick.toUpperCase();
+			int start = random.nextInt(nick.length() / 2 + 1);
+			this.m_partial[i] = nick.substring(start, Math.min(nick.length(), start + 2 + random.nextInt(4)));
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package werewolf.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import werewolf.Game;
+import werewolf.IrcUser;
+import werewolf.define.interactable.Item;
+import werewolf.util.Kill;
+
+/**
+ * Measures {@link Game#calcNight()} as games grow, with a quarter of the
+ * players submitting a kill each night. Submitting the kills is counted as
+ * part of the night. The night's victims are made players again before each
+ * call, outside of the measurement, so every night runs on the full roster.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NightBenchmark
+{
+	@Param(
+	{ "10", "50", "100", "500" })
+	public int			players;
+
+	private Game		m_game;
+	private IrcUser[]	m_killers;
+	private IrcUser[]	m_targets;
+	private Item		m_weapon	= new Item();
+
+	@Benchmark
+	public void calcNight()
+	{
+		for (int i = 0; i < this.m_killers.length; ++i)
+			this.m_game.getNight().kill(new Kill(this.m_killers[i], this.m_targets[i], this.m_weapon, Game.MAUL_TYPE));
+		this.m_game.calcNight();
+	}
+
+	@Setup(Level.Invocation)
+	public void revive()
+	{
+		for (int i = 0; i < this.m_targets.length; ++i)
+			this.m_targets[i].makePlayer();
+	}
+
+	@Setup
+	public void setUp()
+	{
+		this.m_game = Fixtures.game();
+		IrcUser[] joined = Fixtures.join(this.m_game, this.players, this.players);
+		Random random = new Random(42);
+		this.m_killers = new IrcUser[Math.max(1, this.players / 4)];
+		this.m_targets = new IrcUser[this.m_killers.length];
+		for (int i = 0; i < this.m_killers.length; ++i)
+		{
+			this.m_killers[i] = joined[i];
+			this.m_targets[i] = joined[random.nextInt(joined.length)];
+		}
+	}
+}
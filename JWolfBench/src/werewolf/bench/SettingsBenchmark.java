@@ -0,0 +1,70 @@
+package werewolf.bench;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import werewolf.Game;
+import werewolf.IrcUser;
+import werewolf.Settings;
+
+/**
+ * Measures reading settings through the parsed snapshot against looking them
+ * up by key, and reading a user preference.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SettingsBenchmark
+{
+	private Settings	m_settings;
+	private IrcUser		m_user;
+
+	@Benchmark
+	public String getCmdCharByKey()
+	{
+		return this.m_settings.getSetting("cmdChar", Settings.cmdChar);
+	}
+
+	@Benchmark
+	public int getPingRateByKey()
+	{
+		return this.m_settings.getSetting("pingRate", Settings.pingRate);
+	}
+
+	@Benchmark
+	public boolean getPreference()
+	{
+		return this.m_user.getPreference("away", false);
+	}
+
+	@Benchmark
+	public int getSnapshotPingRate()
+	{
+		return this.m_settings.getSnapshot().pingRate;
+	}
+
+	@Benchmark
+	public boolean isCmdChar()
+	{
+		return this.m_settings.getSnapshot().isCmdChar('!');
+	}
+
+	@Setup
+	public void setUp()
+	{
+		Properties defaults = new Properties();
+		defaults.setProperty("pingRate", "90");
+		this.m_settings = new Settings(defaults);
+		Game game = Fixtures.game();
+		this.m_user = Fixtures.join(game, 1, 1)[0];
+		this.m_user.setPreference("away", true);
+	}
+}
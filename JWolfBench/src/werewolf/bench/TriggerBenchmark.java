@@ -0,0 +1,74 @@
+package werewolf.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import werewolf.Game;
+import werewolf.IrcUser;
+import werewolf.define.interactable.Item;
+import werewolf.define.interactable.Status;
+import werewolf.util.Kill;
+import werewolf.util.PeekMod;
+
+/**
+ * Measures how an {@link IrcUser} fans a trigger out to its items, statuses
+ * and role as the number it holds grows.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TriggerBenchmark
+{
+	@Param(
+	{ "0", "4", "16", "64" })
+	public int		held;
+
+	private IrcUser	m_user;
+	private Kill	m_kill;
+
+	@Benchmark
+	public void blockTrigger()
+	{
+		this.m_user.blockTrigger();
+	}
+
+	@Benchmark
+	public boolean nightlyHold()
+	{
+		return this.m_user.nightlyHold();
+	}
+
+	@Benchmark
+	public void peekTrigger()
+	{
+		this.m_user.peekTrigger(new PeekMod());
+	}
+
+	@Setup
+	public void setUp()
+	{
+		Game game = Fixtures.game();
+		IrcUser[] joined = Fixtures.join(game, 2, 2);
+		this.m_user = joined[0];
+		for (int i = 0; i < this.held; ++i)
+			if (i % 2 == 0)
+				this.m_user.addItem(new Item());
+			else
+				this.m_user.addStatus(new Status());
+		this.m_kill = new Kill(joined[1], this.m_user, new Item(), Game.MAUL_TYPE);
+	}
+
+	@Benchmark
+	public void stopKill()
+	{
+		this.m_user.stopKill(this.m_kill);
+	}
+}